@@ -0,0 +1,26 @@
+package com.example.connectbackend.cluster;
+
+import java.util.function.Consumer;
+
+/**
+ * Transport between chat nodes. Each node delivers the events it receives to its own sessions;
+ * the bus never loops a node's events back to itself. Events from one origin node reach a
+ * given peer in the order they were sent.
+ */
+public interface ClusterBus {
+
+    String getNodeId();
+
+    // Sends the event to every other node
+    void broadcast(ClusterEvent event);
+
+    // Sends the event to one node; events addressed to this node are ignored
+    void send(String nodeId, ClusterEvent event);
+
+    // Receives events from other nodes
+    void setListener(Consumer<ClusterEvent> listener);
+
+    UserDirectory getDirectory();
+
+    void close();
+}
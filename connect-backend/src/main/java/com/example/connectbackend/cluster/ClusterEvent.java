@@ -0,0 +1,42 @@
+package com.example.connectbackend.cluster;
+
+import com.example.connectbackend.model.Message;
+
+/**
+ * What one node tells its peers: an accepted chat message (or a piece of one still being
+ * generated) to deliver to local sessions, or a presence transition of a user.
+ */
+public record ClusterEvent(Type type, String originNodeId, Message message, String userId, String userName) {
+
+    public enum Type {
+        // message for the members of message.roomId on the receiving node
+        ROOM_MESSAGE,
+        // message for the direct channel of userId on the receiving node
+        DIRECT_MESSAGE,
+        // next piece (message.content) of a room message still being generated; null content aborts it
+        ROOM_PARTIAL,
+        // userId came online / went offline cluster-wide
+        USER_ONLINE,
+        USER_OFFLINE
+    }
+
+    public static ClusterEvent roomMessage(String originNodeId, Message message) {
+        return new ClusterEvent(Type.ROOM_MESSAGE, originNodeId, message, null, null);
+    }
+
+    public static ClusterEvent roomPartial(String originNodeId, Message partial) {
+        return new ClusterEvent(Type.ROOM_PARTIAL, originNodeId, partial, null, null);
+    }
+
+    public static ClusterEvent directMessage(String originNodeId, String userId, Message message) {
+        return new ClusterEvent(Type.DIRECT_MESSAGE, originNodeId, message, userId, null);
+    }
+
+    public static ClusterEvent userOnline(String originNodeId, String userId, String userName) {
+        return new ClusterEvent(Type.USER_ONLINE, originNodeId, null, userId, userName);
+    }
+
+    public static ClusterEvent userOffline(String originNodeId, String userId) {
+        return new ClusterEvent(Type.USER_OFFLINE, originNodeId, null, userId, null);
+    }
+}
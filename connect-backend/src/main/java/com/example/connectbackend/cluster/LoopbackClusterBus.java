@@ -0,0 +1,171 @@
+package com.example.connectbackend.cluster;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+
+/**
+ * In-process ClusterBus: nodes (e.g. several Spring contexts in one JVM) that use the same
+ * cluster name share a hub and a directory. Each node receives on its own thread, so a sender
+ * never runs a peer's delivery code while holding its own channel locks.
+ */
+public class LoopbackClusterBus implements ClusterBus {
+    private static final Logger logger = LoggerFactory.getLogger(LoopbackClusterBus.class);
+
+    private static final ConcurrentHashMap<String, Hub> hubs = new ConcurrentHashMap<>();
+
+    private static final class Hub {
+        final ConcurrentHashMap<String, LoopbackClusterBus> nodes = new ConcurrentHashMap<>();
+        final InMemoryUserDirectory directory = new InMemoryUserDirectory();
+    }
+
+    private final String clusterName;
+    private final String nodeId;
+    private final Hub hub;
+    private final ExecutorService receiver;
+    private volatile Consumer<ClusterEvent> listener = event -> { };
+
+    public LoopbackClusterBus(String clusterName, String nodeId) {
+        this.clusterName = clusterName;
+        this.nodeId = nodeId;
+        this.receiver = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "cluster-" + nodeId);
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.hub = hubs.compute(clusterName, (name, current) -> {
+            Hub target = current != null ? current : new Hub();
+            if (target.nodes.putIfAbsent(nodeId, this) != null) {
+                throw new IllegalStateException("Node " + nodeId + " already joined cluster " + name);
+            }
+            return target;
+        });
+        logger.info("Node {} joined loopback cluster {}", nodeId, clusterName);
+    }
+
+    @Override
+    public String getNodeId() {
+        return nodeId;
+    }
+
+    @Override
+    public void broadcast(ClusterEvent event) {
+        hub.nodes.forEach((id, node) -> {
+            if (!id.equals(nodeId)) {
+                node.receive(event);
+            }
+        });
+    }
+
+    @Override
+    public void send(String targetNodeId, ClusterEvent event) {
+        if (targetNodeId.equals(nodeId)) {
+            return;
+        }
+        LoopbackClusterBus node = hub.nodes.get(targetNodeId);
+        if (node != null) {
+            node.receive(event);
+        }
+    }
+
+    @Override
+    public void setListener(Consumer<ClusterEvent> listener) {
+        this.listener = listener;
+    }
+
+    @Override
+    public UserDirectory getDirectory() {
+        return hub.directory;
+    }
+
+    // Leaves the cluster; peers hear USER_OFFLINE for users who were only connected here
+    @Override
+    public void close() {
+        hubs.computeIfPresent(clusterName, (name, current) -> {
+            current.nodes.remove(nodeId, this);
+            return current.nodes.isEmpty() ? null : current;
+        });
+        for (String userId : hub.directory.removeNode(nodeId)) {
+            broadcast(ClusterEvent.userOffline(nodeId, userId));
+        }
+        receiver.shutdownNow();
+        logger.info("Node {} left loopback cluster {}", nodeId, clusterName);
+    }
+
+    private void receive(ClusterEvent event) {
+        try {
+            receiver.execute(() -> {
+                try {
+                    listener.accept(event);
+                } catch (RuntimeException e) {
+                    logger.error("Error handling {} from node {}", event.type(), event.originNodeId(), e);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            logger.debug("Node {} is closed, dropped {}", nodeId, event.type());
+        }
+    }
+
+    static final class InMemoryUserDirectory implements UserDirectory {
+        private record Entry(String userName, Set<String> nodes) {
+        }
+
+        private final ConcurrentHashMap<String, Entry> users = new ConcurrentHashMap<>();
+
+        @Override
+        public boolean register(String userId, String userName, String nodeId) {
+            boolean[] first = new boolean[1];
+            users.compute(userId, (id, current) -> {
+                first[0] = current == null;
+                Set<String> nodes = current != null ? new HashSet<>(current.nodes()) : new HashSet<>();
+                nodes.add(nodeId);
+                return new Entry(userName, Set.copyOf(nodes));
+            });
+            return first[0];
+        }
+
+        @Override
+        public boolean unregister(String userId, String nodeId) {
+            boolean[] last = new boolean[1];
+            users.computeIfPresent(userId, (id, current) -> {
+                if (!current.nodes().contains(nodeId)) {
+                    return current;
+                }
+                Set<String> nodes = new HashSet<>(current.nodes());
+                nodes.remove(nodeId);
+                last[0] = nodes.isEmpty();
+                return last[0] ? null : new Entry(current.userName(), Set.copyOf(nodes));
+            });
+            return last[0];
+        }
+
+        @Override
+        public Set<String> nodesOf(String userId) {
+            Entry entry = users.get(userId);
+            return entry != null ? entry.nodes() : Set.of();
+        }
+
+        @Override
+        public Map<String, String> onlineUsers() {
+            return users.entrySet().stream()
+                    .collect(Collectors.toMap(Map.Entry::getKey, e -> e.getValue().userName()));
+        }
+
+        // Drops a departed node, returning the users that were connected only there
+        List<String> removeNode(String nodeId) {
+            return users.keySet().stream()
+                    .filter(userId -> unregister(userId, nodeId))
+                    .toList();
+        }
+    }
+}
@@ -0,0 +1,22 @@
+package com.example.connectbackend.cluster;
+
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Cluster-wide view of which nodes hold sessions of which user.
+ * Updates are atomic per user, so exactly one node observes each online/offline transition.
+ */
+public interface UserDirectory {
+
+    // Returns true if the user had no session on any node before
+    boolean register(String userId, String userName, String nodeId);
+
+    // Returns true if the user now has no session on any node
+    boolean unregister(String userId, String nodeId);
+
+    Set<String> nodesOf(String userId);
+
+    // userId -> userName of every user online somewhere in the cluster
+    Map<String, String> onlineUsers();
+}
@@ -0,0 +1,30 @@
+package com.example.connectbackend.config;
+
+import com.example.connectbackend.cluster.ClusterBus;
+import com.example.connectbackend.cluster.LoopbackClusterBus;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import java.util.UUID;
+
+@Configuration
+public class ClusterConfig {
+
+    // Nodes with the same cluster name see each other's messages and presence
+    @Value("${chat.cluster.name:connect}")
+    private String clusterName;
+
+    // Blank: a random id per start
+    @Value("${chat.cluster.node-id:}")
+    private String nodeId;
+
+    // In-process bus: a single node, or several application contexts in one JVM.
+    // A broker-backed ClusterBus is plugged in with another chat.cluster.bus value.
+    @Bean(destroyMethod = "close")
+    @ConditionalOnProperty(name = "chat.cluster.bus", havingValue = "loopback", matchIfMissing = true)
+    public ClusterBus clusterBus() {
+        return new LoopbackClusterBus(clusterName, nodeId.isBlank() ? UUID.randomUUID().toString() : nodeId);
+    }
+}
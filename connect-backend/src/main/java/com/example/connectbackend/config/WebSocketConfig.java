@@ -1,33 +1,130 @@
 package com.example.connectbackend.config;
 
+import com.example.connectbackend.cluster.ClusterBus;
+import com.example.connectbackend.service.AIService;
 import com.example.connectbackend.service.MessageService;
+import com.example.connectbackend.websocket.ChatHandshakeInterceptor;
 import com.example.connectbackend.websocket.ChatWebSocketHandler;
+import com.example.connectbackend.websocket.InboundMode;
+import com.example.connectbackend.websocket.MessageJsonCodec;
+import com.example.connectbackend.websocket.SlowConsumerPolicy;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Lazy;
 import org.springframework.web.socket.config.annotation.EnableWebSocket;
 import org.springframework.web.socket.config.annotation.WebSocketConfigurer;
 import org.springframework.web.socket.config.annotation.WebSocketHandlerRegistry;
 import org.springframework.web.socket.server.standard.ServerEndpointExporter;
 
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+
 @Configuration
 @EnableWebSocket
 public class WebSocketConfig implements WebSocketConfigurer {
 
     private final MessageService messageService;
+    private final ClusterBus clusterBus;
+    private final ObjectProvider<AIService> aiService;
+
+    // Outbound queue limits applied to every /chat session
+    @Value("${chat.websocket.send-buffer-size-limit:524288}")
+    private int sendBufferSizeLimit;
+
+    @Value("${chat.websocket.send-time-limit-ms:10000}")
+    private long sendTimeLimitMillis;
+
+    @Value("${chat.websocket.slow-consumer-policy:CLOSE}")
+    private SlowConsumerPolicy slowConsumerPolicy;
+
+    // How many sequenced frames are kept per channel for reconnecting clients
+    @Value("${chat.websocket.replay.room-retention:2000}")
+    private int roomReplayRetention;
+
+    @Value("${chat.websocket.replay.direct-retention:100}")
+    private int directReplayRetention;
+
+    // Logs of channels nobody on this node is subscribed to are dropped after this long, oldest first beyond the cap
+    @Value("${chat.websocket.replay.idle-ttl-ms:300000}")
+    private long replayIdleTtlMillis;
+
+    @Value("${chat.websocket.replay.max-idle-channels:10000}")
+    private int replayMaxIdleChannels;
+
+    @Value("${chat.websocket.max-rooms-per-session:100}")
+    private int maxRoomsPerSession;
+
+    // Presence changes are collected for this long and sent as one diff
+    @Value("${chat.presence.window-ms:250}")
+    private long presenceWindowMillis;
 
-    public WebSocketConfig(MessageService messageService) {
+    // VIRTUAL processes inbound frames on virtual threads, INLINE on the container's WebSocket thread
+    @Value("${chat.websocket.inbound-mode:VIRTUAL}")
+    private InboundMode inboundMode;
+
+    // Frames of one user waiting to be processed; a session sending more is closed
+    @Value("${chat.websocket.inbound-max-queued-per-user:1000}")
+    private int maxInboundQueuedPerUser;
+
+    // Frames at least this large go out deflated to clients that asked for compression; 0 disables
+    @Value("${chat.websocket.compression.min-size:1024}")
+    private int compressionThreshold;
+
+    @Value("${chat.websocket.json.timestamp-format:ISO}")
+    private MessageJsonCodec.TimestampFormat timestampFormat;
+
+    public WebSocketConfig(MessageService messageService, ClusterBus clusterBus,
+                           ObjectProvider<AIService> aiService) {
         this.messageService = messageService;
+        this.clusterBus = clusterBus;
+        this.aiService = aiService;
     }
 
     @Override
     public void registerWebSocketHandlers(WebSocketHandlerRegistry registry) {
         registry.addHandler(chatWebSocketHandler(), "/chat")
+                .addInterceptors(new ChatHandshakeInterceptor())
+                .setHandshakeHandler(new ChatHandshakeInterceptor.PrincipalHandshakeHandler())
                 .setAllowedOrigins("*");  // Configure with specific origins in production
     }
 
     @Bean
     public ChatWebSocketHandler chatWebSocketHandler() {
-        return new ChatWebSocketHandler(messageService);
+        return new ChatWebSocketHandler(messageService, chatSendExecutor(),
+                sendBufferSizeLimit, sendTimeLimitMillis, slowConsumerPolicy,
+                roomReplayRetention, directReplayRetention,
+                replayIdleTtlMillis, replayMaxIdleChannels, maxRoomsPerSession,
+                chatScheduler(), presenceWindowMillis,
+                inboundMode == InboundMode.INLINE ? Runnable::run : chatInboundExecutor(),
+                maxInboundQueuedPerUser, compressionThreshold, timestampFormat, clusterBus, aiService);
+    }
+
+    // Drains the per-session outbound queues so inbound threads never write to a socket. A virtual
+    // thread per drain: a peer that stops reading parks its own drain, never the other sessions'.
+    @Bean(destroyMethod = "shutdownNow")
+    public ExecutorService chatSendExecutor() {
+        return Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("chat-send-", 0).factory());
+    }
+
+    // Parsing, persistence and fan-out of inbound frames; a virtual thread per task. Lazy, so the
+    // INLINE mode never creates it.
+    @Lazy
+    @Bean(destroyMethod = "shutdown")
+    public ExecutorService chatInboundExecutor() {
+        return Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("chat-inbound-", 0).factory());
+    }
+
+    // Presence diffs and the send time limit check; short tasks only
+    @Bean(destroyMethod = "shutdownNow")
+    public ScheduledExecutorService chatScheduler() {
+        return Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "chat-scheduler");
+            thread.setDaemon(true);
+            return thread;
+        });
     }
 
         @Bean
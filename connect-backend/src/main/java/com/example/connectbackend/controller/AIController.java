@@ -1,34 +1,124 @@
 package com.example.connectbackend.controller;
 
+import java.net.http.HttpTimeoutException;
 import java.util.Map;
+import java.util.concurrent.CompletionException;
+import java.util.regex.Pattern;
 
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.RequestBody;
 import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.context.request.async.DeferredResult;
 
-import com.example.connectbackend.model.Message;
+import com.example.connectbackend.service.AIAnswerCache;
+import com.example.connectbackend.service.AIRequestScheduler;
+import com.example.connectbackend.service.AIRequestScheduler.AIRequestRejectedException;
 import com.example.connectbackend.service.AIService;
+import com.example.connectbackend.service.GeminiClient;
 @RestController
 @RequestMapping("/api/ai")
 public class AIController {
+    private static final Logger logger = LoggerFactory.getLogger(AIController.class);
+
+    // Headroom over the queue wait and Gemini request timeout before the request itself is answered with 504
+    private static final long TIMEOUT_MARGIN_MILLIS = 5000;
+    // Same rule as room ids in the chat protocol
+    private static final Pattern ROOM_ID = Pattern.compile("[A-Za-z0-9_-]{1,64}");
+
     @Autowired
     private AIService aiService;
 
+    @Autowired
+    private GeminiClient geminiClient;
+
+    @Autowired
+    private AIAnswerCache answerCache;
+
+    @Autowired
+    private AIRequestScheduler scheduler;
+
+    /**
+     * The servlet thread is released right away; the response is written when the answer arrives.
+     * With stream=true the answer is pushed over the chat WebSocket as it is generated instead,
+     * and the response is 202 with the id the answer will have. bypassCache forces a fresh answer.
+     * When the assistant is overloaded or its upstream is failing, the answer is 503 with Retry-After.
+     */
     @PostMapping("/ask")
-    public ResponseEntity<?> askAI(@RequestBody Map<String, String> request) {
+    public DeferredResult<ResponseEntity<?>> askAI(@RequestBody Map<String, String> request,
+                                                   @RequestParam(defaultValue = "false") boolean stream,
+                                                   @RequestParam(defaultValue = "false") boolean bypassCache) {
         String question = request.get("question");
         String userId = request.get("userId");
         String userName = request.get("userName");
-        
-        try {
-            Message response = aiService.processAIQuestion(question, userId, userName);
-            return ResponseEntity.ok(response);
-        } catch (Exception e) {
-            return ResponseEntity.internalServerError()
-                .body(Map.of("error", "Failed to get AI response: " + e.getMessage()));
+
+        DeferredResult<ResponseEntity<?>> result = new DeferredResult<>(
+                scheduler.getMaxQueueWaitMillis() + geminiClient.getRequestTimeout().toMillis()
+                        + TIMEOUT_MARGIN_MILLIS,
+                () -> ResponseEntity.status(HttpStatus.GATEWAY_TIMEOUT)
+                        .body(Map.of("error", "AI response timed out")));
+        if (question == null || question.isBlank()) {
+            result.setResult(ResponseEntity.badRequest().body(Map.of("error", "question is required")));
+            return result;
         }
+        if (stream) {
+            String roomId = request.get("roomId");
+            if (roomId != null && !ROOM_ID.matcher(roomId).matches()) {
+                result.setResult(ResponseEntity.badRequest().body(Map.of("error", "Invalid roomId")));
+                return result;
+            }
+            try {
+                String id = aiService.streamAIQuestion(question, userId, roomId, bypassCache);
+                result.setResult(ResponseEntity.accepted().body(Map.of("id", id)));
+            } catch (AIRequestRejectedException e) {
+                result.setResult(rejected(e));
+            }
+            return result;
+        }
+
+        aiService.processAIQuestion(question, userId, userName, bypassCache).whenComplete((response, error) -> {
+            if (error == null) {
+                result.setResult(ResponseEntity.ok(response));
+                return;
+            }
+            Throwable cause = error instanceof CompletionException && error.getCause() != null
+                    ? error.getCause() : error;
+            if (cause instanceof AIRequestRejectedException rejection) {
+                result.setResult(rejected(rejection));
+                return;
+            }
+            logger.warn("AI question from {} failed: {}", userId, cause.toString());
+            HttpStatus status = cause instanceof HttpTimeoutException ? HttpStatus.GATEWAY_TIMEOUT
+                    : HttpStatus.INTERNAL_SERVER_ERROR;
+            result.setResult(ResponseEntity.status(status)
+                    .body(Map.of("error", "Failed to get AI response: " + cause.getMessage())));
+        });
+        return result;
+    }
+
+    private static ResponseEntity<?> rejected(AIRequestRejectedException e) {
+        return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+                .header(HttpHeaders.RETRY_AFTER, String.valueOf(e.getRetryAfterSeconds()))
+                .body(Map.of("error", e.getMessage(), "reason", e.getReason().name()));
+    }
+
+    // Answer cache effectiveness: hits, shared in-flight calls, misses and the resulting hit ratio
+    @GetMapping("/cache/stats")
+    public AIAnswerCache.Stats cacheStats() {
+        return answerCache.stats();
+    }
+
+    // Scheduler load: calls running and queued, outcomes, average latency and circuit breaker state
+    @GetMapping("/scheduler/stats")
+    public AIRequestScheduler.Stats schedulerStats() {
+        return scheduler.stats();
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,34 @@
+package com.example.connectbackend.controller;
+
+import com.example.connectbackend.service.InboxService;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+
+import java.util.Map;
+
+@RestController
+@RequestMapping("/api/inbox")
+public class InboxController {
+    @Autowired
+    private InboxService inboxService;
+
+    // Conversations of a user, most recent first, with last message and unread count
+    @GetMapping("/{userId}")
+    public ResponseEntity<?> getInbox(
+            @PathVariable String userId,
+            @RequestParam(required = false) Integer limit) {
+        return ResponseEntity.ok(inboxService.getInbox(userId, limit));
+    }
+
+    @PostMapping("/{userId}/read/{otherUserId}")
+    public ResponseEntity<?> markRead(@PathVariable String userId, @PathVariable String otherUserId) {
+        try {
+            return inboxService.markRead(userId, otherUserId)
+                    ? ResponseEntity.noContent().build()
+                    : ResponseEntity.notFound().build();
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body(Map.of("error", e.getMessage()));
+        }
+    }
+}
@@ -1,10 +1,28 @@
 package com.example.connectbackend.controller;
 
 import com.example.connectbackend.model.Message;
+import com.example.connectbackend.model.MessageCursor;
+import com.example.connectbackend.model.MessagePage;
 import com.example.connectbackend.service.MessageService;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import org.bson.types.ObjectId;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.format.annotation.DateTimeFormat;
+import org.springframework.http.CacheControl;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.WebRequest;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+
+import java.time.LocalDateTime;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.stream.Stream;
 
 @RestController
 @RequestMapping("/api/messages")
@@ -12,20 +30,162 @@ public class MessageController {
     @Autowired
     private MessageService messageService;
 
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    // Messages written between explicit flushes of an export
+    private static final int EXPORT_FLUSH_EVERY = 500;
+
     @PostMapping("/send")
     public ResponseEntity<?> sendMessage(@RequestBody Message message) {
-        return ResponseEntity.ok(messageService.saveMessage(message));
+        if (message.getSenderId() == null || message.getSenderId().isBlank()) {
+            return ResponseEntity.badRequest().body(Map.of("error", "senderId is required"));
+        }
+        // Messages from these ids are trusted by clients as assistant answers and server errors
+        if (Message.isReservedSender(message.getSenderId())) {
+            return ResponseEntity.status(HttpStatus.FORBIDDEN).body(Map.of("error", "senderId is reserved"));
+        }
+        // Id and time are assigned here, whatever the client sent
+        message.setId(ObjectId.get().toHexString());
+        message.setTimestamp(LocalDateTime.now());
+        try {
+            return ResponseEntity.ok(messageService.saveMessage(message));
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body(Map.of("error", e.getMessage()));
+        } catch (MessageService.MessageNotSavedException e) {
+            return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE).body(Map.of("error", e.getMessage()));
+        }
     }
 
+    // Keyset-paginated history: pass the prevCursor/nextCursor of a previous page as before/after
     @GetMapping("/global")
-    public ResponseEntity<?> getGlobalMessages() {
-        return ResponseEntity.ok(messageService.getGlobalMessages());
+    public ResponseEntity<?> getGlobalMessages(
+            @RequestParam(required = false) String before,
+            @RequestParam(required = false) String after,
+            @RequestParam(required = false) Integer limit) {
+        try {
+            return ResponseEntity.ok(messageService.getGlobalMessages(before, after, limit));
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body(Map.of("error", e.getMessage()));
+        }
+    }
+
+    /**
+     * Delta sync for returning clients: messages after the since cursor (the latest page without one)
+     * and the cursor to pass next time. The ETag is the room's newest message cursor alone and is
+     * only sent to a client already caught up (since is that cursor, or the room is empty), so it
+     * gets 304 and no body until something is posted. Deltas with messages carry none: the framework
+     * answers any request whose If-None-Match matches the response's ETag with a 304, body or not.
+     */
+    @GetMapping("/sync")
+    public ResponseEntity<?> syncMessages(
+            @RequestParam(required = false) String since,
+            @RequestParam(defaultValue = Message.GLOBAL_ROOM) String roomId,
+            @RequestParam(required = false) Integer limit,
+            WebRequest request) {
+        try {
+            MessageCursor latest = messageService.getLatestCursor(roomId);
+            boolean caughtUp = isCaughtUp(since, latest);
+            String etag = syncETag(latest);
+            if (caughtUp && request.checkNotModified(etag)) {
+                return null;
+            }
+            MessagePage delta = messageService.getRoomMessages(roomId, null, since, limit);
+            ResponseEntity.BodyBuilder response = ResponseEntity.ok().cacheControl(CacheControl.noCache());
+            // Empty unless a message was posted since latest was read
+            if (caughtUp && delta.messages().isEmpty()) {
+                response.eTag(etag);
+            }
+            return response.body(delta);
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body(Map.of("error", e.getMessage()));
+        }
+    }
+
+    // Cursors are URL-safe base64, which needs no escaping inside the quotes
+    private static String syncETag(MessageCursor latest) {
+        return "\"" + (latest == null ? "empty" : latest.encode()) + "\"";
     }
 
-//    @GetMapping("/private/{senderId}/{receiverId}")
-//    public ResponseEntity<?> getPrivateMessages(
-//            @PathVariable String senderId,
-//            @PathVariable String receiverId) {
-//        return ResponseEntity.ok(messageService.getPrivateMessages(senderId, receiverId));
-//    }
+    private static boolean isCaughtUp(String since, MessageCursor latest) {
+        return latest == null || latest.encode().equals(since);
+    }
+
+    /**
+     * Newline-delimited JSON export, written from a Mongo cursor as it is read so memory does not
+     * grow with the result. Filters: a room or a conversation (userId + otherUserId), and a
+     * [from, to) time range; with no filter every message is exported.
+     */
+    @GetMapping(value = "/export", produces = "application/x-ndjson")
+    public ResponseEntity<?> exportMessages(
+            @RequestParam(required = false) String roomId,
+            @RequestParam(required = false) String userId,
+            @RequestParam(required = false) String otherUserId,
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime from,
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime to) {
+        if ((userId == null) != (otherUserId == null)) {
+            return ResponseEntity.badRequest().body(Map.of("error", "userId and otherUserId go together"));
+        }
+        String conversationId;
+        try {
+            conversationId = userId == null ? null : Message.conversationIdOf(userId, otherUserId);
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body(Map.of("error", e.getMessage()));
+        }
+        if (roomId != null && conversationId != null) {
+            return ResponseEntity.badRequest().body(Map.of("error", "Only one of roomId/conversation may be given"));
+        }
+
+        // Flushing is done per chunk below, not per message
+        ObjectWriter writer = objectMapper.writer().without(SerializationFeature.FLUSH_AFTER_WRITE_VALUE);
+        StreamingResponseBody body = out -> {
+            try (Stream<Message> messages = messageService.streamMessages(roomId, conversationId, from, to);
+                 JsonGenerator generator = writer.createGenerator(out)) {
+                // The servlet container owns the response stream; records are separated by the newline below
+                generator.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+                generator.setRootValueSeparator(null);
+                int sinceFlush = 0;
+                Iterator<Message> iterator = messages.iterator();
+                while (iterator.hasNext()) {
+                    writer.writeValue(generator, iterator.next());
+                    generator.writeRaw('\n');
+                    if (++sinceFlush == EXPORT_FLUSH_EVERY) {
+                        generator.flush();
+                        sinceFlush = 0;
+                    }
+                }
+            }
+        };
+        return ResponseEntity.ok()
+                .contentType(MediaType.parseMediaType("application/x-ndjson"))
+                .body(body);
+    }
+
+    @GetMapping("/rooms/{roomId}")
+    public ResponseEntity<?> getRoomMessages(
+            @PathVariable String roomId,
+            @RequestParam(required = false) String before,
+            @RequestParam(required = false) String after,
+            @RequestParam(required = false) Integer limit) {
+        try {
+            return ResponseEntity.ok(messageService.getRoomMessages(roomId, before, after, limit));
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body(Map.of("error", e.getMessage()));
+        }
+    }
+
+    // Both directions of a private conversation, paged like the room history
+    @GetMapping("/private/{userId}/{otherUserId}")
+    public ResponseEntity<?> getPrivateMessages(
+            @PathVariable String userId,
+            @PathVariable String otherUserId,
+            @RequestParam(required = false) String before,
+            @RequestParam(required = false) String after,
+            @RequestParam(required = false) Integer limit) {
+        try {
+            return ResponseEntity.ok(messageService.getPrivateMessages(userId, otherUserId, before, after, limit));
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body(Map.of("error", e.getMessage()));
+        }
+    }
 }
\ No newline at end of file
@@ -0,0 +1,115 @@
+package com.example.connectbackend.model;
+
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.index.CompoundIndex;
+import org.springframework.data.mongodb.core.mapping.Document;
+
+import java.time.LocalDateTime;
+
+// One row per (user, conversation): what the conversation list shows, kept current on every private message
+@Document(collection = "inbox")
+@CompoundIndex(name = "user_conversation", def = "{'userId': 1, 'conversationId': 1}", unique = true)
+// The conversation list: equality on userId, newest conversation first
+@CompoundIndex(name = "user_last_timestamp", def = "{'userId': 1, 'lastTimestamp': -1}")
+public class InboxEntry {
+    @Id
+    private String id;
+    private String userId;
+    private String conversationId;
+    private String otherUserId;
+    private String otherUserName;
+    private String lastMessageId;
+    private String lastSenderId;
+    private String lastContent; // preview, truncated
+    private LocalDateTime lastTimestamp;
+    private int unreadCount;
+    private String lastReadMessageId;
+
+    public String getId() {
+        return id;
+    }
+
+    public void setId(String id) {
+        this.id = id;
+    }
+
+    public String getUserId() {
+        return userId;
+    }
+
+    public void setUserId(String userId) {
+        this.userId = userId;
+    }
+
+    public String getConversationId() {
+        return conversationId;
+    }
+
+    public void setConversationId(String conversationId) {
+        this.conversationId = conversationId;
+    }
+
+    public String getOtherUserId() {
+        return otherUserId;
+    }
+
+    public void setOtherUserId(String otherUserId) {
+        this.otherUserId = otherUserId;
+    }
+
+    public String getOtherUserName() {
+        return otherUserName;
+    }
+
+    public void setOtherUserName(String otherUserName) {
+        this.otherUserName = otherUserName;
+    }
+
+    public String getLastMessageId() {
+        return lastMessageId;
+    }
+
+    public void setLastMessageId(String lastMessageId) {
+        this.lastMessageId = lastMessageId;
+    }
+
+    public String getLastSenderId() {
+        return lastSenderId;
+    }
+
+    public void setLastSenderId(String lastSenderId) {
+        this.lastSenderId = lastSenderId;
+    }
+
+    public String getLastContent() {
+        return lastContent;
+    }
+
+    public void setLastContent(String lastContent) {
+        this.lastContent = lastContent;
+    }
+
+    public LocalDateTime getLastTimestamp() {
+        return lastTimestamp;
+    }
+
+    public void setLastTimestamp(LocalDateTime lastTimestamp) {
+        this.lastTimestamp = lastTimestamp;
+    }
+
+    public int getUnreadCount() {
+        return unreadCount;
+    }
+
+    public void setUnreadCount(int unreadCount) {
+        this.unreadCount = unreadCount;
+    }
+
+    public String getLastReadMessageId() {
+        return lastReadMessageId;
+    }
+
+    public void setLastReadMessageId(String lastReadMessageId) {
+        this.lastReadMessageId = lastReadMessageId;
+    }
+}
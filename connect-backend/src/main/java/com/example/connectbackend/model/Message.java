@@ -1,6 +1,7 @@
 package com.example.connectbackend.model;
 
 import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.index.CompoundIndex;
 import org.springframework.data.mongodb.core.mapping.Document;
 
 import com.fasterxml.jackson.annotation.JsonProperty;
@@ -8,12 +9,26 @@ import com.fasterxml.jackson.annotation.JsonProperty;
 import java.time.LocalDateTime;
 
 @Document(collection = "messages")
+// Backs the keyset history queries: equality on roomId, then range/sort on (timestamp, _id)
+@CompoundIndex(name = "room_timestamp_id", def = "{'roomId': 1, 'timestamp': 1, '_id': 1}")
+// Same for both directions of a private conversation
+@CompoundIndex(name = "conversation_timestamp_id", def = "{'conversationId': 1, 'timestamp': 1, '_id': 1}")
 public class Message {
+    // Room every global message belongs to
+    public static final String GLOBAL_ROOM = "global";
+    // Sender ids of messages the server creates itself; no user may connect as one of them
+    public static final String AI_ASSISTANT = "AI_ASSISTANT";
+    public static final String SYSTEM = "SYSTEM";
+    // Joins the two user ids of a conversationId, so no user id may contain it
+    private static final String CONVERSATION_SEPARATOR = ":";
+
     @Id
     private String id;
     private String senderId;
     private String userName;
     private String receiverId; // null for global messages
+    private String roomId; // null for private messages
+    private String conversationId; // sorted sender/receiver pair, private messages only
     private String content;
     private LocalDateTime timestamp;
     private boolean isGlobal;
@@ -56,6 +71,41 @@ public class Message {
         this.receiverId = receiverId;
     }
 
+    public String getRoomId() {
+        return roomId;
+    }
+
+    public void setRoomId(String roomId) {
+        this.roomId = roomId;
+    }
+
+    public String getConversationId() {
+        return conversationId;
+    }
+
+    public void setConversationId(String conversationId) {
+        this.conversationId = conversationId;
+    }
+
+    public static boolean isReservedSender(String userId) {
+        String id = userId.strip();
+        return id.equalsIgnoreCase(AI_ASSISTANT) || id.equalsIgnoreCase(SYSTEM);
+    }
+
+    // False for ids that would make two different pairs of users share a conversationId
+    public static boolean isValidUserId(String userId) {
+        return !userId.contains(CONVERSATION_SEPARATOR);
+    }
+
+    // The same id whichever of the two users sent the message
+    public static String conversationIdOf(String userId, String otherUserId) {
+        if (!isValidUserId(userId) || !isValidUserId(otherUserId)) {
+            throw new IllegalArgumentException("User ids may not contain '" + CONVERSATION_SEPARATOR + "'");
+        }
+        return userId.compareTo(otherUserId) <= 0 ? userId + CONVERSATION_SEPARATOR + otherUserId
+                : otherUserId + CONVERSATION_SEPARATOR + userId;
+    }
+
     public String getContent() {
         return content;
     }
@@ -0,0 +1,148 @@
+package com.example.connectbackend.model;
+
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.index.CompoundIndex;
+import org.springframework.data.mongodb.core.mapping.Document;
+import org.springframework.data.mongodb.core.mapping.Field;
+
+import java.time.LocalDateTime;
+import java.util.List;
+
+/**
+ * Bucketed storage layout: the messages of one channel (room or conversation) in one time window,
+ * up to a size cap, appended to a single document. Channel fields are stored once per bucket and
+ * messages use short keys, so index entries and bytes read scale with buckets, not messages.
+ */
+@Document(collection = "message_buckets")
+// Appends find the open bucket and history reads walk windows in order, both by equality on channel
+@CompoundIndex(name = "channel_window", def = "{'channel': 1, 'window': 1}")
+public class MessageBucket {
+    @Id
+    private String id;
+    private String channel; // "room:<roomId>", "conversation:<conversationId>" or "other"
+    private String roomId;
+    private String conversationId;
+    private long window; // start of the time window, in windows since the epoch (UTC)
+    private int count;
+    private List<Entry> messages;
+
+    // One message of the bucket; what the bucket holds for all of them is not repeated
+    public static class Entry {
+        @Field("i")
+        private String messageId;
+        @Field("s")
+        private String senderId;
+        @Field("u")
+        private String userName;
+        @Field("r")
+        private String receiverId;
+        @Field("c")
+        private String content;
+        @Field("t")
+        private LocalDateTime timestamp;
+
+        public String getMessageId() {
+            return messageId;
+        }
+
+        public void setMessageId(String messageId) {
+            this.messageId = messageId;
+        }
+
+        public String getSenderId() {
+            return senderId;
+        }
+
+        public void setSenderId(String senderId) {
+            this.senderId = senderId;
+        }
+
+        public String getUserName() {
+            return userName;
+        }
+
+        public void setUserName(String userName) {
+            this.userName = userName;
+        }
+
+        public String getReceiverId() {
+            return receiverId;
+        }
+
+        public void setReceiverId(String receiverId) {
+            this.receiverId = receiverId;
+        }
+
+        public String getContent() {
+            return content;
+        }
+
+        public void setContent(String content) {
+            this.content = content;
+        }
+
+        public LocalDateTime getTimestamp() {
+            return timestamp;
+        }
+
+        public void setTimestamp(LocalDateTime timestamp) {
+            this.timestamp = timestamp;
+        }
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public void setId(String id) {
+        this.id = id;
+    }
+
+    public String getChannel() {
+        return channel;
+    }
+
+    public void setChannel(String channel) {
+        this.channel = channel;
+    }
+
+    public String getRoomId() {
+        return roomId;
+    }
+
+    public void setRoomId(String roomId) {
+        this.roomId = roomId;
+    }
+
+    public String getConversationId() {
+        return conversationId;
+    }
+
+    public void setConversationId(String conversationId) {
+        this.conversationId = conversationId;
+    }
+
+    public long getWindow() {
+        return window;
+    }
+
+    public void setWindow(long window) {
+        this.window = window;
+    }
+
+    public int getCount() {
+        return count;
+    }
+
+    public void setCount(int count) {
+        this.count = count;
+    }
+
+    public List<Entry> getMessages() {
+        return messages;
+    }
+
+    public void setMessages(List<Entry> messages) {
+        this.messages = messages;
+    }
+}
@@ -0,0 +1,11 @@
+package com.example.connectbackend.model;
+
+import java.util.List;
+
+/**
+ * One page of history, oldest message first.
+ * prevCursor pages further back and is null once the start of history is reached.
+ * nextCursor is where to resume for newer messages, null only when the channel is empty.
+ */
+public record MessagePage(List<Message> messages, String prevCursor, String nextCursor) {
+}
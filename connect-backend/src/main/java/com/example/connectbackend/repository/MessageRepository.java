@@ -1,10 +1,30 @@
 package com.example.connectbackend.repository;
 
 import com.example.connectbackend.model.Message;
+import org.bson.types.ObjectId;
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.mongodb.repository.MongoRepository;
+import org.springframework.data.mongodb.repository.Query;
+
+import java.time.LocalDateTime;
 import java.util.List;
 
 public interface MessageRepository extends MongoRepository<Message, String> {
-    List<Message> findByIsGlobalOrderByTimestamp(boolean isGlobal);
-    List<Message> findBySenderIdAndReceiverIdOrderByTimestampDesc(String senderId, String receiverId);
+    // Keyset pages over one room; callers pass the sort and page size in the Pageable
+    List<Message> findByRoomId(String roomId, Pageable pageable);
+
+    @Query("{ 'roomId': ?0, '$or': [ { 'timestamp': { '$lt': ?1 } }, { 'timestamp': ?1, '_id': { '$lt': ?2 } } ] }")
+    List<Message> findRoomBefore(String roomId, LocalDateTime timestamp, ObjectId id, Pageable pageable);
+
+    @Query("{ 'roomId': ?0, '$or': [ { 'timestamp': { '$gt': ?1 } }, { 'timestamp': ?1, '_id': { '$gt': ?2 } } ] }")
+    List<Message> findRoomAfter(String roomId, LocalDateTime timestamp, ObjectId id, Pageable pageable);
+
+    // The same keyset pages over both directions of a private conversation
+    List<Message> findByConversationId(String conversationId, Pageable pageable);
+
+    @Query("{ 'conversationId': ?0, '$or': [ { 'timestamp': { '$lt': ?1 } }, { 'timestamp': ?1, '_id': { '$lt': ?2 } } ] }")
+    List<Message> findConversationBefore(String conversationId, LocalDateTime timestamp, ObjectId id, Pageable pageable);
+
+    @Query("{ 'conversationId': ?0, '$or': [ { 'timestamp': { '$gt': ?1 } }, { 'timestamp': ?1, '_id': { '$gt': ?2 } } ] }")
+    List<Message> findConversationAfter(String conversationId, LocalDateTime timestamp, ObjectId id, Pageable pageable);
 }
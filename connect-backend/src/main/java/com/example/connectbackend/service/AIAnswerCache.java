@@ -0,0 +1,159 @@
+package com.example.connectbackend.service;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.time.Clock;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+import java.util.regex.Pattern;
+
+/**
+ * Answers to recent questions, keyed by the normalized question, bounded by entry count (least
+ * recently used goes first) and by age. Identical questions asked while one is already being
+ * answered share that upstream call instead of starting their own.
+ */
+@Component
+public class AIAnswerCache {
+    private static final Pattern COMMAND_PREFIX = Pattern.compile("^@ai\\b\\s*");
+    private static final Pattern WHITESPACE = Pattern.compile("\\s+");
+    private static final Pattern TRAILING_PUNCTUATION = Pattern.compile("[\\s?!.]+$");
+
+    private record Entry(String answer, long expiresAt) {
+    }
+
+    public record Stats(long hits, long coalesced, long misses, long bypassed, int size, double hitRatio) {
+    }
+
+    private final int maxEntries;
+    private final long ttlMillis;
+    private final Clock clock;
+
+    // Access-ordered, so iteration starts at the least recently used entry. Guarded by itself.
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private final ConcurrentHashMap<String, CompletableFuture<String>> inFlight = new ConcurrentHashMap<>();
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder coalesced = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder bypassed = new LongAdder();
+
+    @Autowired
+    public AIAnswerCache(@Value("${chat.ai.cache.max-entries:1000}") int maxEntries,
+                         @Value("${chat.ai.cache.ttl-seconds:600}") long ttlSeconds) {
+        this(maxEntries, ttlSeconds * 1000, Clock.systemUTC());
+    }
+
+    AIAnswerCache(int maxEntries, long ttlMillis, Clock clock) {
+        this.maxEntries = Math.max(0, maxEntries);
+        this.ttlMillis = ttlMillis;
+        this.clock = clock;
+    }
+
+    // Case, spacing, a leading @AI and trailing punctuation do not make a different question
+    static String normalize(String question) {
+        String normalized = WHITESPACE.matcher(question.trim().toLowerCase(Locale.ROOT)).replaceAll(" ");
+        normalized = COMMAND_PREFIX.matcher(normalized).replaceFirst("");
+        return TRAILING_PUNCTUATION.matcher(normalized).replaceFirst("");
+    }
+
+    /**
+     * The cached answer, the answer of an identical call in flight, or a new upstream call whose
+     * answer is cached once it succeeds. Failures are not cached. With bypass the cache and calls
+     * in flight are ignored, but the fresh answer still replaces the cached one.
+     */
+    public CompletableFuture<String> get(String question, boolean bypass, Supplier<CompletableFuture<String>> upstream) {
+        String key = normalize(question);
+        if (bypass || maxEntries == 0) {
+            bypassed.increment();
+            return upstream.get().thenApply(answer -> store(key, answer));
+        }
+        String cached = lookup(key);
+        if (cached != null) {
+            hits.increment();
+            return CompletableFuture.completedFuture(cached);
+        }
+
+        CompletableFuture<String> call = new CompletableFuture<>();
+        CompletableFuture<String> existing = inFlight.putIfAbsent(key, call);
+        if (existing != null) {
+            coalesced.increment();
+            return existing;
+        }
+        // An identical call may have finished between the lookup and joining the flight
+        cached = lookup(key);
+        if (cached != null) {
+            inFlight.remove(key, call);
+            hits.increment();
+            call.complete(cached);
+            return call;
+        }
+        misses.increment();
+        try {
+            upstream.get().whenComplete((answer, error) -> {
+                if (error == null) {
+                    store(key, answer);
+                }
+                // Leave the flight before completing, so a caller woken by the result starts fresh
+                inFlight.remove(key, call);
+                if (error == null) {
+                    call.complete(answer);
+                } else {
+                    call.completeExceptionally(error);
+                }
+            });
+        } catch (RuntimeException e) {
+            inFlight.remove(key, call);
+            call.completeExceptionally(e);
+        }
+        return call;
+    }
+
+    public Stats stats() {
+        long hitCount = hits.sum();
+        long coalescedCount = coalesced.sum();
+        long missCount = misses.sum();
+        long served = hitCount + coalescedCount + missCount;
+        int size;
+        synchronized (entries) {
+            size = entries.size();
+        }
+        // Questions answered without an upstream call of their own, bypassed ones not counted
+        double ratio = served == 0 ? 0 : (double) (hitCount + coalescedCount) / served;
+        return new Stats(hitCount, coalescedCount, missCount, bypassed.sum(), size, ratio);
+    }
+
+    private String lookup(String key) {
+        synchronized (entries) {
+            Entry entry = entries.get(key);
+            if (entry == null) {
+                return null;
+            }
+            if (entry.expiresAt() <= clock.millis()) {
+                entries.remove(key);
+                return null;
+            }
+            return entry.answer();
+        }
+    }
+
+    private String store(String key, String answer) {
+        if (maxEntries == 0) {
+            return answer;
+        }
+        synchronized (entries) {
+            entries.put(key, new Entry(answer, clock.millis() + ttlMillis));
+            while (entries.size() > maxEntries) {
+                Map.Entry<String, Entry> eldest = entries.entrySet().iterator().next();
+                entries.remove(eldest.getKey());
+            }
+        }
+        return answer;
+    }
+}
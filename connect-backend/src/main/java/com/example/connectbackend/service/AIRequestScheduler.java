@@ -0,0 +1,310 @@
+package com.example.connectbackend.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * Admission control in front of the Gemini calls. At most max-concurrent calls are in flight;
+ * the rest wait in per-user queues that are served round-robin, so one user's burst cannot push
+ * everyone else back. A request is turned away up front when its expected wait exceeds
+ * max-queue-wait, and a circuit breaker stops calling upstream after repeated failures.
+ * <p>
+ * A call holds its slot until its future completes, not while a thread runs it.
+ */
+@Component
+public class AIRequestScheduler {
+    private static final Logger logger = LoggerFactory.getLogger(AIRequestScheduler.class);
+
+    // Weight of the newest latency sample in the moving average
+    private static final double LATENCY_SMOOTHING = 0.2;
+
+    public enum BreakerState {
+        CLOSED,
+        // Rejecting everything until open-ms has passed
+        OPEN,
+        // One trial call decides between CLOSED and OPEN
+        HALF_OPEN
+    }
+
+    public enum Rejection {
+        // Queue full or expected wait too long
+        BUSY,
+        // Circuit breaker open after upstream failures
+        UNAVAILABLE
+    }
+
+    public static class AIRequestRejectedException extends RuntimeException {
+        private final Rejection reason;
+        private final long retryAfterSeconds;
+
+        public AIRequestRejectedException(Rejection reason, String message, long retryAfterSeconds) {
+            super(message);
+            this.reason = reason;
+            this.retryAfterSeconds = retryAfterSeconds;
+        }
+
+        public Rejection getReason() {
+            return reason;
+        }
+
+        public long getRetryAfterSeconds() {
+            return retryAfterSeconds;
+        }
+    }
+
+    public record Stats(int running, int queued, long completed, long failed, long rejected, long expired,
+                        long averageLatencyMillis, BreakerState breaker) {
+    }
+
+    private static final class Job<T> {
+        final String userId;
+        final Supplier<CompletableFuture<T>> call;
+        final long enqueuedAt = System.nanoTime();
+        final CompletableFuture<T> result = new CompletableFuture<>();
+
+        Job(String userId, Supplier<CompletableFuture<T>> call) {
+            this.userId = userId;
+            this.call = call;
+        }
+
+        @SuppressWarnings("unchecked")
+        void complete(Object value, Throwable error) {
+            if (error != null) {
+                result.completeExceptionally(error);
+            } else {
+                result.complete((T) value);
+            }
+        }
+    }
+
+    private final int maxConcurrent;
+    private final int maxQueued;
+    private final int maxQueuedPerUser;
+    private final long maxQueueWaitNanos;
+    private final int failureThreshold;
+    private final long openNanos;
+
+    // All state below is guarded by lock
+    private final Object lock = new Object();
+    private final Map<String, ArrayDeque<Job<?>>> queues = new HashMap<>();
+    // Users with queued jobs, in the order they get their next turn
+    private final ArrayDeque<String> turns = new ArrayDeque<>();
+    private int running;
+    private int queued;
+    private double averageLatencyNanos;
+    private long completed;
+    private long failed;
+    private long rejected;
+    private long expired;
+    private BreakerState breaker = BreakerState.CLOSED;
+    private int consecutiveFailures;
+    private long openedAt;
+    private boolean trialAdmitted;
+
+    @Autowired
+    public AIRequestScheduler(@Value("${chat.ai.scheduler.max-concurrent:8}") int maxConcurrent,
+                              @Value("${chat.ai.scheduler.max-queued:200}") int maxQueued,
+                              @Value("${chat.ai.scheduler.max-queued-per-user:3}") int maxQueuedPerUser,
+                              @Value("${chat.ai.scheduler.max-queue-wait-ms:10000}") long maxQueueWaitMillis,
+                              @Value("${chat.ai.scheduler.breaker.failure-threshold:5}") int failureThreshold,
+                              @Value("${chat.ai.scheduler.breaker.open-ms:30000}") long openMillis) {
+        this.maxConcurrent = Math.max(1, maxConcurrent);
+        this.maxQueued = Math.max(0, maxQueued);
+        this.maxQueuedPerUser = Math.max(1, maxQueuedPerUser);
+        this.maxQueueWaitNanos = TimeUnit.MILLISECONDS.toNanos(maxQueueWaitMillis);
+        this.failureThreshold = Math.max(1, failureThreshold);
+        this.openNanos = TimeUnit.MILLISECONDS.toNanos(openMillis);
+    }
+
+    public long getMaxQueueWaitMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(maxQueueWaitNanos);
+    }
+
+    /**
+     * Runs the call when a slot is free and it is the user's turn. The returned future fails with
+     * AIRequestRejectedException, without the call being made, when the request is shed or the
+     * breaker is open; a rejection at admission is already completed when this returns.
+     */
+    public <T> CompletableFuture<T> submit(String userId, Supplier<CompletableFuture<T>> call) {
+        Job<T> job = new Job<>(userId == null ? "" : userId, call);
+        synchronized (lock) {
+            AIRequestRejectedException rejection = admit(job.userId);
+            if (rejection != null) {
+                rejected++;
+                return CompletableFuture.failedFuture(rejection);
+            }
+            ArrayDeque<Job<?>> queue = queues.computeIfAbsent(job.userId, user -> new ArrayDeque<>());
+            if (queue.isEmpty()) {
+                turns.add(job.userId);
+            }
+            queue.add(job);
+            queued++;
+        }
+        dispatch();
+        return job.result;
+    }
+
+    public Stats stats() {
+        synchronized (lock) {
+            return new Stats(running, queued, completed, failed, rejected, expired,
+                    TimeUnit.NANOSECONDS.toMillis((long) averageLatencyNanos), currentBreakerState());
+        }
+    }
+
+    private AIRequestRejectedException admit(String userId) {
+        BreakerState state = currentBreakerState();
+        if (state == BreakerState.OPEN) {
+            long remaining = openNanos - (System.nanoTime() - openedAt);
+            return new AIRequestRejectedException(Rejection.UNAVAILABLE,
+                    "AI assistant is temporarily unavailable", secondsAtLeastOne(remaining));
+        }
+        if (state == BreakerState.HALF_OPEN) {
+            if (trialAdmitted) {
+                return new AIRequestRejectedException(Rejection.UNAVAILABLE,
+                        "AI assistant is temporarily unavailable", 1);
+            }
+            trialAdmitted = true;
+            return null;
+        }
+        ArrayDeque<Job<?>> queue = queues.get(userId);
+        if (queue != null && queue.size() >= maxQueuedPerUser) {
+            return busy(averageLatencyNanos);
+        }
+        if (running < maxConcurrent) {
+            return null;
+        }
+        if (queued >= maxQueued) {
+            return busy(averageLatencyNanos);
+        }
+        // Every queued job ahead, spread over all slots, at the recent average latency
+        double expectedWait = (queued + 1) * averageLatencyNanos / maxConcurrent;
+        return expectedWait > maxQueueWaitNanos ? busy(expectedWait) : null;
+    }
+
+    private static AIRequestRejectedException busy(double waitNanos) {
+        return new AIRequestRejectedException(Rejection.BUSY, "AI assistant is busy, try again shortly",
+                secondsAtLeastOne((long) waitNanos));
+    }
+
+    private static long secondsAtLeastOne(long nanos) {
+        return Math.max(1, TimeUnit.NANOSECONDS.toSeconds(nanos + 999_999_999));
+    }
+
+    // Moves OPEN to HALF_OPEN once the open period is over. Called with lock held.
+    private BreakerState currentBreakerState() {
+        if (breaker == BreakerState.OPEN && System.nanoTime() - openedAt >= openNanos) {
+            breaker = BreakerState.HALF_OPEN;
+            trialAdmitted = false;
+        }
+        return breaker;
+    }
+
+    // Starts queued jobs while slots are free, taking one job per user in turn
+    private void dispatch() {
+        while (true) {
+            Job<?> next;
+            boolean tooLate;
+            synchronized (lock) {
+                if (running >= maxConcurrent || turns.isEmpty()) {
+                    return;
+                }
+                String userId = turns.poll();
+                ArrayDeque<Job<?>> queue = queues.get(userId);
+                next = queue.poll();
+                queued--;
+                if (queue.isEmpty()) {
+                    queues.remove(userId);
+                } else {
+                    turns.add(userId);
+                }
+                // The caller has been told nothing yet; past the deadline an answer is no longer useful
+                tooLate = System.nanoTime() - next.enqueuedAt > maxQueueWaitNanos;
+                if (tooLate) {
+                    expired++;
+                } else {
+                    running++;
+                }
+            }
+            if (tooLate) {
+                next.complete(null, busy(maxQueueWaitNanos));
+            } else {
+                start(next);
+            }
+        }
+    }
+
+    private void start(Job<?> job) {
+        long startedAt = System.nanoTime();
+        CompletableFuture<?> call;
+        try {
+            call = job.call.get();
+        } catch (RuntimeException e) {
+            call = CompletableFuture.failedFuture(e);
+        }
+        call.whenComplete((value, error) -> {
+            finished(startedAt, error);
+            job.complete(value, error);
+            dispatch();
+        });
+    }
+
+    private void finished(long startedAt, Throwable error) {
+        List<Job<?>> dropped = List.of();
+        synchronized (lock) {
+            running--;
+            long latency = System.nanoTime() - startedAt;
+            averageLatencyNanos = averageLatencyNanos == 0 ? latency
+                    : LATENCY_SMOOTHING * latency + (1 - LATENCY_SMOOTHING) * averageLatencyNanos;
+            if (error == null) {
+                completed++;
+                consecutiveFailures = 0;
+                breaker = BreakerState.CLOSED;
+            } else if (!(unwrap(error) instanceof AIRequestRejectedException)) {
+                failed++;
+                consecutiveFailures++;
+                if (breaker == BreakerState.HALF_OPEN || consecutiveFailures >= failureThreshold) {
+                    if (breaker != BreakerState.OPEN) {
+                        logger.warn("Opening the AI circuit breaker after {} consecutive failures",
+                                consecutiveFailures);
+                    }
+                    breaker = BreakerState.OPEN;
+                    openedAt = System.nanoTime();
+                    dropped = drainQueues();
+                }
+            }
+        }
+        // Queued callers would only hit the same failing upstream
+        for (Job<?> job : dropped) {
+            job.complete(null, new AIRequestRejectedException(Rejection.UNAVAILABLE,
+                    "AI assistant is temporarily unavailable", secondsAtLeastOne(openNanos)));
+        }
+    }
+
+    // Called with lock held
+    private List<Job<?>> drainQueues() {
+        List<Job<?>> drained = new ArrayList<>(queued);
+        queues.values().forEach(drained::addAll);
+        queues.clear();
+        turns.clear();
+        queued = 0;
+        rejected += drained.size();
+        return drained;
+    }
+
+    static Throwable unwrap(Throwable error) {
+        return error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+    }
+}
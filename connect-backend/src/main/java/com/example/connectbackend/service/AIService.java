@@ -1,151 +1,107 @@
 package com.example.connectbackend.service;
 
-import java.io.BufferedReader;
-import java.io.InputStreamReader;
-import java.io.OutputStream;
-import java.net.HttpURLConnection;
-import java.net.URL;
-import java.nio.charset.StandardCharsets;
 import java.time.LocalDateTime;
-import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.List;
-import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 
+import org.bson.types.ObjectId;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 
 import com.example.connectbackend.model.Message;
-import com.fasterxml.jackson.core.type.TypeReference;
-import com.fasterxml.jackson.databind.ObjectMapper;
-
-import org.springframework.beans.factory.annotation.Value;
+import com.example.connectbackend.service.AIRequestScheduler.AIRequestRejectedException;
+import com.example.connectbackend.websocket.ChatWebSocketHandler;
 
 @Service
 public class AIService {
-    @Value("${gemini.api.key}")
-    private String apiKey;
+    private static final Logger logger = LoggerFactory.getLogger(AIService.class);
+
+    @Autowired
+    private GeminiClient geminiClient;
 
     @Autowired
     private MessageService messageService;
 
-    private final ObjectMapper objectMapper = new ObjectMapper();
+    @Autowired
+    private ChatWebSocketHandler chatWebSocketHandler;
 
-    public Message processAIQuestion(String question, String userId, String userName) {
-        try {
-            // Call Gemini API
-            String aiResponse = callGeminiAPI(question);
+    @Autowired
+    private AIAnswerCache answerCache;
 
-            // Create message object
-            Message responseMsg = new Message();
-            responseMsg.setSenderId("AI_ASSISTANT");
-            responseMsg.setUserName("AI Assistant");
+    @Autowired
+    private AIRequestScheduler scheduler;
+
+    /**
+     * Completes with the saved answer, which is also published to the global room like a streamed
+     * one; no thread waits for Gemini in the meantime. Repeated
+     * questions are answered from the cache unless bypassCache is set; the rest wait for their
+     * turn in the scheduler and may fail with an AIRequestRejectedException.
+     */
+    public CompletableFuture<Message> processAIQuestion(String question, String userId, String userName,
+                                                        boolean bypassCache) {
+        CompletableFuture<String> aiAnswer =
+                answerCache.get(question, bypassCache,
+                        () -> scheduler.submit(userId, () -> geminiClient.generateContent(question)));
+        return aiAnswer.thenApply(aiResponse -> {
+            Message responseMsg = newAnswer(Message.GLOBAL_ROOM);
             responseMsg.setContent(aiResponse);
-            responseMsg.setTimestamp(LocalDateTime.now());
-            responseMsg.setGlobal(true);
-
-            // Save and return the message
-            return messageService.saveMessage(responseMsg);
-        } catch (Exception e) {
-            throw new RuntimeException("Failed to process AI question: " + e.getMessage());
-        }
+            return publishAnswer(responseMsg);
+        });
     }
 
-    private String callGeminiAPI(String question) {
-        try {
-            String geminiUrl = "https://generativelanguage.googleapis.com/v1/models/gemini-pro:generateContent";
-            URL url = new URL(geminiUrl + "?key=" + apiKey);
-
-            HttpURLConnection conn = (HttpURLConnection) url.openConnection();
-            conn.setRequestMethod("POST");
-            conn.setRequestProperty("Content-Type", "application/json");
-
-            // Set doOutput before getting output stream
-            conn.setDoOutput(true);
-            // Log request URL and headers for debugging
-            System.out.println("Request URL: " + url);
-            System.out.println("API Key: " + apiKey);
-
-            // Prepare Gemini request payload
-            Map<String, Object> requestBody = new HashMap<>();
-            Map<String, Object> content = new HashMap<>();
-            Map<String, String> part = new HashMap<>();
-            part.put("text", question);
-
-            List<Map<String, String>> parts = new ArrayList<>();
-            parts.add(part);
-            content.put("parts", parts);
-
-            List<Map<String, Object>> contents = new ArrayList<>();
-            contents.add(content);
-            requestBody.put("contents", contents);
-
-            String jsonPayload = objectMapper.writeValueAsString(requestBody);
-
-            // Log request payload
-            System.out.println("Request Payload: " + jsonPayload);
-
-            // Send request
-            try (OutputStream os = conn.getOutputStream()) {
-                os.write(jsonPayload.getBytes(StandardCharsets.UTF_8));
+    /**
+     * Streams the answer into the room while Gemini generates it: every piece goes out as a
+     * PARTIAL frame for the answer's id, and the complete answer is saved and published once,
+     * under the same id, when the stream ends. Returns that id right away. A cached answer, or one
+     * shared with an identical question already streaming, arrives as the final message only.
+     * Throws AIRequestRejectedException when the scheduler turns the question away up front.
+     */
+    public String streamAIQuestion(String question, String userId, String roomId, boolean bypassCache) {
+        Message answer = newAnswer(roomId == null ? Message.GLOBAL_ROOM : roomId);
+        answer.setId(ObjectId.get().toHexString());
+        CompletableFuture<String> streamed = answerCache.get(question, bypassCache,
+                () -> scheduler.submit(userId, () -> geminiClient.streamContent(question,
+                        delta -> chatWebSocketHandler.publishPartial(answer, delta))));
+        // Shed before anything was sent: report it to the caller instead of as an aborted stream
+        if (streamed.isCompletedExceptionally()
+                && AIRequestScheduler.unwrap(streamed.exceptionNow()) instanceof AIRequestRejectedException rejected) {
+            throw rejected;
+        }
+        streamed.whenComplete((text, error) -> {
+            if (error != null) {
+                logger.warn("Streaming AI answer {} for {} failed: {}", answer.getId(), userId,
+                        error.toString());
+                chatWebSocketHandler.abortPartial(answer);
+                return;
             }
-
-            // Log response code
-            System.out.println("Response Code: " + conn.getResponseCode());
-
-            // Get response
-            if (conn.getResponseCode() == 200) {
-                // Parse response
-                Map<String, Object> response = objectMapper.readValue(
-                        conn.getInputStream(),
-                        new TypeReference<Map<String, Object>>() {
-                        });
-
-                // Log full response
-                System.out.println("Full Response: " + response);
-
-                return extractTextFromGeminiResponse(response);
-            } else {
-                // Log error response
-                BufferedReader br = new BufferedReader(
-                        new InputStreamReader(conn.getErrorStream()));
-                StringBuilder errorResponse = new StringBuilder();
-                String line;
-                while ((line = br.readLine()) != null) {
-                    errorResponse.append(line);
-                }
-                System.out.println("Error Response: " + errorResponse.toString());
-
-                throw new RuntimeException("Gemini API error: " + conn.getResponseCode());
+            answer.setContent(text);
+            try {
+                publishAnswer(answer);
+            } catch (MessageService.MessageNotSavedException e) {
+                logger.warn("AI answer {} for {} not saved: {}", answer.getId(), userId, e.getMessage());
+                chatWebSocketHandler.abortPartial(answer);
             }
+        });
+        return answer.getId();
+    }
 
-        } catch (Exception e) {
-            e.printStackTrace();
-            throw new RuntimeException("Failed to call Gemini API: " + e.getMessage());
-        }
+    // The one way an answer reaches history and the room, whichever path produced it
+    private Message publishAnswer(Message answer) {
+        // Ordered by when the answer was complete, not when it started
+        answer.setTimestamp(LocalDateTime.now());
+        Message saved = messageService.saveMessage(answer);
+        chatWebSocketHandler.publishMessage(saved);
+        return saved;
     }
 
-    private String extractTextFromGeminiResponse(Map<String, Object> response) {
-        try {
-            List<Map<String, Object>> candidates = (List<Map<String, Object>>) response.get("candidates");
-            if (candidates != null && !candidates.isEmpty()) {
-                Map<String, Object> candidate = candidates.get(0);
-                Map<String, Object> content = (Map<String, Object>) candidate.get("content");
-                if (content != null) {
-                    List<Map<String, Object>> parts = (List<Map<String, Object>>) content.get("parts");
-                    if (parts != null && !parts.isEmpty()) {
-                        Map<String, Object> part = parts.get(0);
-                        String text = (String) part.get("text");
-                        if (text != null) {
-                            return text;
-                        }
-                    }
-                }
-            }
-            throw new RuntimeException("Invalid response structure from Gemini API");
-        } catch (Exception e) {
-            e.printStackTrace();
-            throw new RuntimeException("Error extracting text from Gemini response: " + e.getMessage());
-        }
+    private static Message newAnswer(String roomId) {
+        Message answer = new Message();
+        answer.setSenderId(Message.AI_ASSISTANT);
+        answer.setUserName("AI Assistant");
+        answer.setTimestamp(LocalDateTime.now());
+        answer.setRoomId(roomId);
+        answer.setGlobal(Message.GLOBAL_ROOM.equals(roomId));
+        return answer;
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,362 @@
+package com.example.connectbackend.service;
+
+import com.example.connectbackend.model.Message;
+import com.example.connectbackend.model.MessageBucket;
+import com.example.connectbackend.model.MessageCursor;
+import jakarta.annotation.PostConstruct;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Profile;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.BulkOperationException;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.stereotype.Service;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.function.Predicate;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * Time-bucketed layout: messages are appended to one document per (channel, time window) until it
+ * holds max-messages, then a new bucket is opened. A history page reads a handful of buckets
+ * instead of one index entry and document per message.
+ */
+@Service
+@Profile("!" + LogMessageStore.PROFILE)
+@ConditionalOnProperty(name = "chat.messages.storage-layout", havingValue = "BUCKETED")
+public class BucketedMessageStore implements MessageStore {
+    private static final Logger logger = LoggerFactory.getLogger(BucketedMessageStore.class);
+
+    private static final Comparator<Message> NEWEST_FIRST = RecentMessageBuffer.HISTORY_ORDER.reversed();
+
+    @Autowired
+    private MongoTemplate mongoTemplate;
+
+    @Value("${chat.messages.buckets.window-minutes:60}")
+    private long windowMinutes;
+
+    @Value("${chat.messages.buckets.max-messages:200}")
+    private int maxMessagesPerBucket;
+
+    @Value("${chat.messages.buckets.migrate-on-start:false}")
+    private boolean migrateOnStart;
+
+    @Value("${chat.messages.export.batch-size:500}")
+    private int exportBatchSize;
+
+    private long windowMillis;
+
+    private record BucketKey(String channel, long window) {
+    }
+
+    @PostConstruct
+    void start() {
+        windowMillis = Duration.ofMinutes(Math.max(1, windowMinutes)).toMillis();
+        maxMessagesPerBucket = Math.max(1, maxMessagesPerBucket);
+        if (migrateOnStart) {
+            new MessageBucketMigration(mongoTemplate, this, exportBatchSize).run();
+        }
+    }
+
+    /**
+     * One unordered bulk write per call: each (channel, window) group becomes a single upsert that
+     * pushes the whole group onto a bucket with room for it, or opens a new bucket.
+     */
+    @Override
+    public List<Message> insert(List<Message> messages) {
+        List<List<Message>> chunks = chunk(messages);
+        BulkOperations bulk = mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, MessageBucket.class);
+        for (List<Message> chunk : chunks) {
+            bulk.upsert(openBucket(chunk), append(chunk));
+        }
+        try {
+            bulk.execute();
+            return messages;
+        } catch (BulkOperationException e) {
+            logger.error("Bucket write of {} messages failed for {} of {} buckets, retrying those",
+                    messages.size(), e.getErrors().size(), chunks.size(), e);
+            Set<Integer> failed = new HashSet<>();
+            e.getErrors().forEach(error -> failed.add(error.getIndex()));
+            List<Message> persisted = new ArrayList<>(messages.size());
+            for (int i = 0; i < chunks.size(); i++) {
+                List<Message> chunk = chunks.get(i);
+                if (!failed.contains(i)) {
+                    persisted.addAll(chunk);
+                    continue;
+                }
+                try {
+                    mongoTemplate.upsert(openBucket(chunk), append(chunk), MessageBucket.class);
+                    persisted.addAll(chunk);
+                } catch (Exception retryError) {
+                    logger.error("Failed to persist {} messages of {}", chunk.size(), channelOf(chunk.get(0)),
+                            retryError);
+                }
+            }
+            return persisted;
+        } catch (Exception e) {
+            logger.error("Bucket write of {} messages failed", messages.size(), e);
+            return List.of();
+        }
+    }
+
+    // Groups by (channel, window) in arrival order, split so no group overflows an empty bucket
+    private List<List<Message>> chunk(List<Message> messages) {
+        Map<BucketKey, List<Message>> groups = new LinkedHashMap<>();
+        for (Message message : messages) {
+            groups.computeIfAbsent(new BucketKey(channelOf(message), windowOf(message.getTimestamp())),
+                    key -> new ArrayList<>()).add(message);
+        }
+        List<List<Message>> chunks = new ArrayList<>();
+        for (List<Message> group : groups.values()) {
+            for (int start = 0; start < group.size(); start += maxMessagesPerBucket) {
+                chunks.add(group.subList(start, Math.min(group.size(), start + maxMessagesPerBucket)));
+            }
+        }
+        return chunks;
+    }
+
+    // A bucket of the chunk's channel and window that still has room for all of it
+    private Query openBucket(List<Message> chunk) {
+        Message first = chunk.get(0);
+        return Query.query(Criteria.where("channel").is(channelOf(first))
+                .and("window").is(windowOf(first.getTimestamp()))
+                .and("count").lte(maxMessagesPerBucket - chunk.size()));
+    }
+
+    // channel and window come from the filter when the upsert opens a bucket
+    private static Update append(List<Message> chunk) {
+        Message first = chunk.get(0);
+        Update update = new Update()
+                .push("messages").each(chunk.stream().map(BucketedMessageStore::toEntry).toArray())
+                .inc("count", chunk.size());
+        if (first.getRoomId() != null) {
+            update.setOnInsert("roomId", first.getRoomId());
+        }
+        if (first.getConversationId() != null) {
+            update.setOnInsert("conversationId", first.getConversationId());
+        }
+        return update;
+    }
+
+    @Override
+    public KeysetQueries room(String roomId) {
+        return queries("room:" + roomId);
+    }
+
+    @Override
+    public KeysetQueries conversation(String conversationId) {
+        return queries("conversation:" + conversationId);
+    }
+
+    private KeysetQueries queries(String channel) {
+        return new KeysetQueries() {
+            @Override
+            public List<Message> latest(int limit) {
+                return scan(channel, null, Sort.Direction.DESC, message -> true, NEWEST_FIRST, limit);
+            }
+
+            @Override
+            public List<Message> before(MessageCursor cursor, int limit) {
+                return scan(channel, Criteria.where("window").lte(windowOf(cursor.timestamp())), Sort.Direction.DESC,
+                        message -> compare(message, cursor) < 0, NEWEST_FIRST, limit);
+            }
+
+            @Override
+            public List<Message> after(MessageCursor cursor, int limit) {
+                return scan(channel, Criteria.where("window").gte(windowOf(cursor.timestamp())), Sort.Direction.ASC,
+                        message -> compare(message, cursor) > 0, RecentMessageBuffer.HISTORY_ORDER, limit);
+            }
+        };
+    }
+
+    /**
+     * Walks the channel's buckets window by window in the given direction. Buckets of one window can
+     * interleave, so a window is always read completely before the scan decides it has enough.
+     */
+    private List<Message> scan(String channel, Criteria windowBound, Sort.Direction direction,
+                               Predicate<Message> include, Comparator<Message> order, int limit) {
+        Criteria criteria = Criteria.where("channel").is(channel);
+        if (windowBound != null) {
+            criteria = new Criteria().andOperator(criteria, windowBound);
+        }
+        Query query = Query.query(criteria).with(Sort.by(direction, "window"))
+                .cursorBatchSize(Math.max(2, limit / maxMessagesPerBucket + 2));
+        List<Message> collected = new ArrayList<>();
+        try (Stream<MessageBucket> buckets = mongoTemplate.stream(query, MessageBucket.class)) {
+            Iterator<MessageBucket> iterator = buckets.iterator();
+            Long currentWindow = null;
+            while (iterator.hasNext()) {
+                MessageBucket bucket = iterator.next();
+                if (currentWindow != null && bucket.getWindow() != currentWindow && collected.size() >= limit) {
+                    break;
+                }
+                currentWindow = bucket.getWindow();
+                for (Message message : toMessages(bucket)) {
+                    if (include.test(message)) {
+                        collected.add(message);
+                    }
+                }
+            }
+        }
+        collected.sort(order);
+        return collected.size() > limit ? new ArrayList<>(collected.subList(0, limit)) : collected;
+    }
+
+    /**
+     * Buckets in (channel, window) order from a server-side cursor, each window's messages sorted
+     * before they are emitted. Without a scope the export is grouped by channel rather than
+     * globally time ordered, which keeps the scan on the index.
+     */
+    @Override
+    public Stream<Message> stream(String roomId, String conversationId, LocalDateTime from, LocalDateTime to) {
+        Criteria criteria = new Criteria();
+        if (roomId != null) {
+            criteria.and("channel").is("room:" + roomId);
+        } else if (conversationId != null) {
+            criteria.and("channel").is("conversation:" + conversationId);
+        }
+        if (from != null || to != null) {
+            Criteria window = criteria.and("window");
+            if (from != null) {
+                window.gte(windowOf(from));
+            }
+            if (to != null) {
+                window.lte(windowOf(to));
+            }
+        }
+        Query query = Query.query(criteria).with(Sort.by(Sort.Direction.ASC, "channel", "window"))
+                .cursorBatchSize(Math.max(1, exportBatchSize / maxMessagesPerBucket));
+        Stream<MessageBucket> buckets = mongoTemplate.stream(query, MessageBucket.class);
+        Predicate<Message> inRange = message -> (from == null || !message.getTimestamp().isBefore(from))
+                && (to == null || message.getTimestamp().isBefore(to));
+        Iterator<Message> messages = new WindowIterator(buckets.iterator(), inRange);
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(messages, Spliterator.ORDERED), false)
+                .onClose(buckets::close);
+    }
+
+    // Merges consecutive buckets of the same (channel, window) and yields their messages in history order
+    private class WindowIterator implements Iterator<Message> {
+        private final Iterator<MessageBucket> buckets;
+        private final Predicate<Message> include;
+        private MessageBucket lookahead;
+        private Iterator<Message> current = Collections.emptyIterator();
+
+        WindowIterator(Iterator<MessageBucket> buckets, Predicate<Message> include) {
+            this.buckets = buckets;
+            this.include = include;
+        }
+
+        @Override
+        public boolean hasNext() {
+            while (!current.hasNext()) {
+                if (lookahead == null && !buckets.hasNext()) {
+                    return false;
+                }
+                MessageBucket first = lookahead != null ? lookahead : buckets.next();
+                lookahead = null;
+                List<Message> window = new ArrayList<>();
+                addIncluded(first, window);
+                while (buckets.hasNext()) {
+                    MessageBucket next = buckets.next();
+                    if (next.getWindow() != first.getWindow() || !next.getChannel().equals(first.getChannel())) {
+                        lookahead = next;
+                        break;
+                    }
+                    addIncluded(next, window);
+                }
+                window.sort(RecentMessageBuffer.HISTORY_ORDER);
+                current = window.iterator();
+            }
+            return true;
+        }
+
+        @Override
+        public Message next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            return current.next();
+        }
+
+        private void addIncluded(MessageBucket bucket, List<Message> into) {
+            for (Message message : toMessages(bucket)) {
+                if (include.test(message)) {
+                    into.add(message);
+                }
+            }
+        }
+    }
+
+    private long windowOf(LocalDateTime timestamp) {
+        return Math.floorDiv(timestamp.toInstant(ZoneOffset.UTC).toEpochMilli(), windowMillis);
+    }
+
+    private static String channelOf(Message message) {
+        if (message.getRoomId() != null) {
+            return "room:" + message.getRoomId();
+        }
+        if (message.getConversationId() != null) {
+            return "conversation:" + message.getConversationId();
+        }
+        return "other";
+    }
+
+    private static MessageBucket.Entry toEntry(Message message) {
+        MessageBucket.Entry entry = new MessageBucket.Entry();
+        entry.setMessageId(message.getId());
+        entry.setSenderId(message.getSenderId());
+        entry.setUserName(message.getUserName());
+        entry.setReceiverId(message.getReceiverId());
+        entry.setContent(message.getContent());
+        entry.setTimestamp(message.getTimestamp());
+        return entry;
+    }
+
+    private static List<Message> toMessages(MessageBucket bucket) {
+        if (bucket.getMessages() == null) {
+            return List.of();
+        }
+        List<Message> messages = new ArrayList<>(bucket.getMessages().size());
+        for (MessageBucket.Entry entry : bucket.getMessages()) {
+            Message message = new Message();
+            message.setId(entry.getMessageId());
+            message.setSenderId(entry.getSenderId());
+            message.setUserName(entry.getUserName());
+            message.setReceiverId(entry.getReceiverId());
+            message.setContent(entry.getContent());
+            message.setTimestamp(entry.getTimestamp());
+            message.setRoomId(bucket.getRoomId());
+            message.setConversationId(bucket.getConversationId());
+            message.setGlobal(Message.GLOBAL_ROOM.equals(bucket.getRoomId()));
+            messages.add(message);
+        }
+        return messages;
+    }
+
+    private static int compare(Message message, MessageCursor cursor) {
+        int byTime = message.getTimestamp().compareTo(cursor.timestamp());
+        return byTime != 0 ? byTime : message.getId().compareTo(cursor.id());
+    }
+}
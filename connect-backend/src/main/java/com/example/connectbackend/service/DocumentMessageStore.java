@@ -0,0 +1,194 @@
+package com.example.connectbackend.service;
+
+import com.example.connectbackend.model.Message;
+import com.example.connectbackend.model.MessageCursor;
+import com.example.connectbackend.repository.MessageRepository;
+import jakarta.annotation.PostConstruct;
+import org.bson.types.ObjectId;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Profile;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.aggregation.AggregationUpdate;
+import org.springframework.data.mongodb.core.aggregation.ComparisonOperators;
+import org.springframework.data.mongodb.core.aggregation.ConditionalOperators;
+import org.springframework.data.mongodb.core.aggregation.StringOperators;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.stereotype.Service;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Stream;
+
+// One document per message in the messages collection, the original layout
+@Service
+@Profile("!" + LogMessageStore.PROFILE)
+@ConditionalOnProperty(name = "chat.messages.storage-layout", havingValue = "DOCUMENT", matchIfMissing = true)
+public class DocumentMessageStore implements MessageStore {
+    private static final Logger logger = LoggerFactory.getLogger(DocumentMessageStore.class);
+
+    private static final Sort DESCENDING = Sort.by(Sort.Direction.DESC, "timestamp", "_id");
+    private static final Sort ASCENDING = Sort.by(Sort.Direction.ASC, "timestamp", "_id");
+
+    @Autowired
+    private MessageRepository messageRepository;
+
+    @Autowired
+    private MongoTemplate mongoTemplate;
+
+    // Documents per cursor batch (and per getMore round trip) in exports
+    @Value("${chat.messages.export.batch-size:500}")
+    private int exportBatchSize;
+
+    @PostConstruct
+    void start() {
+        backfillGlobalRoom();
+        backfillConversations();
+    }
+
+    // Global messages written before rooms existed have no roomId; file them under the global room once
+    private void backfillGlobalRoom() {
+        try {
+            long updated = mongoTemplate.updateMulti(
+                    Query.query(Criteria.where("isGlobal").is(true).and("roomId").exists(false)),
+                    Update.update("roomId", Message.GLOBAL_ROOM),
+                    Message.class).getModifiedCount();
+            if (updated > 0) {
+                logger.info("Moved {} legacy global messages into the global room", updated);
+            }
+        } catch (Exception e) {
+            logger.warn("Could not backfill roomId on legacy global messages", e);
+        }
+    }
+
+    // Private messages written before conversationId existed get it computed server-side, in one update
+    private void backfillConversations() {
+        try {
+            AggregationUpdate setConversation = AggregationUpdate.update().set("conversationId").toValue(
+                    ConditionalOperators.when(ComparisonOperators.valueOf("senderId").lessThanEqualTo("receiverId"))
+                            .then(StringOperators.valueOf("senderId").concat(":").concatValueOf("receiverId"))
+                            .otherwise(StringOperators.valueOf("receiverId").concat(":").concatValueOf("senderId")));
+            long updated = mongoTemplate.updateMulti(
+                    Query.query(Criteria.where("conversationId").exists(false)
+                            .and("senderId").ne(null).and("receiverId").ne(null).and("roomId").exists(false)),
+                    setConversation,
+                    Message.class).getModifiedCount();
+            if (updated > 0) {
+                logger.info("Set conversationId on {} legacy private messages", updated);
+            }
+        } catch (Exception e) {
+            logger.warn("Could not backfill conversationId on legacy private messages", e);
+        }
+    }
+
+    @Override
+    public List<Message> insert(List<Message> messages) {
+        try {
+            // One insertMany per batch
+            messageRepository.insert(messages);
+            return messages;
+        } catch (Exception e) {
+            if (messages.size() > 1) {
+                logger.error("Batch insert of {} messages failed, retrying one by one", messages.size(), e);
+            }
+        }
+        List<Message> persisted = new ArrayList<>(messages.size());
+        // save is an upsert, so messages already written by the failed batch are not duplicated
+        for (Message message : messages) {
+            try {
+                persisted.add(messageRepository.save(message));
+            } catch (Exception saveError) {
+                logger.error("Failed to persist message {}", message.getId(), saveError);
+            }
+        }
+        return persisted;
+    }
+
+    // One range scan on the (roomId, timestamp, _id) index
+    @Override
+    public KeysetQueries room(String roomId) {
+        return new KeysetQueries() {
+            @Override
+            public List<Message> latest(int limit) {
+                return messageRepository.findByRoomId(roomId, PageRequest.of(0, limit, DESCENDING));
+            }
+
+            @Override
+            public List<Message> before(MessageCursor cursor, int limit) {
+                return messageRepository.findRoomBefore(roomId, cursor.timestamp(), toObjectId(cursor.id()),
+                        PageRequest.of(0, limit, DESCENDING));
+            }
+
+            @Override
+            public List<Message> after(MessageCursor cursor, int limit) {
+                return messageRepository.findRoomAfter(roomId, cursor.timestamp(), toObjectId(cursor.id()),
+                        PageRequest.of(0, limit, ASCENDING));
+            }
+        };
+    }
+
+    // One range scan on the (conversationId, timestamp, _id) index, both directions of the conversation
+    @Override
+    public KeysetQueries conversation(String conversationId) {
+        return new KeysetQueries() {
+            @Override
+            public List<Message> latest(int limit) {
+                return messageRepository.findByConversationId(conversationId, PageRequest.of(0, limit, DESCENDING));
+            }
+
+            @Override
+            public List<Message> before(MessageCursor cursor, int limit) {
+                return messageRepository.findConversationBefore(conversationId, cursor.timestamp(),
+                        toObjectId(cursor.id()), PageRequest.of(0, limit, DESCENDING));
+            }
+
+            @Override
+            public List<Message> after(MessageCursor cursor, int limit) {
+                return messageRepository.findConversationAfter(conversationId, cursor.timestamp(),
+                        toObjectId(cursor.id()), PageRequest.of(0, limit, ASCENDING));
+            }
+        };
+    }
+
+    /**
+     * Streams from a server-side cursor: memory stays at one cursor batch however many messages
+     * match. A room or conversation scope walks its (scope, timestamp, _id) index; without one
+     * the scan follows _id, which needs no sort either.
+     */
+    @Override
+    public Stream<Message> stream(String roomId, String conversationId, LocalDateTime from, LocalDateTime to) {
+        Criteria criteria = new Criteria();
+        if (roomId != null) {
+            criteria.and("roomId").is(roomId);
+        } else if (conversationId != null) {
+            criteria.and("conversationId").is(conversationId);
+        }
+        if (from != null || to != null) {
+            Criteria timestamp = criteria.and("timestamp");
+            if (from != null) {
+                timestamp.gte(from);
+            }
+            if (to != null) {
+                timestamp.lt(to);
+            }
+        }
+        Sort order = roomId != null || conversationId != null ? ASCENDING : Sort.by(Sort.Direction.ASC, "_id");
+        Query query = Query.query(criteria).with(order).cursorBatchSize(exportBatchSize);
+        return mongoTemplate.stream(query, Message.class);
+    }
+
+    private static ObjectId toObjectId(String id) {
+        if (!ObjectId.isValid(id)) {
+            throw new IllegalArgumentException("Invalid cursor id: " + id);
+        }
+        return new ObjectId(id);
+    }
+}
@@ -0,0 +1,9 @@
+package com.example.connectbackend.service;
+
+// How MessageService persists accepted messages
+public enum DurabilityMode {
+    // Save each message to MongoDB before returning it
+    SYNC,
+    // Return immediately and flush batches in the background
+    WRITE_BEHIND
+}
@@ -0,0 +1,234 @@
+package com.example.connectbackend.service;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Flow;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Non-blocking client for the Gemini generateContent API. One HttpClient is shared by all calls,
+ * so connections (HTTP/2 where the server offers it) are reused instead of opened per question.
+ * The API key travels in a header, never in the URL, and neither is logged.
+ */
+@Component
+public class GeminiClient {
+    private static final Logger logger = LoggerFactory.getLogger(GeminiClient.class);
+
+    // Longest error body quoted in logs
+    private static final int MAX_LOGGED_ERROR = 300;
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final HttpClient httpClient;
+    private final URI generateUri;
+    private final URI streamUri;
+    private final String apiKey;
+    private final Duration requestTimeout;
+    private final Duration streamTimeout;
+
+    public GeminiClient(@Value("${gemini.api.key}") String apiKey,
+                        @Value("${gemini.api.base-url:https://generativelanguage.googleapis.com}") String baseUrl,
+                        @Value("${gemini.model:gemini-pro}") String model,
+                        @Value("${gemini.api.connect-timeout-ms:5000}") long connectTimeoutMillis,
+                        @Value("${gemini.api.request-timeout-ms:30000}") long requestTimeoutMillis,
+                        @Value("${gemini.api.stream-timeout-ms:120000}") long streamTimeoutMillis) {
+        this.apiKey = apiKey;
+        String modelUrl = stripTrailingSlash(baseUrl) + "/v1/models/" + model;
+        this.generateUri = URI.create(modelUrl + ":generateContent");
+        this.streamUri = URI.create(modelUrl + ":streamGenerateContent?alt=sse");
+        this.requestTimeout = Duration.ofMillis(requestTimeoutMillis);
+        this.streamTimeout = Duration.ofMillis(streamTimeoutMillis);
+        this.httpClient = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_2)
+                .connectTimeout(Duration.ofMillis(connectTimeoutMillis))
+                .build();
+    }
+
+    public Duration getRequestTimeout() {
+        return requestTimeout;
+    }
+
+    /**
+     * Sends the prompt and completes with the text of the first candidate. Fails with a
+     * GeminiException on a non-200 status or an unexpected response, or with the
+     * HttpClient's exception (e.g. HttpTimeoutException) when the call itself fails.
+     */
+    public CompletableFuture<String> generateContent(String prompt) {
+        HttpRequest request = HttpRequest.newBuilder(generateUri)
+                .timeout(requestTimeout)
+                .header("Content-Type", "application/json")
+                .header("x-goog-api-key", apiKey)
+                .POST(HttpRequest.BodyPublishers.ofByteArray(requestBody(prompt)))
+                .build();
+        return httpClient.sendAsync(request, HttpResponse.BodyHandlers.ofByteArray())
+                .thenApply(this::extractText);
+    }
+
+    /**
+     * Streams the answer as server-sent events: each piece of text is handed to onDelta as soon as
+     * its event arrives (on an HttpClient thread), and the future completes with the whole text.
+     * The request timeout covers the wait for the first byte, the stream timeout the whole answer.
+     */
+    public CompletableFuture<String> streamContent(String prompt, Consumer<String> onDelta) {
+        HttpRequest request = HttpRequest.newBuilder(streamUri)
+                .timeout(requestTimeout)
+                .header("Content-Type", "application/json")
+                .header("Accept", "text/event-stream")
+                .header("x-goog-api-key", apiKey)
+                .POST(HttpRequest.BodyPublishers.ofByteArray(requestBody(prompt)))
+                .build();
+        EventStreamSubscriber events = new EventStreamSubscriber(onDelta);
+        HttpResponse.BodyHandler<String> handler = info -> info.statusCode() == 200
+                ? HttpResponse.BodySubscribers.fromLineSubscriber(events, EventStreamSubscriber::text,
+                        StandardCharsets.UTF_8, null)
+                : HttpResponse.BodySubscribers.mapping(HttpResponse.BodySubscribers.ofByteArray(),
+                        body -> {
+                            throw apiError(info.statusCode(), body);
+                        });
+        return httpClient.sendAsync(request, handler)
+                .thenApply(response -> {
+                    if (response.body().isEmpty()) {
+                        throw new GeminiException("Empty streamed response from Gemini API");
+                    }
+                    return response.body();
+                })
+                .orTimeout(streamTimeout.toMillis(), TimeUnit.MILLISECONDS)
+                .whenComplete((text, error) -> {
+                    if (error != null) {
+                        events.cancel();
+                    }
+                });
+    }
+
+    // Collects the text of "data:" events, one JSON response per event
+    private class EventStreamSubscriber implements Flow.Subscriber<String> {
+        private final Consumer<String> onDelta;
+        private final StringBuilder text = new StringBuilder();
+        private volatile Flow.Subscription subscription;
+        private volatile boolean cancelled;
+
+        EventStreamSubscriber(Consumer<String> onDelta) {
+            this.onDelta = onDelta;
+        }
+
+        @Override
+        public void onSubscribe(Flow.Subscription subscription) {
+            this.subscription = subscription;
+            if (cancelled) {
+                subscription.cancel();
+            } else {
+                subscription.request(Long.MAX_VALUE);
+            }
+        }
+
+        @Override
+        public void onNext(String line) {
+            if (!line.startsWith("data:")) {
+                return;
+            }
+            String data = line.substring(5).trim();
+            if (data.isEmpty()) {
+                return;
+            }
+            StringBuilder delta = new StringBuilder();
+            try {
+                for (JsonNode part : objectMapper.readTree(data)
+                        .path("candidates").path(0).path("content").path("parts")) {
+                    delta.append(part.path("text").asText(""));
+                }
+            } catch (IOException e) {
+                logger.warn("Skipping unreadable Gemini stream event");
+                return;
+            }
+            if (delta.isEmpty()) {
+                return;
+            }
+            text.append(delta);
+            try {
+                onDelta.accept(delta.toString());
+            } catch (RuntimeException e) {
+                logger.error("Stream listener failed", e);
+            }
+        }
+
+        @Override
+        public void onError(Throwable throwable) {
+            // The response future fails with the same error
+        }
+
+        @Override
+        public void onComplete() {
+        }
+
+        String text() {
+            return text.toString();
+        }
+
+        void cancel() {
+            cancelled = true;
+            Flow.Subscription current = subscription;
+            if (current != null) {
+                current.cancel();
+            }
+        }
+    }
+
+    private GeminiException apiError(int status, byte[] body) {
+        String error = new String(body, StandardCharsets.UTF_8);
+        logger.warn("Gemini returned {}: {}", status,
+                error.length() > MAX_LOGGED_ERROR ? error.substring(0, MAX_LOGGED_ERROR) + "..." : error);
+        return new GeminiException("Gemini API error: " + status);
+    }
+
+    private byte[] requestBody(String prompt) {
+        ObjectNode body = objectMapper.createObjectNode();
+        body.putArray("contents").addObject().putArray("parts").addObject().put("text", prompt);
+        try {
+            return objectMapper.writeValueAsBytes(body);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private String extractText(HttpResponse<byte[]> response) {
+        if (response.statusCode() != 200) {
+            throw apiError(response.statusCode(), response.body());
+        }
+        try {
+            JsonNode text = objectMapper.readTree(response.body())
+                    .path("candidates").path(0).path("content").path("parts").path(0).path("text");
+            if (!text.isTextual()) {
+                throw new GeminiException("Invalid response structure from Gemini API");
+            }
+            return text.asText();
+        } catch (IOException e) {
+            throw new GeminiException("Unreadable response from Gemini API");
+        }
+    }
+
+    private static String stripTrailingSlash(String url) {
+        return url.endsWith("/") ? url.substring(0, url.length() - 1) : url;
+    }
+
+    // A Gemini call that reached the API but did not produce an answer
+    public static class GeminiException extends RuntimeException {
+        public GeminiException(String message) {
+            super(message);
+        }
+    }
+}
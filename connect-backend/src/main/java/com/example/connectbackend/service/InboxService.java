@@ -0,0 +1,35 @@
+package com.example.connectbackend.service;
+
+import com.example.connectbackend.model.InboxEntry;
+import com.example.connectbackend.model.Message;
+
+import java.util.List;
+
+/**
+ * The inbox read model: one row per (user, conversation) with the last message and an unread
+ * counter, kept current as private messages are accepted. MongoDB holds it by default; under the
+ * message-log profile it is rebuilt from the log instead.
+ */
+public interface InboxService {
+
+    /**
+     * Folds accepted private messages into both participants' inbox rows. A message counts as
+     * unread for its receiver; writing in a conversation reads everything before it. Messages
+     * without a conversationId (room messages) are ignored.
+     */
+    void recordMessages(List<Message> messages);
+
+    // The user's conversations, most recent first
+    List<InboxEntry> getInbox(String userId, Integer limit);
+
+    /**
+     * Clears the unread counter and moves the read cursor to the conversation's last message.
+     * Returns false if the user has no such conversation.
+     */
+    boolean markRead(String userId, String otherUserId);
+
+    // What a row keeps of its last message's content
+    static String preview(String content) {
+        return content != null && content.length() > 200 ? content.substring(0, 200) : content;
+    }
+}
@@ -0,0 +1,166 @@
+package com.example.connectbackend.service;
+
+import com.example.connectbackend.model.InboxEntry;
+import com.example.connectbackend.model.Message;
+import jakarta.annotation.PostConstruct;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Profile;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Stream;
+
+/**
+ * The inbox under the message-log profile: rows are kept in memory and rebuilt from the log's
+ * private messages on start, so no inbox write leaves the process. Read cursors are not in the
+ * log; after a restart a row counts the messages received since its user last wrote in the
+ * conversation as unread, and conversations older than the log's retention are gone.
+ */
+@Service
+@Profile(LogMessageStore.PROFILE)
+public class LogInboxService implements InboxService {
+    private static final Logger logger = LoggerFactory.getLogger(LogInboxService.class);
+
+    private static final Comparator<InboxEntry> MOST_RECENT_FIRST =
+            Comparator.comparing(InboxEntry::getLastTimestamp).thenComparing(InboxEntry::getLastMessageId).reversed();
+
+    @Autowired
+    private MessageStore messageStore;
+
+    @Value("${chat.inbox.page-size.default:50}")
+    private int defaultPageSize;
+
+    @Value("${chat.inbox.page-size.max:200}")
+    private int maxPageSize;
+
+    // userId -> conversationId -> row; a user's rows are only touched while holding their map
+    private final Map<String, Map<String, InboxEntry>> rows = new ConcurrentHashMap<>();
+
+    @PostConstruct
+    void rebuild() {
+        long replayed = 0;
+        try (Stream<Message> history = messageStore.stream(null, null, null, null)) {
+            Iterator<Message> messages = history.iterator();
+            while (messages.hasNext()) {
+                Message message = messages.next();
+                if (message.getConversationId() != null) {
+                    apply(message);
+                    replayed++;
+                }
+            }
+        }
+        logger.info("Rebuilt the inbox from {} private messages in the log", replayed);
+    }
+
+    @Override
+    public void recordMessages(List<Message> messages) {
+        for (Message message : messages) {
+            if (message.getConversationId() != null) {
+                apply(message);
+            }
+        }
+    }
+
+    private void apply(Message message) {
+        String senderId = message.getSenderId();
+        String receiverId = message.getReceiverId();
+        Map<String, InboxEntry> sent = rowsOf(senderId);
+        synchronized (sent) {
+            InboxEntry row = sent.computeIfAbsent(message.getConversationId(), id -> newRow(senderId, id));
+            row.setOtherUserId(receiverId);
+            row.setUnreadCount(0);
+            advance(row, message);
+        }
+        if (receiverId.equals(senderId)) {
+            return;
+        }
+        Map<String, InboxEntry> received = rowsOf(receiverId);
+        synchronized (received) {
+            InboxEntry row = received.computeIfAbsent(message.getConversationId(), id -> newRow(receiverId, id));
+            row.setOtherUserId(senderId);
+            row.setOtherUserName(message.getUserName());
+            row.setUnreadCount(row.getUnreadCount() + 1);
+            advance(row, message);
+        }
+    }
+
+    private Map<String, InboxEntry> rowsOf(String userId) {
+        return rows.computeIfAbsent(userId, id -> new HashMap<>());
+    }
+
+    private static InboxEntry newRow(String userId, String conversationId) {
+        InboxEntry row = new InboxEntry();
+        row.setUserId(userId);
+        row.setConversationId(conversationId);
+        return row;
+    }
+
+    // Keeps the newest message of the conversation by (timestamp, id), as the Mongo inbox does
+    private static void advance(InboxEntry row, Message message) {
+        if (row.getLastTimestamp() != null && (message.getTimestamp().isBefore(row.getLastTimestamp())
+                || (message.getTimestamp().isEqual(row.getLastTimestamp())
+                && message.getId().compareTo(row.getLastMessageId()) < 0))) {
+            return;
+        }
+        row.setLastMessageId(message.getId());
+        row.setLastSenderId(message.getSenderId());
+        row.setLastContent(InboxService.preview(message.getContent()));
+        row.setLastTimestamp(message.getTimestamp());
+    }
+
+    @Override
+    public List<InboxEntry> getInbox(String userId, Integer limit) {
+        int pageSize = limit == null ? defaultPageSize : Math.max(1, Math.min(limit, maxPageSize));
+        Map<String, InboxEntry> userRows = rows.get(userId);
+        if (userRows == null) {
+            return List.of();
+        }
+        // Copies, so the response is not serialized while a message updates the row
+        List<InboxEntry> inbox = new ArrayList<>();
+        synchronized (userRows) {
+            userRows.values().forEach(row -> inbox.add(copy(row)));
+        }
+        inbox.sort(MOST_RECENT_FIRST);
+        return inbox.size() > pageSize ? new ArrayList<>(inbox.subList(0, pageSize)) : inbox;
+    }
+
+    @Override
+    public boolean markRead(String userId, String otherUserId) {
+        String conversationId = Message.conversationIdOf(userId, otherUserId);
+        Map<String, InboxEntry> userRows = rows.get(userId);
+        if (userRows == null) {
+            return false;
+        }
+        synchronized (userRows) {
+            InboxEntry row = userRows.get(conversationId);
+            if (row == null) {
+                return false;
+            }
+            row.setUnreadCount(0);
+            row.setLastReadMessageId(row.getLastMessageId());
+            return true;
+        }
+    }
+
+    private static InboxEntry copy(InboxEntry row) {
+        InboxEntry copy = newRow(row.getUserId(), row.getConversationId());
+        copy.setOtherUserId(row.getOtherUserId());
+        copy.setOtherUserName(row.getOtherUserName());
+        copy.setLastMessageId(row.getLastMessageId());
+        copy.setLastSenderId(row.getLastSenderId());
+        copy.setLastContent(row.getLastContent());
+        copy.setLastTimestamp(row.getLastTimestamp());
+        copy.setUnreadCount(row.getUnreadCount());
+        copy.setLastReadMessageId(row.getLastReadMessageId());
+        return copy;
+    }
+}
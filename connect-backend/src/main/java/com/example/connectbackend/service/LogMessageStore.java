@@ -0,0 +1,117 @@
+package com.example.connectbackend.service;
+
+import com.example.connectbackend.model.Message;
+import com.example.connectbackend.model.MessageCursor;
+import com.example.connectbackend.storage.MessageLog;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Profile;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.stream.Stream;
+
+/**
+ * Message history in an embedded, append-only log on local disk instead of MongoDB, for
+ * installs without a database server for messages. Active with the message-log profile.
+ */
+@Service
+@Profile(LogMessageStore.PROFILE)
+public class LogMessageStore implements MessageStore {
+    private static final Logger logger = LoggerFactory.getLogger(LogMessageStore.class);
+
+    public static final String PROFILE = "message-log";
+
+    @Value("${chat.messages.log.dir:data/message-log}")
+    private String directory;
+
+    @Value("${chat.messages.log.segment-size-mb:64}")
+    private int segmentSizeMb;
+
+    @Value("${chat.messages.log.index-interval-bytes:4096}")
+    private int indexIntervalBytes;
+
+    // 0 keeps every segment
+    @Value("${chat.messages.log.retention-hours:0}")
+    private long retentionHours;
+
+    @Value("${chat.messages.log.force-on-write:true}")
+    private boolean forceOnWrite;
+
+    private MessageLog log;
+
+    @PostConstruct
+    void open() throws IOException {
+        MessageLog.Settings settings = new MessageLog.Settings(
+                Math.max(1, segmentSizeMb) * 1024 * 1024,
+                Math.max(256, indexIntervalBytes),
+                retentionHours > 0 ? Duration.ofHours(retentionHours) : null,
+                forceOnWrite);
+        log = MessageLog.open(Path.of(directory), settings);
+    }
+
+    @PreDestroy
+    void close() {
+        try {
+            log.close();
+        } catch (IOException e) {
+            logger.warn("Could not flush the message log on shutdown", e);
+        }
+    }
+
+    @Override
+    public List<Message> insert(List<Message> messages) {
+        int written = 0;
+        try {
+            written = log.append(messages);
+        } catch (IOException | RuntimeException e) {
+            logger.error("Appending {} messages to the message log failed", messages.size(), e);
+        }
+        // Append stops at the first failure, so what was written is always a prefix
+        return written == messages.size() ? messages : messages.subList(0, written);
+    }
+
+    @Override
+    public KeysetQueries room(String roomId) {
+        return queries("room:" + roomId);
+    }
+
+    @Override
+    public KeysetQueries conversation(String conversationId) {
+        return queries("conversation:" + conversationId);
+    }
+
+    private KeysetQueries queries(String channel) {
+        return new KeysetQueries() {
+            @Override
+            public List<Message> latest(int limit) {
+                return log.before(channel, null, limit);
+            }
+
+            @Override
+            public List<Message> before(MessageCursor cursor, int limit) {
+                return log.before(channel, cursor, limit);
+            }
+
+            @Override
+            public List<Message> after(MessageCursor cursor, int limit) {
+                return log.after(channel, cursor, limit);
+            }
+        };
+    }
+
+    // Append order, which is time order up to the reordering of concurrent sends
+    @Override
+    public Stream<Message> stream(String roomId, String conversationId, LocalDateTime from, LocalDateTime to) {
+        String channel = roomId != null ? "room:" + roomId
+                : conversationId != null ? "conversation:" + conversationId : null;
+        return log.stream(channel, from, to);
+    }
+}
@@ -0,0 +1,130 @@
+package com.example.connectbackend.service;
+
+import com.example.connectbackend.model.Message;
+import com.example.connectbackend.model.MessageBucket;
+import org.bson.Document;
+import org.bson.types.ObjectId;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.FindAndReplaceOptions;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.aggregation.AggregationExpression;
+import org.springframework.data.mongodb.core.aggregation.AggregationUpdate;
+import org.springframework.data.mongodb.core.aggregation.ArrayOperators;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.stream.Stream;
+
+/**
+ * Copies the one-document-per-message history into buckets, in _id order and resumable.
+ * Progress lives in migrations/message-buckets: lastId is the last copied message, and the
+ * pending range marks a batch that was being written when the previous run stopped.
+ */
+class MessageBucketMigration {
+    private static final Logger logger = LoggerFactory.getLogger(MessageBucketMigration.class);
+
+    private static final String COLLECTION = "migrations";
+    private static final String ID = "message-buckets";
+
+    private final MongoTemplate mongoTemplate;
+    private final MessageStore target;
+    private final int batchSize;
+
+    MessageBucketMigration(MongoTemplate mongoTemplate, MessageStore target, int batchSize) {
+        this.mongoTemplate = mongoTemplate;
+        this.target = target;
+        this.batchSize = Math.max(1, batchSize);
+    }
+
+    void run() {
+        Document progress = mongoTemplate.findById(ID, Document.class, COLLECTION);
+        String lastId = progress == null ? null : progress.getString("lastId");
+        long migrated = progress == null ? 0 : progress.get("migrated", Number.class).longValue();
+        if (progress != null && progress.getString("pendingFromId") != null) {
+            removePending(progress.getString("pendingFromId"), progress.getString("pendingToId"));
+        }
+
+        Criteria criteria = lastId == null ? new Criteria() : Criteria.where("id").gt(lastId);
+        Query query = Query.query(criteria).with(Sort.by(Sort.Direction.ASC, "_id")).cursorBatchSize(batchSize);
+        logger.info("Migrating messages into buckets{}", lastId == null ? "" : " after " + lastId);
+        try (Stream<Message> legacy = mongoTemplate.stream(query, Message.class)) {
+            Iterator<Message> iterator = legacy.iterator();
+            List<Message> batch = new ArrayList<>(batchSize);
+            while (iterator.hasNext()) {
+                batch.add(prepare(iterator.next()));
+                if (batch.size() == batchSize || !iterator.hasNext()) {
+                    if (!copy(batch, migrated)) {
+                        logger.error("Message bucket migration stopped at {}; it resumes on the next start", lastId);
+                        return;
+                    }
+                    migrated += batch.size();
+                    lastId = batch.get(batch.size() - 1).getId();
+                    batch.clear();
+                }
+            }
+        }
+        logger.info("Message bucket migration done, {} messages in buckets", migrated);
+    }
+
+    // Legacy documents predate the channel fields and some predate timestamps
+    private static Message prepare(Message message) {
+        if (message.getTimestamp() == null) {
+            LocalDateTime created = LocalDateTime.ofInstant(
+                    new ObjectId(message.getId()).getDate().toInstant(), ZoneId.systemDefault());
+            message.setTimestamp(created);
+        }
+        MessageService.normalize(message);
+        return message;
+    }
+
+    private boolean copy(List<Message> batch, long migratedBefore) {
+        String fromId = batch.get(0).getId();
+        String toId = batch.get(batch.size() - 1).getId();
+        saveProgress(new Document("pendingFromId", fromId).append("pendingToId", toId), migratedBefore);
+        if (target.insert(batch).size() < batch.size()) {
+            return false;
+        }
+        saveProgress(new Document("lastId", toId), migratedBefore + batch.size());
+        return true;
+    }
+
+    private void saveProgress(Document fields, long migrated) {
+        Document progress = new Document("_id", ID).append("migrated", migrated);
+        Document previous = mongoTemplate.findById(ID, Document.class, COLLECTION);
+        if (previous != null && !fields.containsKey("lastId")) {
+            progress.append("lastId", previous.getString("lastId"));
+        }
+        progress.putAll(fields);
+        mongoTemplate.findAndReplace(Query.query(Criteria.where("_id").is(ID)), progress,
+                FindAndReplaceOptions.options().upsert(), Document.class, COLLECTION);
+    }
+
+    /**
+     * Undoes a batch that may have been partly written, so copying it again adds no duplicates.
+     * A pipeline update, so count is recomputed from what is left: appends pick buckets by count.
+     */
+    private void removePending(String fromId, String toId) {
+        AggregationExpression outsideBatch = context -> new Document("$filter", new Document("input", "$messages")
+                .append("as", "m")
+                .append("cond", new Document("$or", List.of(
+                        new Document("$lt", List.of("$$m.i", fromId)),
+                        new Document("$gt", List.of("$$m.i", toId))))));
+        // Two stages: $size must see the filtered array
+        AggregationUpdate update = AggregationUpdate.update()
+                .set("messages").toValueOf(outsideBatch)
+                .set("count").toValueOf(ArrayOperators.Size.lengthOfArray("messages"));
+        long touched = mongoTemplate.updateMulti(
+                Query.query(Criteria.where("messages.i").gte(fromId).lte(toId)), update,
+                MessageBucket.class).getModifiedCount();
+        if (touched > 0) {
+            logger.info("Removed the interrupted migration batch {}..{} from {} buckets", fromId, toId, touched);
+        }
+    }
+}
@@ -1,28 +1,370 @@
-
 package com.example.connectbackend.service;
 
 import com.example.connectbackend.model.Message;
-import com.example.connectbackend.repository.MessageRepository;
+import com.example.connectbackend.model.MessageCursor;
+import com.example.connectbackend.model.MessagePage;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.bson.types.ObjectId;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
+import java.time.LocalDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.Stream;
 
 @Service
 public class MessageService {
+    private static final Logger logger = LoggerFactory.getLogger(MessageService.class);
+
+    // Document-per-message or bucketed layout, chosen by chat.messages.storage-layout
+    @Autowired
+    private MessageStore messageStore;
+
     @Autowired
-    private MessageRepository messageRepository;
+    private InboxService inboxService;
+
+    @Value("${chat.messages.durability:WRITE_BEHIND}")
+    private DurabilityMode durabilityMode;
+
+    // Group commit: flush every batchSize messages or every flushIntervalMillis, whichever comes first
+    @Value("${chat.messages.write-behind.batch-size:200}")
+    private int batchSize;
+
+    @Value("${chat.messages.write-behind.flush-interval-ms:50}")
+    private long flushIntervalMillis;
+
+    @Value("${chat.messages.page-size.default:50}")
+    private int defaultPageSize;
 
+    @Value("${chat.messages.page-size.max:200}")
+    private int maxPageSize;
+
+    // When this many messages are waiting, saves fall back to synchronous writes
+    @Value("${chat.messages.write-behind.max-pending:50000}")
+    private int maxPending;
+
+    @Value("${chat.messages.recent-buffer.capacity:1000}")
+    private int recentBufferCapacity;
+
+    private RecentMessageBuffer recentGlobalMessages;
+    private BlockingQueue<Message> pending;
+    private ScheduledExecutorService flusher;
+    private final AtomicBoolean flushScheduled = new AtomicBoolean();
+
+    @PostConstruct
+    void start() {
+        warmRecentMessages();
+        startWriteBehind();
+    }
+
+    private void warmRecentMessages() {
+        recentGlobalMessages = new RecentMessageBuffer(recentBufferCapacity);
+        try {
+            List<Message> latest = new ArrayList<>(
+                    messageStore.room(Message.GLOBAL_ROOM).latest(recentGlobalMessages.capacity()));
+            Collections.reverse(latest);
+            latest.forEach(recentGlobalMessages::add);
+            if (latest.size() < recentGlobalMessages.capacity()) {
+                recentGlobalMessages.markStartsAtHistoryBeginning();
+            }
+            logger.info("Warmed recent message buffer with {} global messages", latest.size());
+        } catch (Exception e) {
+            // Reads fall back to the store until the ring fills up on its own
+            logger.warn("Could not warm recent message buffer", e);
+        }
+    }
+
+    private void startWriteBehind() {
+        if (durabilityMode != DurabilityMode.WRITE_BEHIND) {
+            return;
+        }
+        pending = new LinkedBlockingQueue<>(maxPending);
+        flusher = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "message-flusher");
+            thread.setDaemon(true);
+            return thread;
+        });
+        flusher.scheduleWithFixedDelay(this::flushPending, flushIntervalMillis, flushIntervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    void stopWriteBehind() throws InterruptedException {
+        if (flusher == null) {
+            return;
+        }
+        flusher.shutdown();
+        flusher.awaitTermination(10, TimeUnit.SECONDS);
+        // Whatever is still queued goes out on the shutdown thread
+        flushPending();
+    }
+
+    /**
+     * Saves a message and returns it with its channel fields, id and timestamp normalized. When the
+     * message is written before returning (SYNC mode, or a full write-behind queue) and the store
+     * did not write it, throws MessageNotSavedException, and the message is not added to the recent
+     * history: the caller must not broadcast it.
+     */
     public Message saveMessage(Message message) {
-        return messageRepository.save(message);
+        normalize(message);
+        if (durabilityMode != DurabilityMode.WRITE_BEHIND) {
+            persistOrThrow(message);
+            rememberIfGlobal(message);
+            return message;
+        }
+
+        if (!pending.offer(message)) {
+            logger.warn("Write-behind queue full, saving message {} synchronously", message.getId());
+            persistOrThrow(message);
+            rememberIfGlobal(message);
+            return message;
+        }
+        rememberIfGlobal(message);
+        if (pending.size() >= batchSize && flushScheduled.compareAndSet(false, true)) {
+            flusher.execute(() -> {
+                flushScheduled.set(false);
+                flushPending();
+            });
+        }
+        return message;
+    }
+
+    /**
+     * Takes note of a message another node accepted and persisted. Nothing is written; a global
+     * message joins the recent-message ring, so history pages and the sync cursor served from the
+     * ring on this node include what was posted elsewhere.
+     */
+    public void rememberPeerMessage(Message message) {
+        rememberIfGlobal(message);
+    }
+
+    // Channel fields, timestamp precision and id as every store expects them; also applied to migrated messages
+    static void normalize(Message message) {
+        // The global channel is the global room; a room message is never a direct message
+        if (message.isGlobal() && message.getRoomId() == null) {
+            message.setRoomId(Message.GLOBAL_ROOM);
+        }
+        if (message.getRoomId() != null) {
+            message.setGlobal(Message.GLOBAL_ROOM.equals(message.getRoomId()));
+            message.setReceiverId(null);
+            message.setConversationId(null);
+        } else if (message.getSenderId() != null && message.getReceiverId() != null) {
+            message.setConversationId(Message.conversationIdOf(message.getSenderId(), message.getReceiverId()));
+        }
+        // Mongo stores millisecond precision; keep the in-memory copy identical so cursors match
+        if (message.getTimestamp() != null) {
+            message.setTimestamp(message.getTimestamp().truncatedTo(ChronoUnit.MILLIS));
+        }
+        // Assign the id locally, so the message can be broadcast before it is written and every store gets one
+        if (message.getId() == null) {
+            message.setId(ObjectId.get().toHexString());
+        }
     }
 
-    public List<Message> getGlobalMessages() {
-        return messageRepository.findByIsGlobalOrderByTimestamp(true);
+    /**
+     * Position of the newest message in a room, or null while the room is empty. The global room
+     * answers from the recent-message ring; other rooms with a one-row store scan.
+     */
+    public MessageCursor getLatestCursor(String roomId) {
+        if (Message.GLOBAL_ROOM.equals(roomId)) {
+            Message latest = recentGlobalMessages.latest();
+            if (latest != null) {
+                return MessageCursor.of(latest);
+            }
+            if (recentGlobalMessages.holdsFullHistory()) {
+                return null;
+            }
+        }
+        List<Message> rows = messageStore.room(roomId).latest(1);
+        return rows.isEmpty() ? null : MessageCursor.of(rows.get(0));
     }
 
-    public List<Message> getPrivateMessages(String senderId, String receiverId) {
-        return messageRepository.findBySenderIdAndReceiverIdOrderByTimestampDesc(senderId, receiverId);
+    public MessagePage getGlobalMessages(String before, String after, Integer limit) {
+        return getRoomMessages(Message.GLOBAL_ROOM, before, after, limit);
+    }
+
+    /**
+     * Returns one page of a room. With neither cursor set this is the latest page.
+     * Global-room pages inside the recent-message ring are served from memory; anything else is
+     * one range scan in the store, so cost depends on the page size only.
+     */
+    public MessagePage getRoomMessages(String roomId, String before, String after, Integer limit) {
+        if (before != null && after != null) {
+            throw new IllegalArgumentException("Only one of before/after may be given");
+        }
+        int pageSize = limit == null ? defaultPageSize : Math.max(1, Math.min(limit, maxPageSize));
+        MessageCursor beforeCursor = before == null ? null : MessageCursor.decode(before);
+        MessageCursor afterCursor = after == null ? null : MessageCursor.decode(after);
+
+        if (Message.GLOBAL_ROOM.equals(roomId)) {
+            MessagePage cached = afterCursor != null
+                    ? pageAfterFromBuffer(afterCursor, pageSize)
+                    : pageBeforeFromBuffer(beforeCursor, pageSize);
+            if (cached != null) {
+                return cached;
+            }
+        }
+
+        return keysetPage(messageStore.room(roomId), beforeCursor, afterCursor, pageSize);
     }
 
-}
\ No newline at end of file
+    /**
+     * Returns one page of the private conversation between two users, both directions in one
+     * range scan over the conversation. Cursors work as for rooms.
+     */
+    public MessagePage getPrivateMessages(String userId, String otherUserId, String before, String after, Integer limit) {
+        if (before != null && after != null) {
+            throw new IllegalArgumentException("Only one of before/after may be given");
+        }
+        int pageSize = limit == null ? defaultPageSize : Math.max(1, Math.min(limit, maxPageSize));
+        String conversationId = Message.conversationIdOf(userId, otherUserId);
+        return keysetPage(messageStore.conversation(conversationId),
+                before == null ? null : MessageCursor.decode(before), after == null ? null : MessageCursor.decode(after), pageSize);
+    }
+
+    /**
+     * Streams messages oldest first for exports, read lazily from the store so memory does not
+     * grow with the result. The caller must close the stream.
+     */
+    public Stream<Message> streamMessages(String roomId, String conversationId, LocalDateTime from, LocalDateTime to) {
+        if (roomId != null && conversationId != null) {
+            throw new IllegalArgumentException("Only one of roomId/conversation may be given");
+        }
+        return messageStore.stream(roomId, conversationId, from, to);
+    }
+
+    private static MessagePage keysetPage(MessageStore.KeysetQueries queries, MessageCursor beforeCursor,
+                                          MessageCursor afterCursor, int pageSize) {
+        // Fetch one extra row to learn whether another page exists
+        if (afterCursor != null) {
+            List<Message> rows = new ArrayList<>(queries.after(afterCursor, pageSize + 1));
+            if (rows.size() > pageSize) {
+                rows.remove(rows.size() - 1);
+            }
+            return pageAfter(rows, afterCursor);
+        }
+
+        List<Message> rows;
+        if (beforeCursor != null) {
+            rows = new ArrayList<>(queries.before(beforeCursor, pageSize + 1));
+        } else {
+            rows = new ArrayList<>(queries.latest(pageSize + 1));
+        }
+        boolean hasOlder = rows.size() > pageSize;
+        if (hasOlder) {
+            rows.remove(rows.size() - 1);
+        }
+        Collections.reverse(rows);
+        return pageBefore(rows, hasOlder, beforeCursor);
+    }
+
+    // Latest/before pages, or null when the ring does not reach back far enough
+    private MessagePage pageBeforeFromBuffer(MessageCursor cursor, int pageSize) {
+        List<Message> buffered = recentGlobalMessages.snapshot();
+        int end = buffered.size();
+        if (cursor != null) {
+            while (end > 0 && compare(buffered.get(end - 1), cursor) >= 0) {
+                end--;
+            }
+        }
+        if (end > pageSize) {
+            return pageBefore(new ArrayList<>(buffered.subList(end - pageSize, end)), true, cursor);
+        }
+        if (recentGlobalMessages.holdsFullHistory()) {
+            return pageBefore(new ArrayList<>(buffered.subList(0, end)), false, cursor);
+        }
+        return null;
+    }
+
+    // After pages, or null when the cursor is older than the oldest buffered message
+    private MessagePage pageAfterFromBuffer(MessageCursor cursor, int pageSize) {
+        List<Message> buffered = recentGlobalMessages.snapshot();
+        boolean covered = recentGlobalMessages.holdsFullHistory()
+                || (!buffered.isEmpty() && compare(buffered.get(0), cursor) <= 0);
+        if (!covered) {
+            return null;
+        }
+        List<Message> rows = new ArrayList<>(pageSize);
+        for (Message message : buffered) {
+            if (compare(message, cursor) > 0) {
+                rows.add(message);
+                if (rows.size() == pageSize) {
+                    break;
+                }
+            }
+        }
+        return pageAfter(rows, cursor);
+    }
+
+    private static MessagePage pageBefore(List<Message> rows, boolean hasOlder, MessageCursor cursor) {
+        String prevCursor = hasOlder ? MessageCursor.of(rows.get(0)).encode() : null;
+        String nextCursor = !rows.isEmpty() ? MessageCursor.of(rows.get(rows.size() - 1)).encode()
+                : cursor == null ? null : cursor.encode();
+        return new MessagePage(rows, prevCursor, nextCursor);
+    }
+
+    private static MessagePage pageAfter(List<Message> rows, MessageCursor cursor) {
+        String prevCursor = rows.isEmpty() ? cursor.encode() : MessageCursor.of(rows.get(0)).encode();
+        String nextCursor = rows.isEmpty() ? cursor.encode() : MessageCursor.of(rows.get(rows.size() - 1)).encode();
+        return new MessagePage(rows, prevCursor, nextCursor);
+    }
+
+    private static int compare(Message message, MessageCursor cursor) {
+        int byTime = message.getTimestamp().compareTo(cursor.timestamp());
+        return byTime != 0 ? byTime : message.getId().compareTo(cursor.id());
+    }
+
+    // One store write per batch, then the batch's private messages go into the inbox as one bulk write
+    private void persist(List<Message> messages) {
+        updateInbox(messageStore.insert(messages));
+    }
+
+    private void persistOrThrow(Message message) {
+        List<Message> written = messageStore.insert(List.of(message));
+        updateInbox(written);
+        if (written.isEmpty()) {
+            throw new MessageNotSavedException("Message " + message.getId() + " could not be saved");
+        }
+    }
+
+    // The inbox is a derived view; failing to update it never fails the message itself
+    private void updateInbox(List<Message> messages) {
+        try {
+            inboxService.recordMessages(messages);
+        } catch (Exception e) {
+            logger.error("Inbox update for {} messages failed", messages.size(), e);
+        }
+    }
+
+    private void rememberIfGlobal(Message message) {
+        if (message.isGlobal()) {
+            recentGlobalMessages.add(message);
+        }
+    }
+
+    private synchronized void flushPending() {
+        List<Message> batch = new ArrayList<>(batchSize);
+        while (pending.drainTo(batch, batchSize) > 0) {
+            persist(batch);
+            batch.clear();
+        }
+    }
+
+    public static class MessageNotSavedException extends RuntimeException {
+        public MessageNotSavedException(String message) {
+            super(message);
+        }
+    }
+}
@@ -0,0 +1,42 @@
+package com.example.connectbackend.service;
+
+import com.example.connectbackend.model.Message;
+import com.example.connectbackend.model.MessageCursor;
+
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.stream.Stream;
+
+/**
+ * Physical layout of the message history. MessageService owns normalization, write-behind,
+ * the recent-message ring and paging; a store only persists messages and answers range scans
+ * over one channel (a room or a conversation) in (timestamp, id) order.
+ */
+public interface MessageStore {
+
+    /**
+     * Persists messages that already carry their ids and returns the ones that were written.
+     * Failures are logged and leave the message out of the result; callers that must not go on
+     * with an unwritten message compare the result with what they passed in.
+     */
+    List<Message> insert(List<Message> messages);
+
+    KeysetQueries room(String roomId);
+
+    KeysetQueries conversation(String conversationId);
+
+    /**
+     * Messages in time order for exports, optionally scoped to one room or conversation and a
+     * [from, to) range, read lazily from the store. The caller must close the stream.
+     */
+    Stream<Message> stream(String roomId, String conversationId, LocalDateTime from, LocalDateTime to);
+
+    // The range scans of one channel: newest first for latest/before, oldest first for after
+    interface KeysetQueries {
+        List<Message> latest(int limit);
+
+        List<Message> before(MessageCursor cursor, int limit);
+
+        List<Message> after(MessageCursor cursor, int limit);
+    }
+}
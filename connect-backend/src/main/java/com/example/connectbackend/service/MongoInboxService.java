@@ -0,0 +1,178 @@
+package com.example.connectbackend.service;
+
+import com.example.connectbackend.model.InboxEntry;
+import com.example.connectbackend.model.Message;
+import com.mongodb.bulk.BulkWriteError;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Profile;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.BulkOperationException;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.aggregation.AggregationUpdate;
+import org.springframework.data.mongodb.core.aggregation.Fields;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Maintains the inbox read model: one document per (user, conversation) with the last message
+ * and an unread counter, updated by upserts as private messages are accepted, so listing a
+ * user's conversations never touches the messages collection.
+ */
+@Service
+@Profile("!" + LogMessageStore.PROFILE)
+public class MongoInboxService implements InboxService {
+    private static final Logger logger = LoggerFactory.getLogger(MongoInboxService.class);
+
+    private static final int DUPLICATE_KEY = 11000;
+
+    @Autowired
+    private MongoTemplate mongoTemplate;
+
+    @Value("${chat.inbox.page-size.default:50}")
+    private int defaultPageSize;
+
+    @Value("${chat.inbox.page-size.max:200}")
+    private int maxPageSize;
+
+    // Net change to one inbox row from a batch of messages
+    private static final class Change {
+        final String userId;
+        final String conversationId;
+        String otherUserId;
+        String otherUserName;
+        Message last;
+        // The user wrote in the conversation: everything before counts as read
+        boolean resetUnread;
+        int unreadDelta;
+
+        Change(String userId, String conversationId) {
+            this.userId = userId;
+            this.conversationId = conversationId;
+        }
+    }
+
+    // One upsert per row for the whole batch
+    @Override
+    public void recordMessages(List<Message> messages) {
+        Map<String, Change> changes = new LinkedHashMap<>();
+        for (Message message : messages) {
+            String conversationId = message.getConversationId();
+            if (conversationId == null) {
+                continue;
+            }
+            String senderId = message.getSenderId();
+            String receiverId = message.getReceiverId();
+
+            Change sent = changes.computeIfAbsent(senderId + "|" + conversationId, key -> new Change(senderId, conversationId));
+            sent.otherUserId = receiverId;
+            sent.resetUnread = true;
+            sent.unreadDelta = 0;
+            advance(sent, message);
+
+            if (!receiverId.equals(senderId)) {
+                Change received = changes.computeIfAbsent(receiverId + "|" + conversationId, key -> new Change(receiverId, conversationId));
+                received.otherUserId = senderId;
+                received.otherUserName = message.getUserName();
+                received.unreadDelta++;
+                advance(received, message);
+            }
+        }
+        if (changes.isEmpty()) {
+            return;
+        }
+
+        List<Change> ordered = new ArrayList<>(changes.values());
+        BulkOperations bulk = mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, InboxEntry.class);
+        for (Change change : ordered) {
+            // Matches only if this message is at least as new as the stored one; otherwise the
+            // upsert collides with the existing row on the unique index and only the counter is applied
+            Query newerThanStored = Query.query(Criteria.where("userId").is(change.userId)
+                    .and("conversationId").is(change.conversationId)
+                    .orOperator(Criteria.where("lastTimestamp").lte(change.last.getTimestamp()),
+                            Criteria.where("lastTimestamp").exists(false)));
+            bulk.upsert(newerThanStored, lastMessageUpdate(change));
+        }
+        try {
+            bulk.execute();
+        } catch (BulkOperationException e) {
+            for (BulkWriteError error : e.getErrors()) {
+                applyCounterOnly(ordered.get(error.getIndex()), error);
+            }
+        }
+    }
+
+    private void applyCounterOnly(Change change, BulkWriteError error) {
+        if (error.getCode() != DUPLICATE_KEY) {
+            logger.error("Inbox update for {} failed: {}", change.userId, error.getMessage());
+            return;
+        }
+        mongoTemplate.updateFirst(
+                Query.query(Criteria.where("userId").is(change.userId).and("conversationId").is(change.conversationId)),
+                unreadUpdate(change, new Update()),
+                InboxEntry.class);
+    }
+
+    // Newest message of the conversation for this row, by (timestamp, id)
+    private static void advance(Change change, Message message) {
+        Message last = change.last;
+        if (last == null || message.getTimestamp().isAfter(last.getTimestamp())
+                || (message.getTimestamp().isEqual(last.getTimestamp()) && message.getId().compareTo(last.getId()) > 0)) {
+            change.last = message;
+        }
+    }
+
+    private static Update lastMessageUpdate(Change change) {
+        Message last = change.last;
+        Update update = new Update()
+                .set("otherUserId", change.otherUserId)
+                .set("lastMessageId", last.getId())
+                .set("lastSenderId", last.getSenderId())
+                .set("lastContent", InboxService.preview(last.getContent()))
+                .set("lastTimestamp", last.getTimestamp());
+        if (change.otherUserName != null) {
+            update.set("otherUserName", change.otherUserName);
+        }
+        return unreadUpdate(change, update);
+    }
+
+    private static Update unreadUpdate(Change change, Update update) {
+        return change.resetUnread
+                ? update.set("unreadCount", change.unreadDelta)
+                : update.inc("unreadCount", change.unreadDelta);
+    }
+
+    // One range scan on (userId, lastTimestamp)
+    @Override
+    public List<InboxEntry> getInbox(String userId, Integer limit) {
+        int pageSize = limit == null ? defaultPageSize : Math.max(1, Math.min(limit, maxPageSize));
+        return mongoTemplate.find(
+                Query.query(Criteria.where("userId").is(userId))
+                        .with(Sort.by(Sort.Direction.DESC, "lastTimestamp"))
+                        .limit(pageSize),
+                InboxEntry.class);
+    }
+
+    // One atomic pipeline update, so the read cursor is the last message when the counter is cleared
+    @Override
+    public boolean markRead(String userId, String otherUserId) {
+        AggregationUpdate update = AggregationUpdate.update()
+                .set("unreadCount").toValue(0)
+                .set("lastReadMessageId").toValueOf(Fields.field("lastMessageId"));
+        return mongoTemplate.updateFirst(
+                Query.query(Criteria.where("userId").is(userId)
+                        .and("conversationId").is(Message.conversationIdOf(userId, otherUserId))),
+                update,
+                InboxEntry.class).getMatchedCount() > 0;
+    }
+}
@@ -0,0 +1,130 @@
+package com.example.connectbackend.service;
+
+import com.example.connectbackend.model.Message;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Fixed-capacity ring of the most recent global messages.
+ * Writers claim a sequence with one getAndIncrement and publish into its slot; readers never block writers.
+ * Readers stop at the publish watermark, the first claimed slot not written yet, so a page never
+ * skips a message that is still being published and then ends up behind the cursor.
+ */
+public class RecentMessageBuffer {
+    // (timestamp, id) order, the same order the history index uses. Hex ObjectIds compare like the ObjectIds.
+    static final Comparator<Message> HISTORY_ORDER =
+            Comparator.comparing(Message::getTimestamp).thenComparing(Message::getId);
+
+    private record Slot(long sequence, Message message) {
+    }
+
+    private final int capacity;
+    private final AtomicReferenceArray<Slot> slots;
+    private final AtomicLong nextSequence = new AtomicLong();
+    // Every sequence below this has been published
+    private final AtomicLong published = new AtomicLong();
+    // Set when warm-up found fewer messages than fit, i.e. the ring started out holding the whole channel
+    private volatile boolean startsAtHistoryBeginning;
+
+    public RecentMessageBuffer(int capacity) {
+        this.capacity = Math.max(1, capacity);
+        this.slots = new AtomicReferenceArray<>(this.capacity);
+    }
+
+    public int capacity() {
+        return capacity;
+    }
+
+    public void add(Message message) {
+        publish(claim(), message);
+    }
+
+    long claim() {
+        return nextSequence.getAndIncrement();
+    }
+
+    void publish(long sequence, Message message) {
+        int index = (int) (sequence % capacity);
+        Slot slot = new Slot(sequence, message);
+        Slot current;
+        do {
+            current = slots.get(index);
+            // A writer that stalled for a whole lap must not put an older message back over a newer one
+            if (current != null && current.sequence() > sequence) {
+                break;
+            }
+        } while (!slots.compareAndSet(index, current, slot));
+        advancePublished();
+    }
+
+    // Whichever writer finishes last moves the watermark past the slots the others published meanwhile
+    private void advancePublished() {
+        while (true) {
+            long next = published.get();
+            Slot slot = slots.get((int) (next % capacity));
+            // An older lap's message still sits in a slot that has been claimed but not written
+            if (slot == null || slot.sequence() < next) {
+                return;
+            }
+            published.compareAndSet(next, next + 1);
+        }
+    }
+
+    void markStartsAtHistoryBeginning() {
+        startsAtHistoryBeginning = true;
+    }
+
+    // True while nothing has been evicted from a ring that started with the complete channel
+    public boolean holdsFullHistory() {
+        return startsAtHistoryBeginning && nextSequence.get() <= capacity;
+    }
+
+    // Newest message in history order, or null when empty. Out-of-order publishes only ever
+    // involve the last few slots, so only those are compared.
+    public Message latest() {
+        long end = published.get();
+        long start = Math.max(0, end - Math.min(capacity, 64));
+        Message latest = null;
+        for (long sequence = start; sequence < end; sequence++) {
+            Slot slot = slots.get((int) (sequence % capacity));
+            if (slot != null && slot.sequence() == sequence
+                    && (latest == null || HISTORY_ORDER.compare(slot.message(), latest) > 0)) {
+                latest = slot.message();
+            }
+        }
+        return latest;
+    }
+
+    /**
+     * Copies the current contents up to the publish watermark, oldest first in history order.
+     * Slots already overwritten by a newer lap are skipped.
+     */
+    public List<Message> snapshot() {
+        long end = published.get();
+        long start = Math.max(0, end - capacity);
+        List<Message> messages = new ArrayList<>((int) (end - start));
+        boolean sorted = true;
+        Message previous = null;
+        for (long sequence = start; sequence < end; sequence++) {
+            Slot slot = slots.get((int) (sequence % capacity));
+            if (slot == null || slot.sequence() != sequence) {
+                continue;
+            }
+            Message message = slot.message();
+            if (previous != null && HISTORY_ORDER.compare(previous, message) > 0) {
+                sorted = false;
+            }
+            messages.add(message);
+            previous = message;
+        }
+        // Concurrent senders can publish slightly out of timestamp order
+        if (!sorted) {
+            messages.sort(HISTORY_ORDER);
+        }
+        return messages;
+    }
+}
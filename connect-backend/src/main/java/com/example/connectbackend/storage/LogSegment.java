@@ -0,0 +1,359 @@
+package com.example.connectbackend.storage;
+
+import com.example.connectbackend.model.Message;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.CRC32;
+
+/**
+ * One memory-mapped file of the message log, named after the sequence of its first record.
+ * Records are [length][crc32][payload]; a zero length marks the end of the written data.
+ * Every index-interval bytes the segment closes a block and remembers its position, first
+ * sequence and timestamp range, which is the sparse index readers use to skip ahead.
+ * <p>
+ * Only the log's writer thread appends. Readers see everything below {@link #end()}: bytes are
+ * written before the volatile end moves past them, and nothing below end changes again.
+ */
+final class LogSegment {
+    private static final int HEADER_BYTES = 8;
+    private static final int INDEX_MAGIC = 0x4D4C4931; // "MLI1"
+
+    // A run of records with its time range; the unsealed tail of the segment has no block yet
+    record Block(int start, int end, long firstSequence, long minTimestamp, long maxTimestamp) {
+    }
+
+    private final long baseSequence;
+    private final Path file;
+    private final Path indexFile;
+    private final MappedByteBuffer buffer;
+    private final int indexIntervalBytes;
+    private final Set<String> channels = ConcurrentHashMap.newKeySet();
+
+    private volatile Block[] blocks = new Block[16];
+    private volatile int blockCount;
+    private volatile int end;
+    private volatile long nextSequence;
+    private volatile long minTimestamp = Long.MAX_VALUE;
+    private volatile long maxTimestamp = Long.MIN_VALUE;
+    private volatile boolean sealed;
+
+    // Open block, writer only
+    private int blockStart;
+    private long blockFirstSequence;
+    private long blockMinTimestamp = Long.MAX_VALUE;
+    private long blockMaxTimestamp = Long.MIN_VALUE;
+
+    private LogSegment(Path directory, long baseSequence, MappedByteBuffer buffer, int indexIntervalBytes) {
+        this.baseSequence = baseSequence;
+        this.file = directory.resolve(fileName(baseSequence, ".log"));
+        this.indexFile = directory.resolve(fileName(baseSequence, ".index"));
+        this.buffer = buffer;
+        this.indexIntervalBytes = indexIntervalBytes;
+        this.nextSequence = baseSequence;
+        this.blockFirstSequence = baseSequence;
+    }
+
+    static String fileName(long baseSequence, String suffix) {
+        return String.format("%020d%s", baseSequence, suffix);
+    }
+
+    // Preallocates the file; on the usual Linux file systems the unwritten part stays sparse
+    static LogSegment create(Path directory, long baseSequence, int capacity, int indexIntervalBytes)
+            throws IOException {
+        Path file = directory.resolve(fileName(baseSequence, ".log"));
+        try (RandomAccessFile raf = new RandomAccessFile(file.toFile(), "rw")) {
+            raf.setLength(capacity);
+            MappedByteBuffer buffer = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, capacity);
+            return new LogSegment(directory, baseSequence, buffer, indexIntervalBytes);
+        }
+    }
+
+    /**
+     * Maps an existing segment. A sealed segment with an intact index file is trusted as is;
+     * anything else is recovered by scanning from the start up to the first record that is torn,
+     * fails its checksum or breaks the sequence.
+     */
+    static LogSegment open(Path file, boolean active, int indexIntervalBytes) throws IOException {
+        String name = file.getFileName().toString();
+        long baseSequence = Long.parseLong(name.substring(0, name.length() - ".log".length()));
+        MappedByteBuffer buffer;
+        try (RandomAccessFile raf = new RandomAccessFile(file.toFile(), active ? "rw" : "r")) {
+            buffer = raf.getChannel().map(active ? FileChannel.MapMode.READ_WRITE : FileChannel.MapMode.READ_ONLY,
+                    0, raf.length());
+        }
+        LogSegment segment = new LogSegment(file.getParent(), baseSequence, buffer, indexIntervalBytes);
+        if (active || !segment.loadIndex()) {
+            segment.recover();
+            if (!active) {
+                segment.seal();
+            }
+        } else {
+            segment.sealed = true;
+        }
+        return segment;
+    }
+
+    long baseSequence() {
+        return baseSequence;
+    }
+
+    long nextSequence() {
+        return nextSequence;
+    }
+
+    int end() {
+        return end;
+    }
+
+    long minTimestamp() {
+        return minTimestamp;
+    }
+
+    long maxTimestamp() {
+        return maxTimestamp;
+    }
+
+    boolean isEmpty() {
+        return nextSequence == baseSequence;
+    }
+
+    boolean containsChannel(String channel) {
+        return channels.contains(channel);
+    }
+
+    /**
+     * The sparse index plus, on an unsealed segment, the open tail as a last block that covers
+     * every timestamp. Taken as a snapshot: later appends do not show up in the returned list.
+     */
+    List<Block> blocks() {
+        int count = blockCount;
+        Block[] current = blocks;
+        int limit = end;
+        List<Block> snapshot = new ArrayList<>(count + 1);
+        snapshot.addAll(Arrays.asList(current).subList(0, count));
+        int tailStart = count == 0 ? 0 : current[count - 1].end();
+        if (limit > tailStart) {
+            snapshot.add(new Block(tailStart, limit, -1, Long.MIN_VALUE, Long.MAX_VALUE));
+        }
+        return snapshot;
+    }
+
+    // Bytes an encoded message takes in the segment
+    static int recordSize(byte[] payload) {
+        return HEADER_BYTES + payload.length;
+    }
+
+    boolean fits(byte[] payload) {
+        // Keep room for the zero length that terminates the data
+        return end + recordSize(payload) + 4 <= buffer.capacity();
+    }
+
+    // Writer only. The record becomes visible to readers when end is published.
+    void append(byte[] payload, long timestamp, String channel) {
+        int position = end;
+        CRC32 crc = new CRC32();
+        crc.update(payload);
+        buffer.putInt(position + 4, (int) crc.getValue());
+        buffer.put(position + HEADER_BYTES, payload);
+        buffer.putInt(position + HEADER_BYTES + payload.length, 0);
+        buffer.putInt(position, payload.length);
+        channels.add(channel);
+        track(position + recordSize(payload), timestamp);
+        end = position + recordSize(payload);
+    }
+
+    void force(int from) {
+        if (end > from) {
+            buffer.force(from, end - from);
+        }
+    }
+
+    // Flushes the data and writes the index, so reopening the segment needs no scan
+    void seal() throws IOException {
+        closeBlock();
+        if (!buffer.isReadOnly()) {
+            buffer.force();
+        }
+        Path temporary = indexFile.resolveSibling(indexFile.getFileName() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(Files.newOutputStream(temporary))) {
+            out.writeInt(INDEX_MAGIC);
+            out.writeInt(end);
+            out.writeLong(nextSequence);
+            out.writeLong(minTimestamp);
+            out.writeLong(maxTimestamp);
+            out.writeInt(blockCount);
+            for (int i = 0; i < blockCount; i++) {
+                Block block = blocks[i];
+                out.writeInt(block.start());
+                out.writeInt(block.end());
+                out.writeLong(block.firstSequence());
+                out.writeLong(block.minTimestamp());
+                out.writeLong(block.maxTimestamp());
+            }
+            out.writeInt(channels.size());
+            for (String channel : channels) {
+                out.writeUTF(channel);
+            }
+        }
+        Files.move(temporary, indexFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        sealed = true;
+    }
+
+    boolean isSealed() {
+        return sealed;
+    }
+
+    void delete() throws IOException {
+        // The mapping stays valid for readers still holding this segment until it is collected
+        Files.deleteIfExists(indexFile);
+        Files.deleteIfExists(file);
+    }
+
+    /**
+     * Decodes the records of a block that belong to the channel (any channel when null),
+     * in append order.
+     */
+    List<Message> read(Block block, String channel) {
+        List<Message> messages = new ArrayList<>();
+        int position = block.start();
+        while (position < block.end()) {
+            int length = buffer.getInt(position);
+            Message message = MessageRecord.decode(buffer, position + HEADER_BYTES, channel);
+            if (message != null) {
+                messages.add(message);
+            }
+            position += HEADER_BYTES + length;
+        }
+        return messages;
+    }
+
+    private void recover() {
+        int position = 0;
+        long expected = baseSequence;
+        int limit = buffer.capacity();
+        while (position + HEADER_BYTES <= limit) {
+            int length = buffer.getInt(position);
+            if (length <= 0 || position + HEADER_BYTES + length > limit) {
+                break;
+            }
+            byte[] payload = new byte[length];
+            buffer.get(position + HEADER_BYTES, payload);
+            CRC32 crc = new CRC32();
+            crc.update(payload);
+            if ((int) crc.getValue() != buffer.getInt(position + 4)) {
+                break;
+            }
+            ByteBuffer record = ByteBuffer.wrap(payload);
+            if (MessageRecord.sequence(record) != expected) {
+                break;
+            }
+            channels.add(MessageRecord.channel(record));
+            track(position + HEADER_BYTES + length, MessageRecord.timestamp(record));
+            position += HEADER_BYTES + length;
+            expected++;
+        }
+        end = position;
+        // Cut off a torn or stale record so the next append is the first thing after the valid data
+        if (!buffer.isReadOnly() && position + 4 <= limit) {
+            buffer.putInt(position, 0);
+        }
+    }
+
+    // Counts the record just written (ending at recordEnd) into the open block and the segment
+    private void track(int recordEnd, long timestamp) {
+        nextSequence++;
+        blockMinTimestamp = Math.min(blockMinTimestamp, timestamp);
+        blockMaxTimestamp = Math.max(blockMaxTimestamp, timestamp);
+        minTimestamp = Math.min(minTimestamp, timestamp);
+        maxTimestamp = Math.max(maxTimestamp, timestamp);
+        if (recordEnd - blockStart >= indexIntervalBytes) {
+            closeBlock(recordEnd);
+        }
+    }
+
+    private void closeBlock() {
+        closeBlock(end);
+    }
+
+    private void closeBlock(int blockEnd) {
+        if (blockEnd <= blockStart) {
+            return;
+        }
+        Block block = new Block(blockStart, blockEnd, blockFirstSequence, blockMinTimestamp, blockMaxTimestamp);
+        if (blockCount == blocks.length) {
+            blocks = Arrays.copyOf(blocks, blocks.length * 2);
+        }
+        blocks[blockCount] = block;
+        // Publishes the block after the (possibly new) array holding it
+        blockCount = blockCount + 1;
+        blockStart = blockEnd;
+        // The record that closed the block has already been counted
+        blockFirstSequence = nextSequence;
+        blockMinTimestamp = Long.MAX_VALUE;
+        blockMaxTimestamp = Long.MIN_VALUE;
+    }
+
+    private boolean loadIndex() {
+        if (!Files.exists(indexFile)) {
+            return false;
+        }
+        try (DataInputStream in = new DataInputStream(Files.newInputStream(indexFile))) {
+            if (in.readInt() != INDEX_MAGIC) {
+                return false;
+            }
+            int indexedEnd = in.readInt();
+            long indexedNext = in.readLong();
+            long indexedMin = in.readLong();
+            long indexedMax = in.readLong();
+            int count = in.readInt();
+            Block[] loaded = new Block[Math.max(16, count)];
+            for (int i = 0; i < count; i++) {
+                loaded[i] = new Block(in.readInt(), in.readInt(), in.readLong(), in.readLong(), in.readLong());
+            }
+            int channelCount = in.readInt();
+            for (int i = 0; i < channelCount; i++) {
+                channels.add(in.readUTF());
+            }
+            if (indexedEnd > buffer.capacity()) {
+                return false;
+            }
+            blocks = loaded;
+            blockCount = count;
+            end = indexedEnd;
+            blockStart = indexedEnd;
+            nextSequence = indexedNext;
+            minTimestamp = indexedMin;
+            maxTimestamp = indexedMax;
+            return true;
+        } catch (IOException | RuntimeException e) {
+            channels.clear();
+            return false;
+        }
+    }
+
+    // Millisecond timestamps as stored in records; LocalDateTime is taken as UTC only for the arithmetic
+    static long toMillis(LocalDateTime timestamp) {
+        return timestamp.toInstant(ZoneOffset.UTC).toEpochMilli();
+    }
+
+    static LocalDateTime fromMillis(long millis) {
+        return LocalDateTime.ofEpochSecond(Math.floorDiv(millis, 1000), (int) Math.floorMod(millis, 1000) * 1_000_000,
+                ZoneOffset.UTC);
+    }
+}
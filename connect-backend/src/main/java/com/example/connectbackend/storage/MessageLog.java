@@ -0,0 +1,349 @@
+package com.example.connectbackend.storage;
+
+import com.example.connectbackend.model.Message;
+import com.example.connectbackend.model.MessageCursor;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * Embedded append-only message log: a directory of memory-mapped segments, each with a sparse
+ * index of blocks and the set of channels it holds. Appends are serialized; reads work on a
+ * snapshot of the segment list and never wait for the writer.
+ * <p>
+ * On open, sealed segments load their index file and the newest segment is recovered by
+ * scanning it up to the last intact record. A segment is sealed and a new one started when a
+ * record no longer fits; sealed segments older than the retention are deleted.
+ */
+public final class MessageLog implements Closeable {
+    private static final Logger logger = LoggerFactory.getLogger(MessageLog.class);
+
+    // (timestamp, id), the order of every history query
+    private static final Comparator<Message> OLDEST_FIRST =
+            Comparator.comparing(Message::getTimestamp).thenComparing(Message::getId);
+    private static final Comparator<Message> NEWEST_FIRST = OLDEST_FIRST.reversed();
+
+    /**
+     * @param segmentBytes       size each segment file is preallocated and mapped with
+     * @param indexIntervalBytes bytes of records per sparse index entry
+     * @param retention          how long sealed segments are kept after their newest record, null keeps all
+     * @param forceOnWrite       flush appended records to disk before append returns
+     */
+    public record Settings(int segmentBytes, int indexIntervalBytes, Duration retention, boolean forceOnWrite) {
+    }
+
+    private final Path directory;
+    private final Settings settings;
+    private final Clock clock;
+    private final Object writeLock = new Object();
+
+    // Oldest first; replaced, never modified, so readers can iterate a snapshot
+    private volatile List<LogSegment> segments;
+    private boolean closed;
+
+    private MessageLog(Path directory, Settings settings, Clock clock, List<LogSegment> segments) {
+        this.directory = directory;
+        this.settings = settings;
+        this.clock = clock;
+        this.segments = segments;
+    }
+
+    public static MessageLog open(Path directory, Settings settings) throws IOException {
+        // Message timestamps are local date-times, so retention compares against the local clock
+        return open(directory, settings, Clock.systemDefaultZone());
+    }
+
+    static MessageLog open(Path directory, Settings settings, Clock clock) throws IOException {
+        Files.createDirectories(directory);
+        List<Path> files;
+        try (Stream<Path> listing = Files.list(directory)) {
+            files = listing.filter(path -> path.getFileName().toString().endsWith(".log")).sorted().toList();
+        }
+        List<LogSegment> segments = new ArrayList<>(files.size() + 1);
+        for (int i = 0; i < files.size(); i++) {
+            segments.add(LogSegment.open(files.get(i), i == files.size() - 1, settings.indexIntervalBytes()));
+        }
+        if (segments.isEmpty()) {
+            segments.add(LogSegment.create(directory, 0, settings.segmentBytes(), settings.indexIntervalBytes()));
+        }
+        LogSegment active = segments.get(segments.size() - 1);
+        logger.info("Opened message log {} with {} segments, next sequence {}",
+                directory, segments.size(), active.nextSequence());
+        MessageLog log = new MessageLog(directory, settings, clock, List.copyOf(segments));
+        synchronized (log.writeLock) {
+            log.applyRetention();
+        }
+        return log;
+    }
+
+    /**
+     * Appends in order and returns how many messages were written; on an I/O error the
+     * messages before the failing one are in the log and the exception is thrown.
+     */
+    public int append(List<Message> messages) throws IOException {
+        synchronized (writeLock) {
+            if (closed) {
+                throw new IllegalStateException("Message log is closed");
+            }
+            LogSegment active = active();
+            int flushFrom = active.end();
+            int written = 0;
+            for (Message message : messages) {
+                byte[] payload = MessageRecord.encode(message, active.nextSequence());
+                if (LogSegment.recordSize(payload) + 4 > settings.segmentBytes()) {
+                    throw new IllegalArgumentException("Message " + message.getId() + " does not fit in a segment");
+                }
+                if (!active.fits(payload)) {
+                    if (settings.forceOnWrite()) {
+                        active.force(flushFrom);
+                    }
+                    active = roll(active);
+                    flushFrom = 0;
+                    payload = MessageRecord.encode(message, active.nextSequence());
+                }
+                active.append(payload, LogSegment.toMillis(message.getTimestamp()),
+                        MessageRecord.channelOf(message.getRoomId(), message.getConversationId()));
+                written++;
+            }
+            if (settings.forceOnWrite()) {
+                active.force(flushFrom);
+            }
+            return written;
+        }
+    }
+
+    /**
+     * Up to limit messages of the channel before the cursor (the newest when null), newest first.
+     * Segments and blocks that cannot hold a qualifying message are skipped by their time range;
+     * once limit candidates are found, only ranges that could still beat the oldest one are read.
+     */
+    public List<Message> before(String channel, MessageCursor cursor, int limit) {
+        if (limit <= 0) {
+            return List.of();
+        }
+        long bound = cursor == null ? Long.MAX_VALUE : LogSegment.toMillis(cursor.timestamp());
+        List<Message> found = new ArrayList<>();
+        List<LogSegment> snapshot = segments;
+        for (int s = snapshot.size() - 1; s >= 0; s--) {
+            LogSegment segment = snapshot.get(s);
+            if (!segment.containsChannel(channel) || skipsBefore(segment.minTimestamp(), segment.maxTimestamp(),
+                    bound, found, limit, segment.isSealed())) {
+                continue;
+            }
+            List<LogSegment.Block> blocks = segment.blocks();
+            for (int b = blocks.size() - 1; b >= 0; b--) {
+                LogSegment.Block block = blocks.get(b);
+                if (skipsBefore(block.minTimestamp(), block.maxTimestamp(), bound, found, limit, true)) {
+                    continue;
+                }
+                for (Message message : segment.read(block, channel)) {
+                    if (cursor == null || compare(message, cursor) < 0) {
+                        found.add(message);
+                    }
+                }
+                trim(found, NEWEST_FIRST, limit);
+            }
+        }
+        return found;
+    }
+
+    /**
+     * Up to limit messages of the channel after the cursor, oldest first; the mirror image of
+     * {@link #before}.
+     */
+    public List<Message> after(String channel, MessageCursor cursor, int limit) {
+        if (limit <= 0) {
+            return List.of();
+        }
+        long bound = LogSegment.toMillis(cursor.timestamp());
+        List<Message> found = new ArrayList<>();
+        for (LogSegment segment : segments) {
+            if (!segment.containsChannel(channel) || skipsAfter(segment.minTimestamp(), segment.maxTimestamp(),
+                    bound, found, limit, segment.isSealed())) {
+                continue;
+            }
+            for (LogSegment.Block block : segment.blocks()) {
+                if (skipsAfter(block.minTimestamp(), block.maxTimestamp(), bound, found, limit, true)) {
+                    continue;
+                }
+                for (Message message : segment.read(block, channel)) {
+                    if (compare(message, cursor) > 0) {
+                        found.add(message);
+                    }
+                }
+                trim(found, OLDEST_FIRST, limit);
+            }
+        }
+        return found;
+    }
+
+    // A range with nothing older than the cursor, or nothing newer than the limit-th message found so far
+    private static boolean skipsBefore(long min, long max, long bound, List<Message> found, int limit,
+                                       boolean rangeKnown) {
+        if (!rangeKnown) {
+            return false;
+        }
+        return min > bound
+                || (found.size() >= limit && max < LogSegment.toMillis(found.get(limit - 1).getTimestamp()));
+    }
+
+    private static boolean skipsAfter(long min, long max, long bound, List<Message> found, int limit,
+                                      boolean rangeKnown) {
+        if (!rangeKnown) {
+            return false;
+        }
+        return max < bound
+                || (found.size() >= limit && min > LogSegment.toMillis(found.get(limit - 1).getTimestamp()));
+    }
+
+    private static void trim(List<Message> found, Comparator<Message> order, int limit) {
+        found.sort(order);
+        if (found.size() > limit) {
+            found.subList(limit, found.size()).clear();
+        }
+    }
+
+    /**
+     * Messages in append order, which is time order up to the reordering of concurrent writes,
+     * optionally limited to a channel and a [from, to) range. Reads lazily from a snapshot.
+     */
+    public Stream<Message> stream(String channel, LocalDateTime from, LocalDateTime to) {
+        long lower = from == null ? Long.MIN_VALUE : LogSegment.toMillis(from);
+        long upper = to == null ? Long.MAX_VALUE : LogSegment.toMillis(to);
+        Iterator<Message> messages = new Iterator<>() {
+            private final Iterator<LogSegment> segmentIterator = segments.iterator();
+            private LogSegment segment;
+            private Iterator<LogSegment.Block> blocks = Collections.emptyIterator();
+            private Iterator<Message> current = Collections.emptyIterator();
+
+            @Override
+            public boolean hasNext() {
+                while (!current.hasNext()) {
+                    if (blocks.hasNext()) {
+                        LogSegment.Block block = blocks.next();
+                        if (block.maxTimestamp() >= lower && block.minTimestamp() < upper) {
+                            current = segment.read(block, channel).stream()
+                                    .filter(message -> {
+                                        long timestamp = LogSegment.toMillis(message.getTimestamp());
+                                        return timestamp >= lower && timestamp < upper;
+                                    })
+                                    .iterator();
+                        }
+                    } else if (segmentIterator.hasNext()) {
+                        segment = segmentIterator.next();
+                        boolean relevant = channel == null || segment.containsChannel(channel);
+                        blocks = relevant ? segment.blocks().iterator() : Collections.emptyIterator();
+                    } else {
+                        return false;
+                    }
+                }
+                return true;
+            }
+
+            @Override
+            public Message next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                return current.next();
+            }
+        };
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(messages, Spliterator.ORDERED), false);
+    }
+
+    public long nextSequence() {
+        return active().nextSequence();
+    }
+
+    int segmentCount() {
+        return segments.size();
+    }
+
+    int activeSegmentEnd() {
+        return active().end();
+    }
+
+    @Override
+    public void close() throws IOException {
+        synchronized (writeLock) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            LogSegment active = active();
+            active.force(0);
+        }
+    }
+
+    private LogSegment active() {
+        List<LogSegment> snapshot = segments;
+        return snapshot.get(snapshot.size() - 1);
+    }
+
+    // Writer only
+    private LogSegment roll(LogSegment full) throws IOException {
+        full.seal();
+        LogSegment next = LogSegment.create(directory, full.nextSequence(), settings.segmentBytes(),
+                settings.indexIntervalBytes());
+        List<LogSegment> updated = new ArrayList<>(segments);
+        updated.add(next);
+        segments = List.copyOf(updated);
+        logger.info("Rolled message log to segment {}", next.baseSequence());
+        applyRetention();
+        return next;
+    }
+
+    // Writer only; the active segment is never deleted
+    private void applyRetention() {
+        if (settings.retention() == null) {
+            return;
+        }
+        long cutoff = LogSegment.toMillis(LocalDateTime.now(clock)) - settings.retention().toMillis();
+        List<LogSegment> kept = new ArrayList<>(segments.size());
+        List<LogSegment> expired = new ArrayList<>();
+        List<LogSegment> current = segments;
+        for (int i = 0; i < current.size(); i++) {
+            LogSegment segment = current.get(i);
+            boolean active = i == current.size() - 1;
+            if (!active && segment.isSealed() && (segment.isEmpty() || segment.maxTimestamp() < cutoff)) {
+                expired.add(segment);
+            } else {
+                kept.add(segment);
+            }
+        }
+        if (expired.isEmpty()) {
+            return;
+        }
+        segments = List.copyOf(kept);
+        for (LogSegment segment : expired) {
+            try {
+                segment.delete();
+            } catch (IOException e) {
+                logger.warn("Could not delete expired message log segment {}", segment.baseSequence(), e);
+            }
+        }
+        logger.info("Deleted {} message log segments past retention", expired.size());
+    }
+
+    private static int compare(Message message, MessageCursor cursor) {
+        int byTime = message.getTimestamp().compareTo(cursor.timestamp());
+        return byTime != 0 ? byTime : message.getId().compareTo(cursor.id());
+    }
+}
@@ -0,0 +1,123 @@
+package com.example.connectbackend.storage;
+
+import com.example.connectbackend.model.Message;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Payload of one log record: sequence, timestamp and the channel fields first, so scans can
+ * filter by channel before decoding the rest. Strings are length-prefixed UTF-8, -1 for null.
+ */
+final class MessageRecord {
+    private static final byte GLOBAL = 1;
+
+    private MessageRecord() {
+    }
+
+    static byte[] encode(Message message, long sequence) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(128 + length(message.getContent()));
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeLong(sequence);
+            out.writeLong(LogSegment.toMillis(message.getTimestamp()));
+            out.writeByte(message.isGlobal() ? GLOBAL : 0);
+            writeString(out, message.getRoomId());
+            writeString(out, message.getConversationId());
+            writeString(out, message.getId());
+            writeString(out, message.getSenderId());
+            writeString(out, message.getUserName());
+            writeString(out, message.getReceiverId());
+            writeString(out, message.getContent());
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    // "room:<roomId>", "conversation:<conversationId>" or "other", as in the bucketed layout
+    static String channelOf(String roomId, String conversationId) {
+        if (roomId != null) {
+            return "room:" + roomId;
+        }
+        return conversationId != null ? "conversation:" + conversationId : "other";
+    }
+
+    static long sequence(ByteBuffer payload) {
+        return payload.getLong(0);
+    }
+
+    static long timestamp(ByteBuffer payload) {
+        return payload.getLong(8);
+    }
+
+    static String channel(ByteBuffer payload) {
+        int[] position = {17};
+        String roomId = readString(payload, position);
+        String conversationId = readString(payload, position);
+        return channelOf(roomId, conversationId);
+    }
+
+    // Decodes the payload at offset, or returns null when it is not on the channel (null matches any)
+    static Message decode(ByteBuffer buffer, int offset, String channel) {
+        int[] position = {offset + 17};
+        String roomId = readString(buffer, position);
+        String conversationId = readString(buffer, position);
+        if (channel != null && !matches(channel, roomId, conversationId)) {
+            return null;
+        }
+        Message message = new Message();
+        message.setTimestamp(LogSegment.fromMillis(buffer.getLong(offset + 8)));
+        message.setGlobal(buffer.get(offset + 16) == GLOBAL);
+        message.setRoomId(roomId);
+        message.setConversationId(conversationId);
+        message.setId(readString(buffer, position));
+        message.setSenderId(readString(buffer, position));
+        message.setUserName(readString(buffer, position));
+        message.setReceiverId(readString(buffer, position));
+        message.setContent(readString(buffer, position));
+        return message;
+    }
+
+    // channelOf(roomId, conversationId).equals(channel) without building the string
+    private static boolean matches(String channel, String roomId, String conversationId) {
+        if (roomId != null) {
+            return channel.length() == 5 + roomId.length() && channel.startsWith("room:")
+                    && channel.regionMatches(5, roomId, 0, roomId.length());
+        }
+        if (conversationId != null) {
+            return channel.length() == 13 + conversationId.length() && channel.startsWith("conversation:")
+                    && channel.regionMatches(13, conversationId, 0, conversationId.length());
+        }
+        return channel.equals("other");
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        if (value == null) {
+            out.writeInt(-1);
+            return;
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(ByteBuffer buffer, int[] position) {
+        int length = buffer.getInt(position[0]);
+        position[0] += 4;
+        if (length < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        buffer.get(position[0], bytes);
+        position[0] += length;
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static int length(String value) {
+        return value == null ? 0 : value.length() * 3;
+    }
+}
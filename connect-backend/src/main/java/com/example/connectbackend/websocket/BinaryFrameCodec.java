@@ -0,0 +1,196 @@
+package com.example.connectbackend.websocket;
+
+import com.example.connectbackend.model.Message;
+
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.Arrays;
+
+/**
+ * Compact binary wire format for /chat, negotiated as the chat.binary.v1 subprotocol.
+ *
+ * Every frame starts with a frame-type byte. CHAT frames carry a flags byte, the present
+ * string fields (varint length + UTF-8), the content, the timestamp as varint epoch millis and,
+ * for sequenced frames, channel byte + varint seq + epoch. CONTROL frames carry the UTF-8 JSON
+ * of the rare control messages (SYNC, JOINED, PRESENCE, ...) unchanged.
+ */
+public final class BinaryFrameCodec {
+    public static final String SUBPROTOCOL = "chat.binary.v1";
+    public static final String JSON_SUBPROTOCOL = "chat.json.v1";
+
+    public static final byte CHAT = 1;
+    public static final byte CONTROL = 2;
+
+    private static final int GLOBAL = 1;
+    private static final int HAS_ID = 1 << 1;
+    private static final int HAS_SENDER = 1 << 2;
+    private static final int HAS_USER_NAME = 1 << 3;
+    private static final int HAS_RECEIVER = 1 << 4;
+    private static final int HAS_ROOM = 1 << 5;
+    private static final int SEQUENCED = 1 << 6;
+    private static final int HAS_CONVERSATION = 1 << 7;
+
+    private static final byte CHANNEL_ROOM = 0;
+    private static final byte CHANNEL_DIRECT = 1;
+
+    private static final ZoneId ZONE = ZoneId.systemDefault();
+
+    // A decoded frame: message (and sequence info) for CHAT, json for CONTROL
+    public record Decoded(byte type, Message message, String channel, long seq, String epoch, String json) {
+    }
+
+    private BinaryFrameCodec() {
+    }
+
+    // channel is "room" or "direct" for sequenced frames, null otherwise
+    public static byte[] encodeChat(Message message, String channel, long seq, String epoch) {
+        Writer out = new Writer(64 + (message.getContent() == null ? 0 : message.getContent().length() * 3));
+        int flags = (message.isGlobal() ? GLOBAL : 0)
+                | (message.getId() != null ? HAS_ID : 0)
+                | (message.getSenderId() != null ? HAS_SENDER : 0)
+                | (message.getUserName() != null ? HAS_USER_NAME : 0)
+                | (message.getReceiverId() != null ? HAS_RECEIVER : 0)
+                | (message.getRoomId() != null ? HAS_ROOM : 0)
+                | (channel != null ? SEQUENCED : 0)
+                | (message.getConversationId() != null ? HAS_CONVERSATION : 0);
+        out.writeByte(CHAT);
+        out.writeByte(flags);
+        if (message.getId() != null) {
+            out.writeString(message.getId());
+        }
+        if (message.getSenderId() != null) {
+            out.writeString(message.getSenderId());
+        }
+        if (message.getUserName() != null) {
+            out.writeString(message.getUserName());
+        }
+        if (message.getReceiverId() != null) {
+            out.writeString(message.getReceiverId());
+        }
+        if (message.getRoomId() != null) {
+            out.writeString(message.getRoomId());
+        }
+        if (message.getConversationId() != null) {
+            out.writeString(message.getConversationId());
+        }
+        out.writeString(message.getContent() == null ? "" : message.getContent());
+        LocalDateTime timestamp = message.getTimestamp() == null ? LocalDateTime.now() : message.getTimestamp();
+        out.writeVarLong(timestamp.atZone(ZONE).toInstant().toEpochMilli());
+        if (channel != null) {
+            out.writeByte("direct".equals(channel) ? CHANNEL_DIRECT : CHANNEL_ROOM);
+            out.writeVarLong(seq);
+            out.writeString(epoch);
+        }
+        return out.toByteArray();
+    }
+
+    public static byte[] encodeControl(String json) {
+        byte[] utf8 = json.getBytes(StandardCharsets.UTF_8);
+        byte[] frame = new byte[utf8.length + 1];
+        frame[0] = CONTROL;
+        System.arraycopy(utf8, 0, frame, 1, utf8.length);
+        return frame;
+    }
+
+    // Reads an inbound frame; a CHAT frame's id and timestamp are skipped, the server assigns both
+    public static Decoded decode(ByteBuffer buffer) {
+        try {
+            byte type = buffer.get();
+            if (type == CONTROL) {
+                byte[] utf8 = new byte[buffer.remaining()];
+                buffer.get(utf8);
+                return new Decoded(CONTROL, null, null, 0, null, new String(utf8, StandardCharsets.UTF_8));
+            }
+            if (type != CHAT) {
+                throw new IllegalArgumentException("Unknown frame type " + type);
+            }
+            int flags = buffer.get() & 0xFF;
+            Message message = new Message();
+            message.setGlobal((flags & GLOBAL) != 0);
+            if ((flags & HAS_ID) != 0) {
+                readString(buffer);
+            }
+            message.setSenderId((flags & HAS_SENDER) != 0 ? readString(buffer) : null);
+            message.setUserName((flags & HAS_USER_NAME) != 0 ? readString(buffer) : null);
+            message.setReceiverId((flags & HAS_RECEIVER) != 0 ? readString(buffer) : null);
+            message.setRoomId((flags & HAS_ROOM) != 0 ? readString(buffer) : null);
+            message.setConversationId((flags & HAS_CONVERSATION) != 0 ? readString(buffer) : null);
+            message.setContent(readString(buffer));
+            readVarLong(buffer);
+            if ((flags & SEQUENCED) == 0) {
+                return new Decoded(CHAT, message, null, 0, null, null);
+            }
+            String channel = buffer.get() == CHANNEL_DIRECT ? "direct" : "room";
+            long seq = readVarLong(buffer);
+            return new Decoded(CHAT, message, channel, seq, readString(buffer), null);
+        } catch (BufferUnderflowException e) {
+            throw new IllegalArgumentException("Truncated frame", e);
+        }
+    }
+
+    private static String readString(ByteBuffer buffer) {
+        long length = readVarLong(buffer);
+        if (length < 0 || length > buffer.remaining()) {
+            throw new IllegalArgumentException("Invalid string length " + length);
+        }
+        byte[] utf8 = new byte[(int) length];
+        buffer.get(utf8);
+        return new String(utf8, StandardCharsets.UTF_8);
+    }
+
+    private static long readVarLong(ByteBuffer buffer) {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            byte b = buffer.get();
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IllegalArgumentException("Varint too long");
+    }
+
+    private static final class Writer {
+        private byte[] bytes;
+        private int size;
+
+        Writer(int initialCapacity) {
+            bytes = new byte[initialCapacity];
+        }
+
+        void writeByte(int value) {
+            ensure(1);
+            bytes[size++] = (byte) value;
+        }
+
+        void writeVarLong(long value) {
+            ensure(10);
+            while ((value & ~0x7FL) != 0) {
+                bytes[size++] = (byte) ((value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            bytes[size++] = (byte) value;
+        }
+
+        void writeString(String value) {
+            byte[] utf8 = value.getBytes(StandardCharsets.UTF_8);
+            writeVarLong(utf8.length);
+            ensure(utf8.length);
+            System.arraycopy(utf8, 0, bytes, size, utf8.length);
+            size += utf8.length;
+        }
+
+        byte[] toByteArray() {
+            return Arrays.copyOf(bytes, size);
+        }
+
+        private void ensure(int extra) {
+            if (size + extra > bytes.length) {
+                bytes = Arrays.copyOf(bytes, Math.max(bytes.length * 2, size + extra));
+            }
+        }
+    }
+}
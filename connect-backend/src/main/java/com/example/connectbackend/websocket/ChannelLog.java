@@ -0,0 +1,108 @@
+package com.example.connectbackend.websocket;
+
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.function.Consumer;
+import java.util.function.LongFunction;
+import java.util.function.ToIntFunction;
+
+/**
+ * Sequence counter and bounded replay log for one delivery channel.
+ * publish() assigns, retains and fans out under the log's monitor, so every subscriber
+ * sees frames in sequence order. Callers that register subscribers hold the same monitor
+ * to make replay + registration atomic with respect to new publishes.
+ */
+public class ChannelLog {
+    private record Entry(long sequence, OutboundFrame frame) {
+    }
+
+    private final int retention;
+    private final ArrayDeque<Entry> entries;
+    private long lastSequence;
+    // When the channel lost its last local subscriber, 0 while it has one
+    private long idleSince;
+    // Dropped from the handler's map; a caller that finds this under the monitor takes a new log
+    private boolean retired;
+
+    public ChannelLog(int retention) {
+        this(retention, 0);
+    }
+
+    // Sequences start after startAfter, so they cannot collide with those of an earlier log of the channel
+    public ChannelLog(int retention, long startAfter) {
+        this.retention = Math.max(1, retention);
+        this.entries = new ArrayDeque<>(this.retention);
+        this.lastSequence = startAfter;
+    }
+
+    public synchronized long getLastSequence() {
+        return lastSequence;
+    }
+
+    public synchronized void publish(LongFunction<OutboundFrame> encoder, Consumer<OutboundFrame> deliver) {
+        long sequence = ++lastSequence;
+        OutboundFrame frame = encoder.apply(sequence);
+        if (entries.size() == retention) {
+            entries.removeFirst();
+        }
+        entries.addLast(new Entry(sequence, frame));
+        deliver.accept(frame);
+    }
+
+    /**
+     * Delivers every retained frame after the given sequence and returns their total size as
+     * measured by sizeOf. Returns -1 without delivering anything if part of the gap has already
+     * been evicted, the sequence is ahead of this log (e.g. it was issued before a restart), or
+     * the gap is larger than maxBytes.
+     */
+    public synchronized int replayAfter(long sequence, ToIntFunction<OutboundFrame> sizeOf, int maxBytes,
+                                        Consumer<OutboundFrame> deliver) {
+        if (sequence > lastSequence) {
+            return -1;
+        }
+        long oldestRetained = entries.isEmpty() ? lastSequence + 1 : entries.peekFirst().sequence();
+        if (sequence < oldestRetained - 1) {
+            return -1;
+        }
+        // Newest first, so a gap that is too large is found without touching the rest of it
+        long bytes = 0;
+        Iterator<Entry> newestFirst = entries.descendingIterator();
+        while (newestFirst.hasNext()) {
+            Entry entry = newestFirst.next();
+            if (entry.sequence() <= sequence) {
+                break;
+            }
+            bytes += sizeOf.applyAsInt(entry.frame());
+            if (bytes > maxBytes) {
+                return -1;
+            }
+        }
+        for (Entry entry : entries) {
+            if (entry.sequence() > sequence) {
+                deliver.accept(entry.frame());
+            }
+        }
+        return (int) bytes;
+    }
+
+    // Returns since when the channel has had no local subscriber, starting the clock now if needed
+    synchronized long markIdle(long now) {
+        if (idleSince == 0) {
+            idleSince = now;
+        }
+        return idleSince;
+    }
+
+    synchronized void markInUse() {
+        idleSince = 0;
+    }
+
+    synchronized void retire() {
+        retired = true;
+        entries.clear();
+    }
+
+    synchronized boolean isRetired() {
+        return retired;
+    }
+}
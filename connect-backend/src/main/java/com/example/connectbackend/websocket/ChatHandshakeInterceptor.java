@@ -0,0 +1,110 @@
+package com.example.connectbackend.websocket;
+
+import com.example.connectbackend.model.Message;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.server.ServerHttpRequest;
+import org.springframework.http.server.ServerHttpResponse;
+import org.springframework.util.MultiValueMap;
+import org.springframework.web.socket.WebSocketHandler;
+import org.springframework.web.socket.server.HandshakeInterceptor;
+import org.springframework.web.socket.server.support.DefaultHandshakeHandler;
+import org.springframework.web.util.UriComponentsBuilder;
+
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.security.Principal;
+import java.util.Map;
+
+/**
+ * Parses and validates the /chat query string once per connection.
+ * The decoded identity becomes the session principal and the resume position a session attribute,
+ * so per-frame handling never touches the URI again.
+ */
+public class ChatHandshakeInterceptor implements HandshakeInterceptor {
+    private static final Logger logger = LoggerFactory.getLogger(ChatHandshakeInterceptor.class);
+
+    public static final String PRINCIPAL_ATTRIBUTE = "chat.principal";
+    public static final String RESUME_ATTRIBUTE = "chat.resume";
+    public static final String DEFLATE_ATTRIBUTE = "chat.deflate";
+
+    @Override
+    public boolean beforeHandshake(ServerHttpRequest request, ServerHttpResponse response,
+                                   WebSocketHandler wsHandler, Map<String, Object> attributes) {
+        MultiValueMap<String, String> params = UriComponentsBuilder.fromUri(request.getURI()).build().getQueryParams();
+        String userId = decode(params.getFirst("userId"));
+        String userName = decode(params.getFirst("userName"));
+        if (isBlank(userId) || isBlank(userName)) {
+            logger.error("Connection attempt without userId or userName");
+            response.setStatusCode(HttpStatus.BAD_REQUEST);
+            return false;
+        }
+        // Conversation ids are built by joining two user ids with ':'
+        if (!Message.isValidUserId(userId)) {
+            logger.warn("Connection attempt with a userId containing ':'");
+            response.setStatusCode(HttpStatus.BAD_REQUEST);
+            return false;
+        }
+        // Messages from these ids are trusted by clients as assistant answers and server errors
+        if (Message.isReservedSender(userId)) {
+            logger.warn("Connection attempt with a reserved userId");
+            response.setStatusCode(HttpStatus.FORBIDDEN);
+            return false;
+        }
+
+        attributes.put(PRINCIPAL_ATTRIBUTE, new ChatPrincipal(userId, userName));
+        attributes.put(RESUME_ATTRIBUTE, new ResumePosition(
+                decode(params.getFirst("epoch")),
+                parseSequence(params.getFirst("globalSeq")),
+                parseSequence(params.getFirst("directSeq"))));
+        // Clients that can inflate ask for large frames as raw-deflate binary frames
+        attributes.put(DEFLATE_ATTRIBUTE, "deflate".equals(params.getFirst("compression")));
+        return true;
+    }
+
+    @Override
+    public void afterHandshake(ServerHttpRequest request, ServerHttpResponse response,
+                               WebSocketHandler wsHandler, Exception exception) {
+    }
+
+    // Exposes the principal resolved by the interceptor as WebSocketSession.getPrincipal()
+    public static class PrincipalHandshakeHandler extends DefaultHandshakeHandler {
+        public PrincipalHandshakeHandler() {
+            // Clients opt into the binary format; no Sec-WebSocket-Protocol header means JSON
+            setSupportedProtocols(BinaryFrameCodec.SUBPROTOCOL, BinaryFrameCodec.JSON_SUBPROTOCOL);
+        }
+
+        @Override
+        protected Principal determineUser(ServerHttpRequest request, WebSocketHandler wsHandler,
+                                          Map<String, Object> attributes) {
+            return (Principal) attributes.get(PRINCIPAL_ATTRIBUTE);
+        }
+    }
+
+    private static String decode(String value) {
+        if (value == null) {
+            return null;
+        }
+        try {
+            return URLDecoder.decode(value, StandardCharsets.UTF_8);
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    private static boolean isBlank(String value) {
+        return value == null || value.isBlank();
+    }
+
+    private static Long parseSequence(String value) {
+        if (value == null) {
+            return null;
+        }
+        try {
+            return Long.parseLong(value);
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,12 @@
+package com.example.connectbackend.websocket;
+
+import java.security.Principal;
+
+// Identity of a /chat connection, resolved once during the handshake
+public record ChatPrincipal(String userId, String userName) implements Principal {
+
+    @Override
+    public String getName() {
+        return userId;
+    }
+}
@@ -1,62 +1,162 @@
 package com.example.connectbackend.websocket;
 
+import com.example.connectbackend.cluster.ClusterBus;
+import com.example.connectbackend.cluster.ClusterEvent;
 import com.example.connectbackend.model.Message;
+import com.example.connectbackend.service.AIRequestScheduler.AIRequestRejectedException;
+import com.example.connectbackend.service.AIService;
 import com.example.connectbackend.service.MessageService;
+import com.example.connectbackend.service.MessageService.MessageNotSavedException;
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import org.bson.types.ObjectId;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.web.socket.BinaryMessage;
 import org.springframework.web.socket.CloseStatus;
 import org.springframework.web.socket.TextMessage;
 import org.springframework.web.socket.WebSocketSession;
-import org.springframework.web.socket.handler.TextWebSocketHandler;
+import org.springframework.web.socket.handler.AbstractWebSocketHandler;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Predicate;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
-public class ChatWebSocketHandler extends TextWebSocketHandler {
+public class ChatWebSocketHandler extends AbstractWebSocketHandler {
     private static final Logger logger = LoggerFactory.getLogger(ChatWebSocketHandler.class);
     private final MessageService messageService;
+    // AIService publishes through this handler, so it is looked up when first needed
+    private final ObjectProvider<AIService> aiService;
     private final ObjectMapper objectMapper;
+    // Chat messages on the wire; the ObjectMapper is left with the rare control frames
+    private final MessageJsonCodec messageCodec;
+    private final Executor sendExecutor;
+    private final int sendBufferSizeLimit;
+    private final long sendTimeLimitMillis;
+    private final SlowConsumerPolicy slowConsumerPolicy;
+    private final int roomReplayRetention;
+    private final int directReplayRetention;
+    // Logs of channels without local subscribers are kept this long for reconnects, and at most this many
+    private final long replayIdleTtlMillis;
+    private final int replayMaxIdleChannels;
+    private final int maxRoomsPerSession;
+    // Frames of one user waiting for the inbound executor before the sending session is closed
+    private final int maxInboundQueuedPerUser;
+    private final int compressionThreshold;
     // private query
 
-    // Store active sessions with their sender IDs
-    private static final ConcurrentHashMap<String, WebSocketSession> sessions = new ConcurrentHashMap<>();
+    private static final String QUEUE_ATTRIBUTE = "chat.queue";
+    private static final Pattern ROOM_ID = Pattern.compile("[A-Za-z0-9_-]{1,64}");
+    // "@AI <question>" posted to a room is answered in that room by the assistant
+    private static final Pattern AI_COMMAND = Pattern.compile("@AI\\s+(\\S.*)",
+            Pattern.CASE_INSENSITIVE | Pattern.DOTALL);
 
-    public ChatWebSocketHandler(MessageService messageService) {
+    // Store this node's active sessions with their sender IDs, every device of a user
+    private final SessionRegistry sessions = new SessionRegistry();
+
+    // Peer nodes and the cluster-wide user -> node directory
+    private final ClusterBus clusterBus;
+
+    private final PresenceService presenceService;
+    private final InboundSequencer inboundSequencer;
+
+    // Room membership; every session is in the global room from connect to close
+    private final RoomSubscriptions subscriptions = new RoomSubscriptions();
+
+    // Sequenced delivery: one channel per room plus one "direct" channel per user.
+    // Sequences restart with the process, so frames carry this epoch and resumes from another epoch resync.
+    private final String epoch = Long.toString(System.currentTimeMillis(), 36);
+    private final ConcurrentHashMap<String, ChannelLog> roomLogs = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, ChannelLog> directLogs = new ConcurrentHashMap<>();
+    // Highest sequence handed out by any dropped log
+    private final AtomicLong retiredSequenceFloor = new AtomicLong();
+
+    public ChatWebSocketHandler(MessageService messageService, Executor sendExecutor,
+                                int sendBufferSizeLimit, long sendTimeLimitMillis,
+                                SlowConsumerPolicy slowConsumerPolicy,
+                                int roomReplayRetention, int directReplayRetention,
+                                long replayIdleTtlMillis, int replayMaxIdleChannels, int maxRoomsPerSession,
+                                ScheduledExecutorService scheduler, long presenceWindowMillis,
+                                Executor inboundExecutor, int maxInboundQueuedPerUser, int compressionThreshold,
+                                MessageJsonCodec.TimestampFormat timestampFormat, ClusterBus clusterBus,
+                                ObjectProvider<AIService> aiService) {
         this.messageService = messageService;
+        this.aiService = aiService;
+        this.sendExecutor = sendExecutor;
+        this.sendBufferSizeLimit = sendBufferSizeLimit;
+        this.sendTimeLimitMillis = sendTimeLimitMillis;
+        this.slowConsumerPolicy = slowConsumerPolicy;
+        this.roomReplayRetention = roomReplayRetention;
+        this.directReplayRetention = directReplayRetention;
+        this.replayIdleTtlMillis = replayIdleTtlMillis;
+        this.replayMaxIdleChannels = Math.max(0, replayMaxIdleChannels);
+        this.maxRoomsPerSession = maxRoomsPerSession;
+        roomLogs.put(Message.GLOBAL_ROOM, new ChannelLog(roomReplayRetention));
+        this.maxInboundQueuedPerUser = maxInboundQueuedPerUser;
+        this.inboundSequencer = new InboundSequencer(inboundExecutor, maxInboundQueuedPerUser);
+        this.compressionThreshold = compressionThreshold;
+        this.messageCodec = new MessageJsonCodec(timestampFormat);
         this.objectMapper = new ObjectMapper();
         // Configure ObjectMapper to handle LocalDateTime
         objectMapper.findAndRegisterModules();
+        // ISO-8601 timestamps instead of number arrays, and no null fields on the wire
+        objectMapper.disable(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS);
+        objectMapper.setSerializationInclusion(JsonInclude.Include.NON_NULL);
+        this.presenceService = new PresenceService(objectMapper,
+                text -> {
+                    OutboundFrame frame = controlFrame(text.getPayload());
+                    sessions.forEach(queue -> queue.enqueue(frame));
+                },
+                scheduler, presenceWindowMillis);
+        // A drain blocked on a peer that stopped reading is cut off even if nothing more is queued for it
+        long sendCheckMillis = Math.max(100, sendTimeLimitMillis / 4);
+        scheduler.scheduleWithFixedDelay(() -> sessions.forEach(OutboundSessionQueue::enforceSendTimeLimit),
+                sendCheckMillis, sendCheckMillis, TimeUnit.MILLISECONDS);
+        long sweepMillis = Math.max(1000, Math.min(replayIdleTtlMillis / 2, 60_000));
+        scheduler.scheduleWithFixedDelay(this::sweepIdleLogs, sweepMillis, sweepMillis, TimeUnit.MILLISECONDS);
+        this.clusterBus = clusterBus;
+        // Users already online on other nodes
+        clusterBus.getDirectory().onlineUsers().forEach(presenceService::userOnline);
+        clusterBus.setListener(this::onClusterEvent);
     }
 
     @Override
     public void afterConnectionEstablished(WebSocketSession session) {
         try {
-            // Extract userId and username from query parameters
-            String query = session.getUri().getQuery();
-            String userId = extractQueryParameter(query, "userId");
-            String userName = extractQueryParameter(query, "userName");
-
-            // Get the query parameters from the URI
-            // String query = session.getUri().getQuery();
-            // System.out.println(session.getUri().getQuery());
-            // String userId = extractUserId(query); // Add this helper method
-
-            // String senderId = getUserIdFromSession(session);
-            if (userId != null && userName != null) {
-                sessions.put(userId, session);
-                logger.info("User {} connected. Total sessions: {}", userId, userName, sessions.size());
-
-                // Create and broadcast a connection status message
-                Message statusMessage = new Message();
-                statusMessage.setSenderId(userId);
-                statusMessage.setUserName(userName);
-                statusMessage.setGlobal(true);
-                statusMessage.setContent("USER_CONNECTED");
-                statusMessage.setTimestamp(LocalDateTime.now());
-
-                broadcastGlobalMessage(statusMessage);
+            // Identity was validated and decoded by ChatHandshakeInterceptor
+            ChatPrincipal principal = principalOf(session);
+            if (principal != null) {
+                String userId = principal.userId();
+                String userName = principal.userName();
+                boolean firstSession = registerAndResume(session, userId,
+                        (ResumePosition) session.getAttributes().get(ChatHandshakeInterceptor.RESUME_ATTRIBUTE));
+                logger.info("User {} ({}) connected. Online users: {}", userId, userName, sessions.userCount());
+                // Another device of an online user, here or on another node, does not change presence
+                if (firstSession && clusterBus.getDirectory().register(userId, userName, clusterBus.getNodeId())) {
+                    presenceService.userOnline(userId, userName);
+                    clusterBus.broadcast(ClusterEvent.userOnline(clusterBus.getNodeId(), userId, userName));
+                }
+                // Current presence for the new session, then changes arrive as coalesced diffs
+                OutboundSessionQueue queue = queueOf(session);
+                if (queue != null) {
+                    queue.enqueue(controlFrame(presenceService.snapshot().getPayload()));
+                }
             } else {
                 logger.error("Connection attempt without userId or userName");
                 session.close();
@@ -66,186 +166,587 @@ public class ChatWebSocketHandler extends TextWebSocketHandler {
         }
     }
 
-    private String extractQueryParameter(String query, String paramName) {
-        if (query != null) {
-            String[] pairs = query.split("&");
-            for (String pair : pairs) {
-                String[] keyValue = pair.split("=");
-                if (keyValue.length == 2 && keyValue[0].equals(paramName)) {
-                    return keyValue[1];
+    /**
+     * Registers the session, joins it to the global room and replays what it missed, holding both channel logs so no
+     * frame published meanwhile is lost or delivered twice. The client passes the epoch and
+     * last sequences it saw as epoch/globalSeq/directSeq query parameters; a SYNC frame always follows the replay
+     * and lists the channels the client has to reload from the history API instead.
+     * Returns true if this is the user's first open session.
+     */
+    private boolean registerAndResume(WebSocketSession session, String userId, ResumePosition resume) throws IOException {
+        WireFormat wireFormat = BinaryFrameCodec.SUBPROTOCOL.equals(session.getAcceptedProtocol())
+                ? WireFormat.BINARY : WireFormat.JSON;
+        OutboundSessionQueue queue = new OutboundSessionQueue(
+                session, sendExecutor, sendBufferSizeLimit, sendTimeLimitMillis, slowConsumerPolicy, wireFormat,
+                Boolean.TRUE.equals(session.getAttributes().get(ChatHandshakeInterceptor.DEFLATE_ATTRIBUTE)));
+        if (resume == null) {
+            resume = new ResumePosition(null, null, null);
+        }
+        Long globalSeq = resume.globalSeq();
+        Long directSeq = resume.directSeq();
+        boolean sameEpoch = epoch.equals(resume.epoch());
+        ChannelLog globalLog = roomLogs.get(Message.GLOBAL_ROOM);
+        session.getAttributes().put(QUEUE_ATTRIBUTE, queue);
+
+        synchronized (globalLog) {
+            while (true) {
+                ChannelLog directLog = liveLog(directLogs, userId, directReplayRetention);
+                synchronized (directLog) {
+                    // Dropped by the sweep after we looked it up
+                    if (directLog.isRetired()) {
+                        continue;
+                    }
+                    List<String> resync = new ArrayList<>();
+                    if (globalSeq != null && !(sameEpoch && replay(globalLog, globalSeq, queue))) {
+                        resync.add("global");
+                    }
+                    if (directSeq != null && !(sameEpoch && replay(directLog, directSeq, queue))) {
+                        resync.add("direct");
+                    }
+
+                    ObjectNode sync = objectMapper.createObjectNode();
+                    sync.put("type", "SYNC");
+                    sync.put("epoch", epoch);
+                    ObjectNode channels = sync.putObject("channels");
+                    channels.put("global", globalLog.getLastSequence());
+                    channels.put("direct", directLog.getLastSequence());
+                    resync.forEach(sync.putArray("resync")::add);
+                    queue.enqueue(controlFrame(objectMapper.writeValueAsString(sync)));
+
+                    subscriptions.join(Message.GLOBAL_ROOM, queue);
+                    return sessions.add(userId, queue);
+                }
+            }
+        }
+    }
+
+    /**
+     * Subscribes the session to a room. Like the connect-time resume, a JOIN may carry the
+     * epoch and lastSeq the client saw in that room; the gap is replayed before the JOINED
+     * frame, or JOINED says resync when it cannot be.
+     */
+    private void joinRoom(OutboundSessionQueue queue, String userId, String roomId, JsonNode frame) throws IOException {
+        JsonNode lastSeq = frame.get("lastSeq");
+        boolean sameEpoch = epoch.equals(frame.path("epoch").asText(null));
+        ChannelLog log;
+        do {
+            log = liveLog(roomLogs, roomId, roomReplayRetention);
+        } while (!join(log, queue, roomId, lastSeq, sameEpoch));
+        logger.debug("User {} joined room {}", userId, roomId);
+    }
+
+    // Returns false, without joining, if the sweep dropped the log after it was looked up
+    private boolean join(ChannelLog log, OutboundSessionQueue queue, String roomId, JsonNode lastSeq,
+                         boolean sameEpoch) throws IOException {
+        synchronized (log) {
+            if (log.isRetired()) {
+                return false;
+            }
+            boolean resync = false;
+            if (lastSeq != null && lastSeq.canConvertToLong()) {
+                resync = !(sameEpoch && replay(log, lastSeq.asLong(), queue));
+            }
+            subscriptions.join(roomId, queue);
+
+            ObjectNode joined = objectMapper.createObjectNode();
+            joined.put("type", "JOINED");
+            joined.put("roomId", roomId);
+            joined.put("epoch", epoch);
+            joined.put("seq", log.getLastSequence());
+            joined.put("resync", resync);
+            queue.enqueue(controlFrame(objectMapper.writeValueAsString(joined)));
+            return true;
+        }
+    }
+
+    /**
+     * Replays a channel's gap into the session's queue if it fits in half of the outbound buffer,
+     * leaving the rest for SYNC and live frames. A larger gap would overflow the buffer and get
+     * the session evicted (or frames dropped) on every reconnect, so it is a resync instead.
+     */
+    private boolean replay(ChannelLog log, long afterSequence, OutboundSessionQueue queue) {
+        int budget = sendBufferSizeLimit / 2 - queue.getBufferSize();
+        return budget > 0 && log.replayAfter(afterSequence, queue::frameSize, budget, queue::enqueue) >= 0;
+    }
+
+    private void leaveRoom(OutboundSessionQueue queue, String roomId) throws IOException {
+        ChannelLog log = roomLogs.get(roomId);
+        if (log != null) {
+            synchronized (log) {
+                subscriptions.leave(roomId, queue);
+            }
+        }
+        ObjectNode left = objectMapper.createObjectNode();
+        left.put("type", "LEFT");
+        left.put("roomId", roomId);
+        queue.enqueue(controlFrame(objectMapper.writeValueAsString(left)));
+    }
+
+    // JOIN / LEAVE control frames
+    private void handleControlFrame(WebSocketSession session, String userId, JsonNode frame) throws IOException {
+        OutboundSessionQueue queue = queueOf(session);
+        String type = frame.path("type").asText();
+        String roomId = frame.path("roomId").asText(null);
+        if (queue == null) {
+            return;
+        }
+        if (roomId == null || !ROOM_ID.matcher(roomId).matches()) {
+            sendErrorToSession(session, userId, "Invalid room id");
+            return;
+        }
+        switch (type) {
+            case "JOIN" -> {
+                if (subscriptions.roomCount(queue) >= maxRoomsPerSession) {
+                    sendErrorToSession(session, userId, "Too many rooms joined");
+                } else {
+                    joinRoom(queue, userId, roomId, frame);
+                }
+            }
+            case "LEAVE" -> {
+                if (Message.GLOBAL_ROOM.equals(roomId)) {
+                    sendErrorToSession(session, userId, "The global room cannot be left");
+                } else {
+                    leaveRoom(queue, roomId);
                 }
             }
+            default -> sendErrorToSession(session, userId, "Unknown frame type: " + type);
         }
-        return null;
+    }
+
+    // Logs are created only here, on a join or a connect; publishing to a channel without one delivers nothing.
+    // A new log starts above every sequence a dropped one handed out, so any position a client kept resyncs.
+    private ChannelLog liveLog(ConcurrentHashMap<String, ChannelLog> logs, String key, int retention) {
+        return logs.computeIfAbsent(key, id -> new ChannelLog(retention, retiredSequenceFloor.get() + 1));
+    }
+
+    /**
+     * Drops the logs of channels that have had no subscriber on this node for replay.idle-ttl-ms,
+     * and the longest idle ones beyond replay.max-idle-channels. Logs of channels with local
+     * subscribers stay, so the total is bounded by the connected sessions and their rooms.
+     */
+    private void sweepIdleLogs() {
+        long now = System.currentTimeMillis();
+        List<IdleLog> idle = new ArrayList<>();
+        collectIdle(roomLogs, roomId -> Message.GLOBAL_ROOM.equals(roomId) || !subscriptions.membersOf(roomId).isEmpty(),
+                now, idle);
+        collectIdle(directLogs, sessions::isOnline, now, idle);
+        idle.sort(Comparator.comparingLong(IdleLog::since));
+
+        int excess = idle.size() - replayMaxIdleChannels;
+        int retired = 0;
+        for (IdleLog entry : idle) {
+            if (now - entry.since() < replayIdleTtlMillis && excess <= 0) {
+                break;
+            }
+            if (retire(entry)) {
+                excess--;
+                retired++;
+            }
+        }
+        if (retired > 0) {
+            logger.debug("Dropped {} idle channel logs, {} room and {} direct logs left",
+                    retired, roomLogs.size(), directLogs.size());
+        }
+    }
+
+    private record IdleLog(ConcurrentHashMap<String, ChannelLog> logs, String key, ChannelLog log,
+                           Predicate<String> inUse, long since) {
+    }
+
+    private static void collectIdle(ConcurrentHashMap<String, ChannelLog> logs, Predicate<String> inUse, long now,
+                                    List<IdleLog> idle) {
+        logs.forEach((key, log) -> {
+            if (inUse.test(key)) {
+                log.markInUse();
+            } else {
+                idle.add(new IdleLog(logs, key, log, inUse, log.markIdle(now)));
+            }
+        });
+    }
+
+    // Joins and connects subscribe under the log's monitor, so a subscriber cannot arrive while it is retired
+    private boolean retire(IdleLog entry) {
+        synchronized (entry.log()) {
+            if (entry.inUse().test(entry.key())) {
+                entry.log().markInUse();
+                return false;
+            }
+            retiredSequenceFloor.accumulateAndGet(entry.log().getLastSequence(), Math::max);
+            entry.log().retire();
+        }
+        entry.logs().remove(entry.key(), entry.log());
+        return true;
+    }
+
+    private static OutboundSessionQueue queueOf(WebSocketSession session) {
+        return (OutboundSessionQueue) session.getAttributes().get(QUEUE_ATTRIBUTE);
+    }
+
+    private static ChatPrincipal principalOf(WebSocketSession session) {
+        return session.getPrincipal() instanceof ChatPrincipal principal ? principal : null;
     }
 
     @Override
     protected void handleTextMessage(WebSocketSession session, TextMessage textMessage) {
+        ChatPrincipal principal = principalOf(session);
+        if (principal == null) {
+            return;
+        }
+        // Hand off to the inbound executor: one user's frames stay in order, different users run in parallel
+        String payload = textMessage.getPayload();
+        if (!inboundSequencer.submit(principal.userId(), () -> processTextFrame(session, principal, payload))) {
+            closeFlooding(session, principal.userId());
+        }
+    }
+
+    // Only sessions that negotiated chat.binary.v1 send binary frames
+    @Override
+    protected void handleBinaryMessage(WebSocketSession session, BinaryMessage binaryMessage) {
+        ChatPrincipal principal = principalOf(session);
+        if (principal == null) {
+            return;
+        }
+        // Copy: the container may reuse the frame buffer once this method returns
+        ByteBuffer source = binaryMessage.getPayload();
+        byte[] bytes = new byte[source.remaining()];
+        source.get(bytes);
+        ByteBuffer payload = ByteBuffer.wrap(bytes);
+        if (!inboundSequencer.submit(principal.userId(), () -> processBinaryFrame(session, principal, payload))) {
+            closeFlooding(session, principal.userId());
+        }
+    }
+
+    // The user's inbound lane is full: the client sends faster than its frames can be handled
+    private void closeFlooding(WebSocketSession session, String userId) {
+        logger.warn("Closing session {} of {}: more than {} inbound frames waiting", session.getId(), userId,
+                maxInboundQueuedPerUser);
         try {
-            String query = session.getUri().getQuery();
-            String userId = extractQueryParameter(query, "userId");
-            String userName = extractQueryParameter(query, "userName");
-    
-            Message chatMessage = parseAndValidateMessage(textMessage.getPayload());
-            if (chatMessage == null) {
-                sendErrorToUser(userId, "Invalid message format");
+            session.close(CloseStatus.POLICY_VIOLATION.withReason("Too many frames in flight"));
+        } catch (IOException e) {
+            logger.error("Error closing flooding session {}", session.getId(), e);
+        }
+    }
+
+    private void processTextFrame(WebSocketSession session, ChatPrincipal principal, String payload) {
+        try {
+            Message chatMessage;
+            try {
+                chatMessage = messageCodec.decode(payload);
+            } catch (IOException e) {
+                logger.error("Error parsing message", e);
+                sendErrorToSession(session, principal.userId(), "Invalid message format");
                 return;
             }
-    
-            // Only set sender info if not already set (preserve AI sender info)
-            if (chatMessage.getSenderId() == null || !chatMessage.getSenderId().equals("AI_ASSISTANT")) {
-                chatMessage.setSenderId(userId);
-                chatMessage.setUserName(userName);
+            if (chatMessage == null) {
+                // Control frames are rare, bind them as a tree
+                JsonNode frame = parseFrame(payload);
+                if (frame != null) {
+                    handleControlFrame(session, principal.userId(), frame);
+                }
+                return;
             }
-    
-            // Set timestamp if not already set
-            if (chatMessage.getTimestamp() == null) {
-                chatMessage.setTimestamp(LocalDateTime.now());
+            acceptMessage(session, principal, validate(chatMessage));
+        } catch (Exception e) {
+            logger.error("Error handling message", e);
+        }
+    }
+
+    private void processBinaryFrame(WebSocketSession session, ChatPrincipal principal, ByteBuffer payload) {
+        try {
+            BinaryFrameCodec.Decoded decoded;
+            try {
+                decoded = BinaryFrameCodec.decode(payload);
+            } catch (IllegalArgumentException e) {
+                logger.error("Error decoding binary frame", e);
+                sendErrorToSession(session, principal.userId(), "Invalid message format");
+                return;
             }
-    
-            Message savedMessage = messageService.saveMessage(chatMessage);
-    
-            if (savedMessage.isGlobal()) {
-                broadcastGlobalMessage(savedMessage);
-            } else {
-                sendPrivateMessage(savedMessage);
+            if (decoded.type() == BinaryFrameCodec.CONTROL) {
+                JsonNode frame = parseFrame(decoded.json());
+                if (frame == null || !frame.hasNonNull("type")) {
+                    sendErrorToSession(session, principal.userId(), "Invalid message format");
+                    return;
+                }
+                handleControlFrame(session, principal.userId(), frame);
+                return;
             }
-    
+            acceptMessage(session, principal, validate(decoded.message()));
         } catch (Exception e) {
             logger.error("Error handling message", e);
         }
     }
 
+    // Common path for chat messages from either wire format
+    private void acceptMessage(WebSocketSession session, ChatPrincipal principal, Message chatMessage) {
+        String userId = principal.userId();
+        String userName = principal.userName();
+        if (chatMessage == null) {
+            sendErrorToSession(session, userId, "Invalid message format");
+            return;
+        }
+
+        // Room messages may only be posted by members; legacy global messages go to the global room
+        String roomId = chatMessage.getRoomId();
+        if (roomId != null && !Message.GLOBAL_ROOM.equals(roomId)) {
+            OutboundSessionQueue queue = queueOf(session);
+            if (queue == null || !subscriptions.isMember(roomId, queue)) {
+                sendErrorToSession(session, userId, "Join room " + roomId + " before posting to it");
+                return;
+            }
+        }
+
+        // The sender is whoever is connected; a client cannot post as another user or as the assistant
+        chatMessage.setSenderId(userId);
+        chatMessage.setUserName(userName);
+
+        // Id and time are the server's: history order and cursors must not depend on client clocks
+        chatMessage.setId(ObjectId.get().toHexString());
+        chatMessage.setTimestamp(LocalDateTime.now());
+
+        Message saved;
+        try {
+            saved = messageService.saveMessage(chatMessage);
+        } catch (MessageNotSavedException e) {
+            logger.error("Message from {} not saved: {}", userId, e.getMessage());
+            sendErrorToSession(session, userId, "Message could not be saved, please retry");
+            return;
+        }
+        publishMessage(saved);
+        answerAICommand(session, saved);
+    }
+
+    // The question went out as an ordinary message; the answer streams into the same room
+    private void answerAICommand(WebSocketSession session, Message question) {
+        if (question.getRoomId() == null) {
+            return;
+        }
+        Matcher command = AI_COMMAND.matcher(question.getContent().trim());
+        if (!command.matches()) {
+            return;
+        }
+        AIService assistant = aiService.getIfAvailable();
+        if (assistant == null) {
+            return;
+        }
+        try {
+            assistant.streamAIQuestion(command.group(1), question.getSenderId(), question.getRoomId(), false);
+        } catch (AIRequestRejectedException e) {
+            sendErrorToSession(session, question.getSenderId(),
+                    e.getMessage() + " (retry in " + e.getRetryAfterSeconds() + "s)");
+        }
+    }
+
+    /**
+     * Delivers a saved message everywhere it belongs: sequenced to its room on every node, or to
+     * both participants' direct channels. Also the way messages created on the server go out.
+     */
+    public void publishMessage(Message savedMessage) {
+        if (savedMessage.getRoomId() != null) {
+            publishRoomMessage(savedMessage);
+            clusterBus.broadcast(ClusterEvent.roomMessage(clusterBus.getNodeId(), savedMessage));
+        } else {
+            sendPrivateMessage(savedMessage);
+        }
+    }
+
+    /**
+     * Sends the next piece of a room message that is still being generated, as a PARTIAL frame
+     * carrying the message id. Partial frames are neither sequenced nor replayed: the final
+     * message, published with the same id, supersedes whatever a client has assembled.
+     */
+    public void publishPartial(Message message, String delta) {
+        Message partial = partialOf(message, delta);
+        publishPartialLocally(partial);
+        clusterBus.broadcast(ClusterEvent.roomPartial(clusterBus.getNodeId(), partial));
+    }
+
+    // Tells clients to drop what they assembled for the message; no final message will follow
+    public void abortPartial(Message message) {
+        Message partial = partialOf(message, null);
+        publishPartialLocally(partial);
+        clusterBus.broadcast(ClusterEvent.roomPartial(clusterBus.getNodeId(), partial));
+    }
+
+    private static Message partialOf(Message message, String delta) {
+        Message partial = new Message();
+        partial.setId(message.getId());
+        partial.setRoomId(message.getRoomId());
+        partial.setSenderId(message.getSenderId());
+        partial.setUserName(message.getUserName());
+        partial.setContent(delta);
+        return partial;
+    }
+
+    private void publishPartialLocally(Message partial) {
+        if (partial.getRoomId() == null) {
+            return;
+        }
+        ObjectNode frame = objectMapper.createObjectNode();
+        frame.put("type", partial.getContent() != null ? "PARTIAL" : "PARTIAL_ABORTED");
+        frame.put("id", partial.getId());
+        frame.put("roomId", partial.getRoomId());
+        frame.put("senderId", partial.getSenderId());
+        frame.put("userName", partial.getUserName());
+        if (partial.getContent() != null) {
+            frame.put("delta", partial.getContent());
+        }
+        OutboundFrame outbound;
+        try {
+            outbound = controlFrame(objectMapper.writeValueAsString(frame));
+        } catch (IOException e) {
+            logger.error("Could not encode partial frame for message {}", partial.getId(), e);
+            return;
+        }
+        subscriptions.membersOf(partial.getRoomId()).forEach(queue -> queue.enqueue(outbound));
+    }
+
     @Override
     public void afterConnectionClosed(WebSocketSession session, CloseStatus status) {
         try {
-            // Extract userId and username from query parameters
-            String query = session.getUri().getQuery();
-            String userId = extractQueryParameter(query, "userId");
-            String userName = extractQueryParameter(query, "userName");
-           
-            if (userId != null) {
-                sessions.remove(userId);
-
-                // Create and broadcast a disconnection status message
-                Message statusMessage = new Message();
-                statusMessage.setSenderId(userId);
-                statusMessage.setUserName(userName);
-                statusMessage.setGlobal(true);
-                statusMessage.setContent("USER_DISCONNECTED");
-                statusMessage.setTimestamp(LocalDateTime.now());
-
-                broadcastGlobalMessage(statusMessage);
-                logger.info("User {} disconnected. Remaining sessions: {}", userName, sessions.size());
+            ChatPrincipal principal = principalOf(session);
+            if (principal != null) {
+                String userId = principal.userId();
+                String userName = principal.userName();
+                OutboundSessionQueue queue = queueOf(session);
+                if (queue == null) {
+                    return;
+                }
+                subscriptions.removeSession(queue);
+                boolean lastSession = sessions.remove(userId, queue);
+                queue.close();
+                logger.info("User {} disconnected a session. Online users: {}", userName, sessions.userCount());
+                // Presence only changes when the user's last device in the cluster goes away
+                if (lastSession && clusterBus.getDirectory().unregister(userId, clusterBus.getNodeId())) {
+                    presenceService.userOffline(userId);
+                    clusterBus.broadcast(ClusterEvent.userOffline(clusterBus.getNodeId(), userId));
+                }
             }
         } catch (Exception e) {
             logger.error("Error during connection closure", e);
         }
     }
 
-    private void broadcastGlobalMessage(Message message) {
-        String messageJson;
-        try {
-            messageJson = objectMapper.writeValueAsString(message);
-        } catch (IOException e) {
-            logger.error("Error serializing message", e);
+    // Sequenced, replayable delivery of a chat message to the members of its room only
+    private void publishRoomMessage(Message message) {
+        String roomId = message.getRoomId();
+        ChannelLog log = roomLogs.get(roomId);
+        if (log == null) {
+            // Nobody on this node is in the room
             return;
         }
+        log.publish(
+                sequence -> encodeSequenced(message, "room", sequence),
+                frame -> subscriptions.membersOf(roomId).forEach(queue -> queue.enqueue(frame)));
+    }
 
-        TextMessage textMessage = new TextMessage(messageJson);
-        sessions.values().forEach(session -> {
-            if (session.isOpen()) {
-                try {
-                    session.sendMessage(textMessage);
-                } catch (IOException e) {
-                    logger.error("Error broadcasting message to session", e);
-                }
-            }
-        });
+    // SYNC, JOINED, PRESENCE, ...: JSON text, or a CONTROL frame wrapping the same JSON for binary sessions
+    private OutboundFrame controlFrame(String json) {
+        return new OutboundFrame(() -> json.getBytes(StandardCharsets.UTF_8),
+                () -> BinaryFrameCodec.encodeControl(json), compressionThreshold);
+    }
+
+    // Each encoding is built only if some recipient uses it
+    private OutboundFrame encodeSequenced(Message message, String channel, long sequence) {
+        return new OutboundFrame(
+                () -> messageCodec.encode(message, channel, sequence, epoch),
+                () -> BinaryFrameCodec.encodeChat(message, channel, sequence, epoch),
+                compressionThreshold);
     }
 
     private void sendPrivateMessage(Message message) {
-        String messageJson;
-        try {
-            messageJson = objectMapper.writeValueAsString(message);
-        } catch (IOException e) {
-            logger.error("Error serializing private message", e);
-            return;
+        // Each participant gets the message on their own direct channel, with that channel's sequence
+        deliverDirect(message.getReceiverId(), message);
+        if (message.getSenderId() != null && !message.getSenderId().equals(message.getReceiverId())) {
+            // Send to sender (so they see their own message)
+            deliverDirect(message.getSenderId(), message);
         }
+    }
 
-        TextMessage textMessage = new TextMessage(messageJson);
+    // Here, and on every other node the directory lists for the user
+    private void deliverDirect(String userId, Message message) {
+        if (userId == null) {
+            return;
+        }
+        publishDirect(userId, message);
+        for (String nodeId : clusterBus.getDirectory().nodesOf(userId)) {
+            clusterBus.send(nodeId, ClusterEvent.directMessage(clusterBus.getNodeId(), userId, message));
+        }
+    }
 
-        // Send to recipient
-        WebSocketSession recipientSession = sessions.get(message.getReceiverId());
-        if (recipientSession != null && recipientSession.isOpen()) {
-            try {
-                recipientSession.sendMessage(textMessage);
-            } catch (IOException e) {
-                logger.error("Error sending message to recipient: {}", message.getReceiverId(), e);
+    // Delivery to this node's sessions of what a peer accepted
+    private void onClusterEvent(ClusterEvent event) {
+        switch (event.type()) {
+            case ROOM_MESSAGE -> {
+                // The peer saved it; this node's recent-message ring still has to hear about it
+                messageService.rememberPeerMessage(event.message());
+                publishRoomMessage(event.message());
             }
+            case ROOM_PARTIAL -> publishPartialLocally(event.message());
+            case DIRECT_MESSAGE -> publishDirect(event.userId(), event.message());
+            case USER_ONLINE -> presenceService.userOnline(event.userId(), event.userName());
+            case USER_OFFLINE -> presenceService.userOffline(event.userId());
         }
+    }
 
-        // Send to sender (so they see their own message)
-        WebSocketSession senderSession = sessions.get(message.getSenderId());
-        if (senderSession != null && senderSession.isOpen()) {
-            try {
-                senderSession.sendMessage(textMessage);
-            } catch (IOException e) {
-                logger.error("Error sending message to sender: {}", message.getSenderId(), e);
-            }
+    private void publishDirect(String userId, Message message) {
+        ChannelLog log = userId != null ? directLogs.get(userId) : null;
+        if (log == null) {
+            // The user has not been connected here recently
+            return;
         }
+        log.publish(
+                sequence -> encodeSequenced(message, "direct", sequence),
+                frame -> {
+                    // Every device of the user
+                    for (OutboundSessionQueue queue : sessions.sessionsOf(userId)) {
+                        queue.enqueue(frame);
+                    }
+                });
     }
 
-    private void sendErrorToUser(String userId, String errorMessage) {
+    // Errors go back to the session that caused them, not to the user's other devices
+    private void sendErrorToSession(WebSocketSession session, String userId, String errorMessage) {
         Message error = new Message();
-        error.setSenderId("SYSTEM");
+        error.setSenderId(Message.SYSTEM);
         error.setReceiverId(userId);
         error.setContent(errorMessage);
         error.setGlobal(false);
         error.setTimestamp(LocalDateTime.now());
 
-        try {
-            String messageJson = objectMapper.writeValueAsString(error);
-            WebSocketSession session = sessions.get(userId);
-            if (session != null && session.isOpen()) {
-                session.sendMessage(new TextMessage(messageJson));
-            }
-        } catch (IOException e) {
-            logger.error("Error sending error message to user: {}", userId, e);
+        OutboundSessionQueue queue = queueOf(session);
+        if (queue != null) {
+            queue.enqueue(new OutboundFrame(() -> messageCodec.encode(error),
+                    () -> BinaryFrameCodec.encodeChat(error, null, 0, null), compressionThreshold));
         }
     }
 
-    // private String getUserIdFromSession(String query, String paramName) {
-
-    //     if (query == null)
-    //         return null;
-    //     String[] pairs = query.split("&");
-    //     for (String pair : pairs) {
-    //         String[] keyValue = pair.split("=");
-    //         if (keyValue.length == 2 && keyValue[0].equals(paramName)) {
-    //             return keyValue[1];
-    //         }
-    //     }
-    //     return null;
-    // }
-
-    private Message parseAndValidateMessage(String payload) {
+    private JsonNode parseFrame(String payload) {
         try {
-            Message message = objectMapper.readValue(payload, Message.class);
-            // Basic validation
-            if (message.getContent() == null || message.getContent().trim().isEmpty()) {
-                return null;
-            }
-            return message;
+            JsonNode frame = objectMapper.readTree(payload);
+            return frame != null && frame.isObject() ? frame : null;
         } catch (IOException e) {
             logger.error("Error parsing message", e);
             return null;
         }
     }
 
+    // Basic validation
+    private Message validate(Message message) {
+        if (message.getContent() == null || message.getContent().trim().isEmpty()) {
+            return null;
+        }
+        if (message.getRoomId() != null && !ROOM_ID.matcher(message.getRoomId()).matches()) {
+            return null;
+        }
+        if (message.getReceiverId() != null && !Message.isValidUserId(message.getReceiverId())) {
+            return null;
+        }
+        return message;
+    }
+
     private String createErrorMessage(String errorMessage) {
         Message error = new Message();
-        error.setSenderId("SYSTEM");
+        error.setSenderId(Message.SYSTEM);
         error.setContent(errorMessage);
         error.setGlobal(true);
         error.setTimestamp(LocalDateTime.now());
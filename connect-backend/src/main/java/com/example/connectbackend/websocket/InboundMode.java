@@ -0,0 +1,9 @@
+package com.example.connectbackend.websocket;
+
+// Where inbound /chat frames are parsed, persisted and fanned out
+public enum InboundMode {
+    // On virtual threads, in order per user
+    VIRTUAL,
+    // On the container's WebSocket thread that read the frame
+    INLINE
+}
@@ -0,0 +1,85 @@
+package com.example.connectbackend.websocket;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs tasks on the given executor, one key at a time: tasks with the same key run in
+ * submission order, tasks with different keys run in parallel. A key's lane exists only
+ * while it has work, and is created and dropped inside ConcurrentHashMap.compute so a task
+ * submitted while the lane is emptying is never stranded or run out of order. A lane holds at
+ * most maxQueuedPerKey tasks; submit refuses more, so one flooding sender cannot grow the heap.
+ */
+public class InboundSequencer {
+    private static final Logger logger = LoggerFactory.getLogger(InboundSequencer.class);
+
+    private static final class Lane {
+        final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+        final AtomicBoolean scheduled = new AtomicBoolean();
+        // Queued and not yet taken by the drain
+        final AtomicInteger depth = new AtomicInteger();
+    }
+
+    private final Executor executor;
+    private final int maxQueuedPerKey;
+    private final ConcurrentHashMap<String, Lane> lanes = new ConcurrentHashMap<>();
+
+    public InboundSequencer(Executor executor, int maxQueuedPerKey) {
+        this.executor = executor;
+        this.maxQueuedPerKey = Math.max(1, maxQueuedPerKey);
+    }
+
+    // Returns false, without queueing the task, if the key already has maxQueuedPerKey tasks waiting
+    public boolean submit(String key, Runnable task) {
+        boolean[] accepted = new boolean[1];
+        Lane lane = lanes.compute(key, (k, current) -> {
+            Lane target = current != null ? current : new Lane();
+            if (target.depth.get() < maxQueuedPerKey) {
+                target.depth.incrementAndGet();
+                target.tasks.add(task);
+                accepted[0] = true;
+            }
+            return target;
+        });
+        if (!accepted[0]) {
+            return false;
+        }
+        if (lane.scheduled.compareAndSet(false, true)) {
+            executor.execute(() -> drain(key, lane));
+        }
+        return true;
+    }
+
+    private void drain(String key, Lane lane) {
+        while (true) {
+            Runnable task;
+            while ((task = lane.tasks.poll()) != null) {
+                lane.depth.decrementAndGet();
+                try {
+                    task.run();
+                } catch (RuntimeException e) {
+                    logger.error("Inbound task for {} failed", key, e);
+                }
+            }
+            // Drop the lane only if nothing was added since the last poll; otherwise keep draining
+            boolean[] removed = new boolean[1];
+            lanes.computeIfPresent(key, (k, current) -> {
+                if (current == lane && lane.tasks.isEmpty()) {
+                    removed[0] = true;
+                    return null;
+                }
+                return current;
+            });
+            if (removed[0]) {
+                return;
+            }
+        }
+    }
+}
@@ -0,0 +1,141 @@
+package com.example.connectbackend.websocket;
+
+import com.example.connectbackend.model.Message;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.core.util.ByteArrayBuilder;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.concurrent.ArrayBlockingQueue;
+
+/**
+ * Streaming JSON codec for chat messages on the /chat hot path.
+ *
+ * Writes the same fields as the handler's ObjectMapper (nulls omitted) straight into pooled
+ * byte buffers, and reads messages without data binding. Pooled rather than thread-local buffers,
+ * since inbound frames are processed on short-lived virtual threads.
+ */
+public final class MessageJsonCodec {
+    public enum TimestampFormat {
+        // "2024-05-01T12:30:00.123", what the ObjectMapper writes and clients parse
+        ISO,
+        // epoch milliseconds in the server's zone
+        EPOCH_MILLIS
+    }
+
+    private static final ZoneId ZONE = ZoneId.systemDefault();
+    private static final int POOL_SIZE = 64;
+    // Buffers that grew past this are left to the GC instead of going back to the pool
+    private static final int MAX_POOLED_BUFFER = 64 * 1024;
+
+    private final JsonFactory factory = new JsonFactory();
+    private final TimestampFormat timestampFormat;
+    private final ArrayBlockingQueue<ByteArrayBuilder> buffers = new ArrayBlockingQueue<>(POOL_SIZE);
+
+    public MessageJsonCodec(TimestampFormat timestampFormat) {
+        this.timestampFormat = timestampFormat;
+    }
+
+    public byte[] encode(Message message) {
+        return encode(message, null, 0, null);
+    }
+
+    // UTF-8 JSON of the message plus channel/seq/epoch when channel is not null
+    public byte[] encode(Message message, String channel, long seq, String epoch) {
+        ByteArrayBuilder buffer = buffers.poll();
+        if (buffer == null) {
+            buffer = new ByteArrayBuilder(512);
+        }
+        try {
+            try (JsonGenerator generator = factory.createGenerator(buffer)) {
+                generator.writeStartObject();
+                writeString(generator, "id", message.getId());
+                writeString(generator, "senderId", message.getSenderId());
+                writeString(generator, "userName", message.getUserName());
+                writeString(generator, "receiverId", message.getReceiverId());
+                writeString(generator, "roomId", message.getRoomId());
+                writeString(generator, "conversationId", message.getConversationId());
+                writeString(generator, "content", message.getContent());
+                LocalDateTime timestamp = message.getTimestamp();
+                if (timestamp != null) {
+                    if (timestampFormat == TimestampFormat.EPOCH_MILLIS) {
+                        generator.writeNumberField("timestamp", timestamp.atZone(ZONE).toInstant().toEpochMilli());
+                    } else {
+                        generator.writeStringField("timestamp", DateTimeFormatter.ISO_LOCAL_DATE_TIME.format(timestamp));
+                    }
+                }
+                generator.writeBooleanField("global", message.isGlobal());
+                if (channel != null) {
+                    generator.writeStringField("channel", channel);
+                    generator.writeNumberField("seq", seq);
+                    generator.writeStringField("epoch", epoch);
+                }
+                generator.writeEndObject();
+            }
+            return buffer.toByteArray();
+        } catch (IOException e) {
+            throw new UncheckedIOException("Error serializing message", e);
+        } finally {
+            buffer.reset();
+            if (buffer.getCurrentSegment().length <= MAX_POOLED_BUFFER) {
+                buffers.offer(buffer);
+            }
+        }
+    }
+
+    /**
+     * Reads a chat message. Returns null if the payload is a control frame (it has a non-null
+     * "type" field); unknown fields are skipped, and so are id and timestamp, which only the
+     * server assigns. Throws IOException on malformed JSON or field types.
+     */
+    public Message decode(String payload) throws IOException {
+        try (JsonParser parser = factory.createParser(payload)) {
+            if (parser.nextToken() != JsonToken.START_OBJECT) {
+                throw new JsonParseException(parser, "Expected a JSON object");
+            }
+            Message message = new Message();
+            String field;
+            while ((field = parser.nextFieldName()) != null) {
+                JsonToken token = parser.nextToken();
+                switch (field) {
+                    case "type" -> {
+                        if (token != JsonToken.VALUE_NULL) {
+                            return null;
+                        }
+                    }
+                    case "senderId" -> message.setSenderId(readString(parser, token));
+                    case "userName" -> message.setUserName(readString(parser, token));
+                    case "receiverId" -> message.setReceiverId(readString(parser, token));
+                    case "roomId" -> message.setRoomId(readString(parser, token));
+                    case "content" -> message.setContent(readString(parser, token));
+                    case "global" -> message.setGlobal(token == JsonToken.VALUE_TRUE);
+                    default -> parser.skipChildren();
+                }
+            }
+            return message;
+        }
+    }
+
+    private static void writeString(JsonGenerator generator, String name, String value) throws IOException {
+        if (value != null) {
+            generator.writeStringField(name, value);
+        }
+    }
+
+    private static String readString(JsonParser parser, JsonToken token) throws IOException {
+        if (token == JsonToken.VALUE_NULL) {
+            return null;
+        }
+        if (!token.isScalarValue()) {
+            throw new JsonParseException(parser, "Expected a string value");
+        }
+        return parser.getValueAsString();
+    }
+}
@@ -0,0 +1,103 @@
+package com.example.connectbackend.websocket;
+
+import org.springframework.web.socket.BinaryMessage;
+import org.springframework.web.socket.TextMessage;
+import org.springframework.web.socket.WebSocketMessage;
+
+import java.io.ByteArrayOutputStream;
+import java.util.function.Supplier;
+import java.util.zip.Deflater;
+
+/**
+ * A frame fanned out to many sessions. Each encoding (JSON text, deflated JSON, binary)
+ * is produced at most once, on first demand, and the same bytes go to every session
+ * that uses it. JSON payloads below the compression threshold are never deflated.
+ */
+public final class OutboundFrame {
+    private final Supplier<byte[]> jsonEncoder;
+    private final Supplier<byte[]> binaryEncoder;
+    private final int compressionThreshold;
+
+    private volatile TextMessage text;
+    private volatile byte[] deflated;
+    private volatile byte[] binary;
+
+    // jsonEncoder supplies UTF-8 JSON; the bytes back the TextMessage and the deflated copy without a String round trip
+    public OutboundFrame(Supplier<byte[]> jsonEncoder, Supplier<byte[]> binaryEncoder, int compressionThreshold) {
+        this.jsonEncoder = jsonEncoder;
+        this.binaryEncoder = binaryEncoder;
+        this.compressionThreshold = compressionThreshold;
+    }
+
+    public WebSocketMessage<?> select(WireFormat format, boolean acceptsDeflate) {
+        // A fresh BinaryMessage per session: sending consumes the buffer position, the bytes are shared
+        if (format == WireFormat.BINARY) {
+            return new BinaryMessage(binary());
+        }
+        TextMessage json = text();
+        if (!acceptsDeflate || compressionThreshold <= 0 || json.getPayloadLength() < compressionThreshold) {
+            return json;
+        }
+        return new BinaryMessage(deflated(json));
+    }
+
+    private TextMessage text() {
+        TextMessage value = text;
+        if (value == null) {
+            synchronized (this) {
+                value = text;
+                if (value == null) {
+                    value = new TextMessage(jsonEncoder.get());
+                    text = value;
+                }
+            }
+        }
+        return value;
+    }
+
+    private byte[] binary() {
+        byte[] value = binary;
+        if (value == null) {
+            synchronized (this) {
+                value = binary;
+                if (value == null) {
+                    value = binaryEncoder.get();
+                    binary = value;
+                }
+            }
+        }
+        return value;
+    }
+
+    private byte[] deflated(TextMessage json) {
+        byte[] value = deflated;
+        if (value == null) {
+            synchronized (this) {
+                value = deflated;
+                if (value == null) {
+                    value = deflate(json.asBytes());
+                    deflated = value;
+                }
+            }
+        }
+        return value;
+    }
+
+    // Raw deflate (no zlib header), the same format permessage-deflate uses on the wire
+    private static byte[] deflate(byte[] input) {
+        Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+        try {
+            deflater.setInput(input);
+            deflater.finish();
+            ByteArrayOutputStream output = new ByteArrayOutputStream(Math.max(64, input.length / 2));
+            byte[] buffer = new byte[4096];
+            while (!deflater.finished()) {
+                int count = deflater.deflate(buffer);
+                output.write(buffer, 0, count);
+            }
+            return output.toByteArray();
+        } finally {
+            deflater.end();
+        }
+    }
+}
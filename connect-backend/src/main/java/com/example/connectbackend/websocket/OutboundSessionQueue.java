@@ -0,0 +1,192 @@
+package com.example.connectbackend.websocket;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.web.socket.CloseStatus;
+import org.springframework.web.socket.WebSocketMessage;
+import org.springframework.web.socket.WebSocketSession;
+
+import java.io.IOException;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Bounded outbound buffer for a single WebSocket session.
+ * Callers only enqueue; the actual socket writes happen on the drain executor,
+ * one drain task per session at a time so frames keep their order.
+ */
+public class OutboundSessionQueue {
+    private static final Logger logger = LoggerFactory.getLogger(OutboundSessionQueue.class);
+
+    private final WebSocketSession session;
+    private final Executor drainExecutor;
+    private final int bufferSizeLimit;
+    private final long sendTimeLimitMillis;
+    private final SlowConsumerPolicy policy;
+    private final WireFormat wireFormat;
+    private final boolean acceptsDeflate;
+
+    private final Queue<WebSocketMessage<?>> buffer = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger bufferSize = new AtomicInteger();
+    private final AtomicBoolean draining = new AtomicBoolean();
+    private final AtomicBoolean closed = new AtomicBoolean();
+
+    // Start time of the send currently in progress, 0 when idle
+    private volatile long sendStartTime;
+
+    public OutboundSessionQueue(WebSocketSession session, Executor drainExecutor,
+                                int bufferSizeLimit, long sendTimeLimitMillis, SlowConsumerPolicy policy,
+                                WireFormat wireFormat, boolean acceptsDeflate) {
+        this.session = session;
+        this.drainExecutor = drainExecutor;
+        this.bufferSizeLimit = bufferSizeLimit;
+        this.sendTimeLimitMillis = sendTimeLimitMillis;
+        this.policy = policy;
+        this.wireFormat = wireFormat;
+        this.acceptsDeflate = acceptsDeflate;
+    }
+
+    public WebSocketSession getSession() {
+        return session;
+    }
+
+    public boolean isOpen() {
+        return !closed.get() && session.isOpen();
+    }
+
+    public WireFormat getWireFormat() {
+        return wireFormat;
+    }
+
+    public int getBufferSize() {
+        return bufferSize.get();
+    }
+
+    // Bytes the frame takes in this session's buffer
+    public int frameSize(OutboundFrame frame) {
+        return frame.select(wireFormat, acceptsDeflate).getPayloadLength();
+    }
+
+    // Queues a shared frame in the encoding this session negotiated
+    public boolean enqueue(OutboundFrame frame) {
+        return enqueue(frame.select(wireFormat, acceptsDeflate));
+    }
+
+    /**
+     * Queues a frame for this session without blocking.
+     * Returns false if the frame was not accepted because the session is closed or was evicted.
+     */
+    public boolean enqueue(WebSocketMessage<?> message) {
+        if (!isOpen()) {
+            return false;
+        }
+
+        if (!enforceSendTimeLimit()) {
+            return false;
+        }
+
+        int size = message.getPayloadLength();
+        if (bufferSize.get() + size > bufferSizeLimit) {
+            if (policy == SlowConsumerPolicy.CLOSE) {
+                evict("buffer size limit of " + bufferSizeLimit + " bytes exceeded");
+                return false;
+            }
+            // DROP: make room by discarding the oldest frames
+            while (bufferSize.get() + size > bufferSizeLimit) {
+                WebSocketMessage<?> dropped = buffer.poll();
+                if (dropped == null) {
+                    break;
+                }
+                bufferSize.addAndGet(-dropped.getPayloadLength());
+                logger.debug("Dropped frame for slow session {}", session.getId());
+            }
+        }
+
+        buffer.add(message);
+        bufferSize.addAndGet(size);
+        scheduleDrain();
+        return true;
+    }
+
+    /**
+     * Evicts the session if the send in progress has been blocked longer than the send time limit.
+     * Called on every enqueue and periodically, so a drain stuck on a peer that stopped reading is
+     * cut off even when nothing new is queued for it. Returns false if the session is (now) closed.
+     */
+    public boolean enforceSendTimeLimit() {
+        long startedAt = sendStartTime;
+        if (startedAt != 0 && System.currentTimeMillis() - startedAt > sendTimeLimitMillis) {
+            evict("send time limit of " + sendTimeLimitMillis + " ms exceeded");
+        }
+        return !closed.get();
+    }
+
+    public void close() {
+        if (closed.compareAndSet(false, true)) {
+            buffer.clear();
+            bufferSize.set(0);
+        }
+    }
+
+    private void scheduleDrain() {
+        if (draining.compareAndSet(false, true)) {
+            try {
+                drainExecutor.execute(this::drain);
+            } catch (RejectedExecutionException e) {
+                draining.set(false);
+                logger.warn("Send executor rejected drain for session {}", session.getId());
+            }
+        }
+    }
+
+    private void drain() {
+        try {
+            WebSocketMessage<?> message;
+            while (!closed.get() && (message = buffer.poll()) != null) {
+                bufferSize.addAndGet(-message.getPayloadLength());
+                if (!session.isOpen()) {
+                    close();
+                    return;
+                }
+                sendStartTime = System.currentTimeMillis();
+                try {
+                    session.sendMessage(message);
+                } catch (IOException | IllegalStateException e) {
+                    logger.error("Error sending message to session {}", session.getId(), e);
+                    evict("send failed");
+                    return;
+                } finally {
+                    sendStartTime = 0;
+                }
+            }
+        } finally {
+            draining.set(false);
+        }
+        // A frame may have been queued after the last poll but before the flag was cleared
+        if (!closed.get() && !buffer.isEmpty()) {
+            scheduleDrain();
+        }
+    }
+
+    private void evict(String reason) {
+        if (!closed.compareAndSet(false, true)) {
+            return;
+        }
+        buffer.clear();
+        bufferSize.set(0);
+        logger.warn("Closing slow session {}: {}", session.getId(), reason);
+        // Close on a thread of its own: the close frame may block behind a stuck send, and neither
+        // the caller nor the drain executor should wait for that
+        Thread.ofVirtual().name("chat-evict-" + session.getId()).start(() -> {
+            try {
+                session.close(CloseStatus.SESSION_NOT_RELIABLE);
+            } catch (IOException e) {
+                logger.error("Error closing slow session {}", session.getId(), e);
+            }
+        });
+    }
+}
@@ -0,0 +1,96 @@
+package com.example.connectbackend.websocket;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.web.socket.TextMessage;
+
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Coalesces presence changes into one PRESENCE diff frame per window instead of a broadcast per connection.
+ * A user who joins and leaves (or leaves and rejoins) inside the same window produces nothing.
+ * New sessions get a PRESENCE_SNAPSHOT of everyone online; later diffs are idempotent on top of it.
+ */
+public class PresenceService {
+    private static final Logger logger = LoggerFactory.getLogger(PresenceService.class);
+
+    private enum Change { JOINED, LEFT }
+
+    private final ObjectMapper objectMapper;
+    private final Consumer<TextMessage> broadcaster;
+
+    // userId -> userName of everyone currently online
+    private final ConcurrentHashMap<String, String> online = new ConcurrentHashMap<>();
+    // Net changes since the last flush, guarded by this
+    private Map<String, Change> pending = new LinkedHashMap<>();
+
+    public PresenceService(ObjectMapper objectMapper, Consumer<TextMessage> broadcaster,
+                           ScheduledExecutorService scheduler, long windowMillis) {
+        this.objectMapper = objectMapper;
+        this.broadcaster = broadcaster;
+        scheduler.scheduleAtFixedRate(this::flush, windowMillis, windowMillis, TimeUnit.MILLISECONDS);
+    }
+
+    public synchronized void userOnline(String userId, String userName) {
+        online.put(userId, userName);
+        // Left and came back within the window: nobody needs to hear about it
+        if (pending.remove(userId, Change.LEFT)) {
+            return;
+        }
+        pending.put(userId, Change.JOINED);
+    }
+
+    public synchronized void userOffline(String userId) {
+        online.remove(userId);
+        if (pending.remove(userId, Change.JOINED)) {
+            return;
+        }
+        pending.put(userId, Change.LEFT);
+    }
+
+    public TextMessage snapshot() throws IOException {
+        ObjectNode frame = objectMapper.createObjectNode();
+        frame.put("type", "PRESENCE_SNAPSHOT");
+        ArrayNode users = frame.putArray("online");
+        online.forEach((userId, userName) -> users.addObject().put("userId", userId).put("userName", userName));
+        return new TextMessage(objectMapper.writeValueAsString(frame));
+    }
+
+    void flush() {
+        Map<String, Change> changes;
+        synchronized (this) {
+            if (pending.isEmpty()) {
+                return;
+            }
+            changes = pending;
+            pending = new LinkedHashMap<>();
+        }
+
+        try {
+            ObjectNode frame = objectMapper.createObjectNode();
+            frame.put("type", "PRESENCE");
+            ArrayNode joined = frame.putArray("joined");
+            ArrayNode left = frame.putArray("left");
+            changes.forEach((userId, change) -> {
+                if (change == Change.JOINED) {
+                    // The name is looked up now; a user gone again by flush time is reported by the next window
+                    joined.addObject().put("userId", userId).put("userName", online.get(userId));
+                } else {
+                    left.add(userId);
+                }
+            });
+            broadcaster.accept(new TextMessage(objectMapper.writeValueAsString(frame)));
+        } catch (Exception e) {
+            logger.error("Error broadcasting presence changes", e);
+        }
+    }
+}
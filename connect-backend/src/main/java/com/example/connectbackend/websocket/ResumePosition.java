@@ -0,0 +1,5 @@
+package com.example.connectbackend.websocket;
+
+// Where a reconnecting client left off; any field may be null on a fresh connection
+public record ResumePosition(String epoch, Long globalSeq, Long directSeq) {
+}
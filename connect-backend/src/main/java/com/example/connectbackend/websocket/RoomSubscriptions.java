@@ -0,0 +1,93 @@
+package com.example.connectbackend.websocket;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Two-way room membership index: room -> subscribed sessions and session -> joined rooms.
+ * Reads are lock-free. Writes for one session are serialized on one of a fixed set of stripes,
+ * so both directions stay consistent without a global lock; per-room sets are only
+ * created and dropped inside ConcurrentHashMap.compute so an emptying room never loses a join.
+ */
+public class RoomSubscriptions {
+    private static final int STRIPES = 64;
+
+    private final Object[] stripes = new Object[STRIPES];
+    private final ConcurrentHashMap<String, Set<OutboundSessionQueue>> membersByRoom = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, Set<String>> roomsBySession = new ConcurrentHashMap<>();
+
+    public RoomSubscriptions() {
+        for (int i = 0; i < STRIPES; i++) {
+            stripes[i] = new Object();
+        }
+    }
+
+    public boolean join(String roomId, OutboundSessionQueue queue) {
+        String sessionId = queue.getSession().getId();
+        synchronized (stripeFor(sessionId)) {
+            boolean added = roomsBySession.computeIfAbsent(sessionId, id -> ConcurrentHashMap.newKeySet()).add(roomId);
+            if (added) {
+                membersByRoom.compute(roomId, (id, members) -> {
+                    Set<OutboundSessionQueue> set = members != null ? members : ConcurrentHashMap.newKeySet();
+                    set.add(queue);
+                    return set;
+                });
+            }
+            return added;
+        }
+    }
+
+    public boolean leave(String roomId, OutboundSessionQueue queue) {
+        String sessionId = queue.getSession().getId();
+        synchronized (stripeFor(sessionId)) {
+            Set<String> rooms = roomsBySession.get(sessionId);
+            if (rooms == null || !rooms.remove(roomId)) {
+                return false;
+            }
+            removeMember(roomId, queue);
+            return true;
+        }
+    }
+
+    // Drops every membership of a closed session and returns the rooms it was in
+    public Set<String> removeSession(OutboundSessionQueue queue) {
+        String sessionId = queue.getSession().getId();
+        synchronized (stripeFor(sessionId)) {
+            Set<String> rooms = roomsBySession.remove(sessionId);
+            if (rooms == null) {
+                return Collections.emptySet();
+            }
+            rooms.forEach(roomId -> removeMember(roomId, queue));
+            return rooms;
+        }
+    }
+
+    public boolean isMember(String roomId, OutboundSessionQueue queue) {
+        Set<String> rooms = roomsBySession.get(queue.getSession().getId());
+        return rooms != null && rooms.contains(roomId);
+    }
+
+    public int roomCount(OutboundSessionQueue queue) {
+        Set<String> rooms = roomsBySession.get(queue.getSession().getId());
+        return rooms != null ? rooms.size() : 0;
+    }
+
+    // Live view of a room's subscribers, for fan-out
+    public Collection<OutboundSessionQueue> membersOf(String roomId) {
+        Set<OutboundSessionQueue> members = membersByRoom.get(roomId);
+        return members != null ? members : Collections.emptySet();
+    }
+
+    private void removeMember(String roomId, OutboundSessionQueue queue) {
+        membersByRoom.computeIfPresent(roomId, (id, members) -> {
+            members.remove(queue);
+            return members.isEmpty() ? null : members;
+        });
+    }
+
+    private Object stripeFor(String sessionId) {
+        return stripes[Math.floorMod(sessionId.hashCode(), STRIPES)];
+    }
+}
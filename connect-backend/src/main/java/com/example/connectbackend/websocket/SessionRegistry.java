@@ -0,0 +1,82 @@
+package com.example.connectbackend.websocket;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+
+/**
+ * Connected sessions by user. Each user maps to a small copy-on-write array of sessions,
+ * one per device: readers take the current array without locking, and add/remove swap in a
+ * new array atomically for that user only. Users have a handful of devices, so the copy is constant-sized.
+ */
+public class SessionRegistry {
+    private static final OutboundSessionQueue[] NONE = new OutboundSessionQueue[0];
+
+    private final ConcurrentHashMap<String, OutboundSessionQueue[]> sessionsByUser = new ConcurrentHashMap<>();
+
+    // Returns true if this is the user's first open session
+    public boolean add(String userId, OutboundSessionQueue queue) {
+        boolean[] first = new boolean[1];
+        sessionsByUser.compute(userId, (id, current) -> {
+            if (current == null) {
+                first[0] = true;
+                return new OutboundSessionQueue[]{queue};
+            }
+            OutboundSessionQueue[] next = Arrays.copyOf(current, current.length + 1);
+            next[current.length] = queue;
+            return next;
+        });
+        return first[0];
+    }
+
+    // Returns true if this removed the user's last open session
+    public boolean remove(String userId, OutboundSessionQueue queue) {
+        boolean[] last = new boolean[1];
+        sessionsByUser.computeIfPresent(userId, (id, current) -> {
+            int index = indexOf(current, queue);
+            if (index < 0) {
+                return current;
+            }
+            if (current.length == 1) {
+                last[0] = true;
+                return null;
+            }
+            OutboundSessionQueue[] next = new OutboundSessionQueue[current.length - 1];
+            System.arraycopy(current, 0, next, 0, index);
+            System.arraycopy(current, index + 1, next, index, current.length - index - 1);
+            return next;
+        });
+        return last[0];
+    }
+
+    // Every open device of a user; the returned array must not be modified
+    public OutboundSessionQueue[] sessionsOf(String userId) {
+        OutboundSessionQueue[] sessions = userId == null ? null : sessionsByUser.get(userId);
+        return sessions != null ? sessions : NONE;
+    }
+
+    public boolean isOnline(String userId) {
+        return sessionsByUser.containsKey(userId);
+    }
+
+    public void forEach(Consumer<OutboundSessionQueue> action) {
+        for (OutboundSessionQueue[] sessions : sessionsByUser.values()) {
+            for (OutboundSessionQueue queue : sessions) {
+                action.accept(queue);
+            }
+        }
+    }
+
+    public int userCount() {
+        return sessionsByUser.size();
+    }
+
+    private static int indexOf(OutboundSessionQueue[] sessions, OutboundSessionQueue queue) {
+        for (int i = 0; i < sessions.length; i++) {
+            if (sessions[i] == queue) {
+                return i;
+            }
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,9 @@
+package com.example.connectbackend.websocket;
+
+// What to do with a session whose outbound buffer is full
+public enum SlowConsumerPolicy {
+    // Discard the oldest buffered frames to make room for new ones
+    DROP,
+    // Close the session so the client reconnects and resyncs
+    CLOSE
+}
@@ -0,0 +1,9 @@
+package com.example.connectbackend.websocket;
+
+// Frame encoding of a /chat session, chosen through Sec-WebSocket-Protocol
+public enum WireFormat {
+    // JSON text frames; the default when no subprotocol is requested
+    JSON,
+    // BinaryFrameCodec frames (chat.binary.v1)
+    BINARY
+}
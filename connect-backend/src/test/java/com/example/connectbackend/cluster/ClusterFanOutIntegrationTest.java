@@ -0,0 +1,191 @@
+package com.example.connectbackend.cluster;
+
+import com.example.connectbackend.config.ClusterConfig;
+import com.example.connectbackend.config.WebSocketConfig;
+import com.example.connectbackend.model.Message;
+import com.example.connectbackend.model.MessagePage;
+import com.example.connectbackend.service.InboxService;
+import com.example.connectbackend.service.MessageService;
+import com.example.connectbackend.service.MessageStore;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.SpringBootConfiguration;
+import org.springframework.boot.autoconfigure.EnableAutoConfiguration;
+import org.springframework.boot.autoconfigure.data.mongo.MongoDataAutoConfiguration;
+import org.springframework.boot.autoconfigure.data.mongo.MongoRepositoriesAutoConfiguration;
+import org.springframework.boot.autoconfigure.mongo.MongoAutoConfiguration;
+import org.springframework.boot.autoconfigure.security.servlet.SecurityAutoConfiguration;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.boot.web.servlet.context.ServletWebServerApplicationContext;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.context.annotation.Import;
+import org.springframework.web.socket.TextMessage;
+import org.springframework.web.socket.WebSocketSession;
+import org.springframework.web.socket.client.standard.StandardWebSocketClient;
+import org.springframework.web.socket.handler.TextWebSocketHandler;
+
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Predicate;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Two chat nodes in one JVM, joined by the loopback bus: messages and presence accepted on one
+ * node reach sessions on the other, and private messages are routed through the user directory.
+ * Each node runs a real MessageService over a store that holds nothing, so the recent-message
+ * ring answers history and sync reads on its own.
+ */
+class ClusterFanOutIntegrationTest {
+
+    @SpringBootConfiguration
+    @EnableAutoConfiguration(exclude = {MongoAutoConfiguration.class, MongoDataAutoConfiguration.class,
+            MongoRepositoriesAutoConfiguration.class, SecurityAutoConfiguration.class})
+    @Import({WebSocketConfig.class, ClusterConfig.class, MessageService.class})
+    static class Node {
+    }
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final String clusterName = "test-" + System.nanoTime();
+    private ConfigurableApplicationContext nodeA;
+    private ConfigurableApplicationContext nodeB;
+
+    @BeforeEach
+    void startNodes() {
+        nodeA = startNode("node-a");
+        nodeB = startNode("node-b");
+    }
+
+    @AfterEach
+    void stopNodes() {
+        if (nodeA != null) {
+            nodeA.close();
+        }
+        if (nodeB != null) {
+            nodeB.close();
+        }
+    }
+
+    @Test
+    void roomMessageReachesSessionsOnOtherNode() throws Exception {
+        Client alice = connect(nodeA, "alice");
+        Client bob = connect(nodeB, "bob");
+
+        alice.send("{\"content\":\"hello\",\"roomId\":\"global\"}");
+
+        JsonNode received = bob.await(frame -> "hello".equals(frame.path("content").asText()));
+        assertEquals("alice", received.path("senderId").asText());
+        assertEquals("room", received.path("channel").asText());
+    }
+
+    @Test
+    void globalMessageFromOtherNodeIsInThisNodesHistory() throws Exception {
+        Client alice = connect(nodeA, "alice");
+        Client bob = connect(nodeB, "bob");
+
+        alice.send("{\"content\":\"hello\",\"roomId\":\"global\"}");
+        String id = bob.await(frame -> "hello".equals(frame.path("content").asText())).path("id").asText();
+
+        MessageService history = nodeB.getBean(MessageService.class);
+        MessagePage page = history.getGlobalMessages(null, null, 10);
+        assertEquals(List.of(id), page.messages().stream().map(Message::getId).toList());
+        assertEquals(id, history.getLatestCursor(Message.GLOBAL_ROOM).id());
+    }
+
+    @Test
+    void privateMessageIsRoutedToOwningNode() throws Exception {
+        Client alice = connect(nodeA, "alice");
+        Client bob = connect(nodeB, "bob");
+
+        alice.send("{\"content\":\"psst\",\"receiverId\":\"bob\"}");
+
+        JsonNode received = bob.await(frame -> "psst".equals(frame.path("content").asText()));
+        assertEquals("direct", received.path("channel").asText());
+        // The sender's own copy is delivered on its node
+        alice.await(frame -> "psst".equals(frame.path("content").asText()));
+    }
+
+    @Test
+    void presenceIsClusterWide() throws Exception {
+        connect(nodeA, "alice");
+        Client bob = connect(nodeB, "bob");
+
+        // Alice is in Bob's snapshot, or arrives in a diff shortly after if node B had not heard yet
+        if (!bob.snapshot.path("online").findValuesAsText("userId").contains("alice")) {
+            bob.await(frame -> frame.path("joined").findValuesAsText("userId").contains("alice"));
+        }
+    }
+
+    private ConfigurableApplicationContext startNode(String nodeId) {
+        // Empty history: range scans find nothing and writes succeed
+        MessageStore messageStore = mock(MessageStore.class);
+        when(messageStore.room(any())).thenReturn(mock(MessageStore.KeysetQueries.class));
+        when(messageStore.insert(any())).thenAnswer(invocation -> invocation.getArgument(0));
+        InboxService inboxService = mock(InboxService.class);
+        return new SpringApplicationBuilder(Node.class)
+                // Registered as ready singletons so no Mongo dependencies are needed
+                .initializers(context -> {
+                    context.getBeanFactory().registerSingleton("messageStore", messageStore);
+                    context.getBeanFactory().registerSingleton("inboxService", inboxService);
+                })
+                .properties("server.port=0",
+                        "spring.main.banner-mode=off",
+                        "spring.devtools.restart.enabled=false",
+                        "chat.cluster.name=" + clusterName,
+                        "chat.cluster.node-id=" + nodeId,
+                        "chat.presence.window-ms=20")
+                .run();
+    }
+
+    private Client connect(ConfigurableApplicationContext node, String userId) throws Exception {
+        int port = ((ServletWebServerApplicationContext) node).getWebServer().getPort();
+        Client client = new Client();
+        new StandardWebSocketClient()
+                .execute(client, "ws://localhost:" + port + "/chat?userId=" + userId + "&userName=" + userId)
+                .get(5, TimeUnit.SECONDS);
+        // Registered in the directory once the snapshot arrives
+        client.snapshot = client.await(frame -> "PRESENCE_SNAPSHOT".equals(frame.path("type").asText()));
+        return client;
+    }
+
+    private class Client extends TextWebSocketHandler {
+        private final BlockingQueue<JsonNode> frames = new LinkedBlockingQueue<>();
+        private volatile WebSocketSession session;
+        private JsonNode snapshot;
+
+        @Override
+        public void afterConnectionEstablished(WebSocketSession session) {
+            this.session = session;
+        }
+
+        @Override
+        protected void handleTextMessage(WebSocketSession session, TextMessage message) throws Exception {
+            frames.add(objectMapper.readTree(message.getPayload()));
+        }
+
+        void send(String json) throws Exception {
+            session.sendMessage(new TextMessage(json));
+        }
+
+        JsonNode await(Predicate<JsonNode> match) throws InterruptedException {
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+            while (System.nanoTime() < deadline) {
+                JsonNode frame = frames.poll(100, TimeUnit.MILLISECONDS);
+                if (frame != null && match.test(frame)) {
+                    return frame;
+                }
+            }
+            assertNotNull(null, "No matching frame within 5 s");
+            return null;
+        }
+    }
+}
@@ -0,0 +1,144 @@
+package com.example.connectbackend.controller;
+
+import com.example.connectbackend.model.Message;
+import com.example.connectbackend.model.MessageCursor;
+import com.example.connectbackend.model.MessagePage;
+import com.example.connectbackend.service.MessageService;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.http.MediaType;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.setup.MockMvcBuilders;
+
+import java.time.LocalDateTime;
+import java.util.List;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.header;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+/**
+ * Conditional delta sync: the ETag is the room's newest cursor, and only a caught-up client gets a 304.
+ * Sending refuses reserved sender ids and reports a message the store did not write.
+ */
+@ExtendWith(MockitoExtension.class)
+class MessageControllerTest {
+    private static final LocalDateTime START = LocalDateTime.of(2024, 1, 1, 12, 0);
+
+    @Mock
+    private MessageService messageService;
+
+    @InjectMocks
+    private MessageController controller;
+
+    private MockMvc mvc;
+
+    @BeforeEach
+    void setUp() {
+        mvc = MockMvcBuilders.standaloneSetup(controller).build();
+    }
+
+    @Test
+    void followingATruncatedDeltaIsNotAnsweredWithNotModified() throws Exception {
+        Message first = message("m1", START);
+        Message second = message("m2", START.plusSeconds(1));
+        Message third = message("m3", START.plusSeconds(2));
+        String since = MessageCursor.of(message("m0", START.minusSeconds(1))).encode();
+        String afterSecond = MessageCursor.of(second).encode();
+        when(messageService.getLatestCursor(Message.GLOBAL_ROOM)).thenReturn(MessageCursor.of(third));
+        when(messageService.getRoomMessages(Message.GLOBAL_ROOM, null, since, 2))
+                .thenReturn(new MessagePage(List.of(first, second), since, afterSecond));
+        when(messageService.getRoomMessages(Message.GLOBAL_ROOM, null, afterSecond, 2))
+                .thenReturn(new MessagePage(List.of(third), afterSecond, MessageCursor.of(third).encode()));
+
+        String etag = "\"" + MessageCursor.of(third).encode() + "\"";
+        mvc.perform(get("/api/messages/sync").param("since", since).param("limit", "2"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.messages.length()").value(2))
+                .andExpect(header().doesNotExist("ETag"));
+
+        // Even with the room's current ETag, the rest of the delta and a repeat of the first page have a body
+        mvc.perform(get("/api/messages/sync").param("since", afterSecond).param("limit", "2")
+                        .header("If-None-Match", etag))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.messages[0].id").value("m3"))
+                .andExpect(header().doesNotExist("ETag"));
+        mvc.perform(get("/api/messages/sync").param("since", since).param("limit", "2")
+                        .header("If-None-Match", etag))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.messages.length()").value(2));
+    }
+
+    @Test
+    void aCaughtUpClientGetsNotModifiedUntilSomethingIsPosted() throws Exception {
+        Message third = message("m3", START.plusSeconds(2));
+        String latest = MessageCursor.of(third).encode();
+        when(messageService.getLatestCursor(Message.GLOBAL_ROOM)).thenReturn(MessageCursor.of(third));
+        when(messageService.getRoomMessages(Message.GLOBAL_ROOM, null, latest, null))
+                .thenReturn(new MessagePage(List.of(), latest, latest));
+
+        String etag = mvc.perform(get("/api/messages/sync").param("since", latest))
+                .andExpect(status().isOk())
+                .andExpect(header().string("ETag", "\"" + latest + "\""))
+                .andReturn().getResponse().getHeader("ETag");
+        mvc.perform(get("/api/messages/sync").param("since", latest).header("If-None-Match", etag))
+                .andExpect(status().isNotModified());
+
+        // A new message changes the room's version
+        Message fourth = message("m4", START.plusSeconds(3));
+        when(messageService.getLatestCursor(Message.GLOBAL_ROOM)).thenReturn(MessageCursor.of(fourth));
+        when(messageService.getRoomMessages(Message.GLOBAL_ROOM, null, latest, null))
+                .thenReturn(new MessagePage(List.of(fourth), latest, MessageCursor.of(fourth).encode()));
+        mvc.perform(get("/api/messages/sync").param("since", latest).header("If-None-Match", etag))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.messages[0].id").value("m4"));
+    }
+
+    @Test
+    void sendAnswersServiceUnavailableWhenTheMessageWasNotSaved() throws Exception {
+        when(messageService.saveMessage(any(Message.class)))
+                .thenThrow(new MessageService.MessageNotSavedException("Message m1 could not be saved"));
+
+        mvc.perform(post("/api/messages/send").contentType(MediaType.APPLICATION_JSON)
+                        .content("{\"senderId\":\"alice\",\"roomId\":\"global\",\"content\":\"hi\"}"))
+                .andExpect(status().isServiceUnavailable())
+                .andExpect(jsonPath("$.error").value("Message m1 could not be saved"));
+    }
+
+    @Test
+    void sendRefusesReservedAndMissingSenders() throws Exception {
+        // Clients show these ids as assistant answers and server errors, whatever the case or padding
+        for (String reserved : List.of("AI_ASSISTANT", " system ", "ai_assistant")) {
+            mvc.perform(post("/api/messages/send").contentType(MediaType.APPLICATION_JSON)
+                            .content("{\"senderId\":\"" + reserved + "\",\"userName\":\"AI Assistant\","
+                                    + "\"roomId\":\"global\",\"content\":\"trust me\"}"))
+                    .andExpect(status().isForbidden());
+        }
+        mvc.perform(post("/api/messages/send").contentType(MediaType.APPLICATION_JSON)
+                        .content("{\"roomId\":\"global\",\"content\":\"who am I\"}"))
+                .andExpect(status().isBadRequest());
+
+        verify(messageService, never()).saveMessage(any(Message.class));
+    }
+
+    private static Message message(String id, LocalDateTime timestamp) {
+        Message message = new Message();
+        message.setId(id);
+        message.setSenderId("alice");
+        message.setRoomId(Message.GLOBAL_ROOM);
+        message.setGlobal(true);
+        message.setContent("message " + id);
+        message.setTimestamp(timestamp);
+        return message;
+    }
+}
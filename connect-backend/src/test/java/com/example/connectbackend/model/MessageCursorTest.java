@@ -0,0 +1,48 @@
+package com.example.connectbackend.model;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.util.Base64;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class MessageCursorTest {
+
+    @Test
+    void roundTripsTimestampAndId() {
+        MessageCursor cursor = new MessageCursor(LocalDateTime.of(2024, 3, 9, 17, 4, 5, 123_000_000),
+                "65f1a2b3c4d5e6f708192a3b");
+
+        String encoded = cursor.encode();
+        assertTrue(encoded.matches("[A-Za-z0-9_-]+"), encoded);
+        assertEquals(cursor, MessageCursor.decode(encoded));
+    }
+
+    @Test
+    void roundTripsAWholeSecondAndAnIdContainingTheSeparator() {
+        // LocalDateTime prints no seconds at :00, and only the first '|' separates the fields
+        MessageCursor cursor = new MessageCursor(LocalDateTime.of(2024, 1, 1, 0, 0), "a|b");
+        assertEquals(cursor, MessageCursor.decode(cursor.encode()));
+    }
+
+    @Test
+    void rejectsInvalidCursors() {
+        assertInvalid("not base64!");
+        assertInvalid(encode("2024-01-01T00:00:00"));
+        assertInvalid(encode("yesterday|65f1a2b3c4d5e6f708192a3b"));
+        assertInvalid("");
+    }
+
+    private static void assertInvalid(String cursor) {
+        IllegalArgumentException e = assertThrows(IllegalArgumentException.class, () -> MessageCursor.decode(cursor));
+        assertTrue(e.getMessage().startsWith("Invalid cursor"), e.getMessage());
+    }
+
+    private static String encode(String raw) {
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(raw.getBytes(StandardCharsets.UTF_8));
+    }
+}
@@ -0,0 +1,23 @@
+package com.example.connectbackend.model;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class MessageTest {
+
+    @Test
+    void conversationIdIsTheSameFromBothSides() {
+        assertEquals("alice:bob", Message.conversationIdOf("alice", "bob"));
+        assertEquals("alice:bob", Message.conversationIdOf("bob", "alice"));
+        assertEquals("alice:alice", Message.conversationIdOf("alice", "alice"));
+    }
+
+    // Both pairs would otherwise map to "a:b:c"
+    @Test
+    void refusesUserIdsThatMakeConversationIdsCollide() {
+        assertThrows(IllegalArgumentException.class, () -> Message.conversationIdOf("a:b", "c"));
+        assertThrows(IllegalArgumentException.class, () -> Message.conversationIdOf("a", "b:c"));
+    }
+}
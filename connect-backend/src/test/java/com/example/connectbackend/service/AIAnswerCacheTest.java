@@ -0,0 +1,102 @@
+package com.example.connectbackend.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.Clock;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class AIAnswerCacheTest {
+    private final AtomicLong now = new AtomicLong(1_000_000);
+    private final AtomicInteger upstreamCalls = new AtomicInteger();
+
+    private final Clock clock = new Clock() {
+        @Override
+        public ZoneId getZone() {
+            return ZoneId.of("UTC");
+        }
+
+        @Override
+        public Clock withZone(ZoneId zone) {
+            return this;
+        }
+
+        @Override
+        public Instant instant() {
+            return Instant.ofEpochMilli(now.get());
+        }
+    };
+
+    @Test
+    void answersRepeatedQuestionsFromTheCacheUntilTheyExpire() {
+        AIAnswerCache cache = new AIAnswerCache(10, 60_000, clock);
+
+        assertEquals("answer 1", cache.get("What is Java?", false, this::upstream).join());
+        assertEquals("answer 1", cache.get("  @AI what   is JAVA ", false, this::upstream).join());
+        assertEquals(1, upstreamCalls.get());
+
+        now.addAndGet(60_000);
+        assertEquals("answer 2", cache.get("what is java", false, this::upstream).join());
+
+        AIAnswerCache.Stats stats = cache.stats();
+        assertEquals(1, stats.hits());
+        assertEquals(2, stats.misses());
+        assertEquals(1 / 3.0, stats.hitRatio(), 1e-9);
+    }
+
+    @Test
+    void concurrentIdenticalQuestionsShareOneUpstreamCall() {
+        AIAnswerCache cache = new AIAnswerCache(10, 60_000, clock);
+        CompletableFuture<String> pending = new CompletableFuture<>();
+
+        CompletableFuture<String> first = cache.get("why?", false, () -> {
+            upstreamCalls.incrementAndGet();
+            return pending;
+        });
+        CompletableFuture<String> second = cache.get("Why", false, this::upstream);
+        assertFalse(second.isDone());
+
+        pending.complete("because");
+        assertEquals("because", first.join());
+        assertEquals("because", second.join());
+        assertEquals(1, upstreamCalls.get());
+        assertEquals(1, cache.stats().coalesced());
+    }
+
+    @Test
+    void failuresAreNotCached() {
+        AIAnswerCache cache = new AIAnswerCache(10, 60_000, clock);
+
+        CompletableFuture<String> failed = cache.get("q", false,
+                () -> CompletableFuture.failedFuture(new IllegalStateException("upstream down")));
+        assertTrue(failed.isCompletedExceptionally());
+
+        assertEquals("answer 1", cache.get("q", false, this::upstream).join());
+    }
+
+    @Test
+    void evictsTheLeastRecentlyUsedAndBypassRefreshes() {
+        AIAnswerCache cache = new AIAnswerCache(2, 60_000, clock);
+        cache.get("a", false, this::upstream).join();
+        cache.get("b", false, this::upstream).join();
+        cache.get("a", false, this::upstream).join();
+        cache.get("c", false, this::upstream).join();
+
+        // b was least recently used
+        assertEquals("answer 4", cache.get("b", false, this::upstream).join());
+        assertEquals("answer 5", cache.get("b", true, this::upstream).join());
+        assertEquals("answer 5", cache.get("b", false, this::upstream).join());
+        assertEquals(1, cache.stats().bypassed());
+    }
+
+    private CompletableFuture<String> upstream() {
+        return CompletableFuture.completedFuture("answer " + upstreamCalls.incrementAndGet());
+    }
+}
@@ -0,0 +1,138 @@
+package com.example.connectbackend.service;
+
+import com.example.connectbackend.service.AIRequestScheduler.AIRequestRejectedException;
+import com.example.connectbackend.service.AIRequestScheduler.BreakerState;
+import com.example.connectbackend.service.AIRequestScheduler.Rejection;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Fair ordering, the circuit breaker, and a load test against the local Gemini stub showing that
+ * under overload the excess is shed and the latency of answered questions stays bounded.
+ */
+class AIRequestSchedulerTest {
+
+    @Test
+    void takesQueuedCallsOneUserAtATime() {
+        AIRequestScheduler scheduler = new AIRequestScheduler(1, 100, 3, 60_000, 5, 30_000);
+        List<String> started = new CopyOnWriteArrayList<>();
+        CompletableFuture<String> blocker = new CompletableFuture<>();
+        scheduler.submit("someone", () -> blocker);
+
+        for (String call : List.of("heavy-1", "heavy-2", "heavy-3", "light-1")) {
+            String user = call.substring(0, call.indexOf('-'));
+            scheduler.submit(user, () -> {
+                started.add(call);
+                return CompletableFuture.completedFuture(call);
+            });
+        }
+        assertTrue(started.isEmpty());
+        assertEquals(4, scheduler.stats().queued());
+
+        blocker.complete("done");
+        assertEquals(List.of("heavy-1", "light-1", "heavy-2", "heavy-3"), started);
+    }
+
+    @Test
+    void limitsQueuedCallsPerUser() {
+        AIRequestScheduler scheduler = new AIRequestScheduler(1, 100, 2, 60_000, 5, 30_000);
+        scheduler.submit("someone", CompletableFuture::new);
+        scheduler.submit("heavy", CompletableFuture::new);
+        scheduler.submit("heavy", CompletableFuture::new);
+
+        CompletableFuture<Object> third = scheduler.submit("heavy", CompletableFuture::new);
+        assertEquals(Rejection.BUSY, rejection(third).getReason());
+        assertFalse(scheduler.submit("light", CompletableFuture::new).isDone());
+    }
+
+    @Test
+    void opensAfterConsecutiveFailuresAndClosesAfterASuccessfulTrial() throws Exception {
+        AIRequestScheduler scheduler = new AIRequestScheduler(4, 100, 3, 60_000, 2, 200);
+        AtomicInteger calls = new AtomicInteger();
+        for (int i = 0; i < 2; i++) {
+            scheduler.submit("user", () -> {
+                calls.incrementAndGet();
+                return CompletableFuture.failedFuture(new GeminiClient.GeminiException("Gemini API error: 500"));
+            });
+        }
+        assertEquals(BreakerState.OPEN, scheduler.stats().breaker());
+
+        CompletableFuture<String> whileOpen = scheduler.submit("user", () -> {
+            calls.incrementAndGet();
+            return CompletableFuture.completedFuture("answer");
+        });
+        assertEquals(Rejection.UNAVAILABLE, rejection(whileOpen).getReason());
+        assertEquals(2, calls.get());
+
+        Thread.sleep(250);
+        CompletableFuture<String> pending = new CompletableFuture<>();
+        CompletableFuture<String> trial = scheduler.submit("user", () -> pending);
+        assertEquals(BreakerState.HALF_OPEN, scheduler.stats().breaker());
+        assertEquals(Rejection.UNAVAILABLE,
+                rejection(scheduler.submit("other", () -> CompletableFuture.completedFuture("x"))).getReason());
+
+        pending.complete("answer");
+        assertEquals("answer", trial.get(1, TimeUnit.SECONDS));
+        assertEquals(BreakerState.CLOSED, scheduler.stats().breaker());
+    }
+
+    @Test
+    void keepsTheLatencyOfAnsweredQuestionsBoundedUnderOverload() throws Exception {
+        // 4 slots at ~100 ms per answer serve ~40 questions a second; 200 arrive at ~100 a second
+        long maxQueueWaitMillis = 500;
+        AIRequestScheduler scheduler = new AIRequestScheduler(4, 1000, 5, maxQueueWaitMillis, 5, 30_000);
+        try (FakeGeminiServer gemini = new FakeGeminiServer()) {
+            gemini.chunkDelayMillis = 100;
+            GeminiClient client = gemini.client();
+
+            List<CompletableFuture<Long>> results = new ArrayList<>();
+            for (int i = 0; i < 200; i++) {
+                long submittedAt = System.nanoTime();
+                results.add(scheduler.submit("user-" + (i % 20), () -> client.generateContent("question"))
+                        .thenApply(answer -> TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - submittedAt)));
+                Thread.sleep(10);
+            }
+
+            List<Long> latencies = new ArrayList<>();
+            int shed = 0;
+            for (CompletableFuture<Long> result : results) {
+                try {
+                    latencies.add(result.get(10, TimeUnit.SECONDS));
+                } catch (ExecutionException e) {
+                    AIRequestRejectedException rejected = assertInstanceOf(AIRequestRejectedException.class,
+                            e.getCause());
+                    assertEquals(Rejection.BUSY, rejected.getReason());
+                    shed++;
+                }
+            }
+            Collections.sort(latencies);
+            long p99 = latencies.get((int) Math.ceil(latencies.size() * 0.99) - 1);
+
+            assertTrue(shed > 0, "overload should shed some questions");
+            assertTrue(latencies.size() >= 40, "answered " + latencies.size());
+            // Queue wait is capped by the deadline, plus one answer and scheduling slack
+            assertTrue(p99 < maxQueueWaitMillis + 100 + 400, "p99 " + p99 + " ms");
+            assertEquals(latencies.size(), gemini.requests.get());
+        }
+    }
+
+    private static AIRequestRejectedException rejection(CompletableFuture<?> future) {
+        assertTrue(future.isCompletedExceptionally());
+        ExecutionException failure = assertThrows(ExecutionException.class, future::get);
+        return assertInstanceOf(AIRequestRejectedException.class, failure.getCause());
+    }
+}
@@ -0,0 +1,82 @@
+package com.example.connectbackend.service;
+
+import com.example.connectbackend.model.Message;
+import com.example.connectbackend.websocket.ChatWebSocketHandler;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.Spy;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.argThat;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * The REST and the streamed path both save the answer and publish it to the room.
+ */
+@ExtendWith(MockitoExtension.class)
+class AIServiceTest {
+    @Mock
+    private GeminiClient geminiClient;
+
+    @Mock
+    private MessageService messageService;
+
+    @Mock
+    private ChatWebSocketHandler chatWebSocketHandler;
+
+    @Spy
+    private AIAnswerCache answerCache = new AIAnswerCache(10, 600);
+
+    @Spy
+    private AIRequestScheduler scheduler = new AIRequestScheduler(4, 10, 3, 10_000, 5, 30_000);
+
+    @InjectMocks
+    private AIService aiService;
+
+    @Test
+    void publishesTheAnswerToARestQuestion() throws Exception {
+        when(geminiClient.generateContent("What is Java?")).thenReturn(CompletableFuture.completedFuture("A language."));
+        when(messageService.saveMessage(any(Message.class))).thenAnswer(invocation -> invocation.getArgument(0));
+
+        Message answer = aiService.processAIQuestion("What is Java?", "alice", "Alice", false).get(1, TimeUnit.SECONDS);
+
+        assertEquals("A language.", answer.getContent());
+        assertEquals(Message.AI_ASSISTANT, answer.getSenderId());
+        assertEquals(Message.GLOBAL_ROOM, answer.getRoomId());
+        verify(chatWebSocketHandler).publishMessage(answer);
+    }
+
+    @Test
+    void publishesTheAnswerToAStreamedQuestion() {
+        when(geminiClient.streamContent(eq("What is Java?"), any()))
+                .thenReturn(CompletableFuture.completedFuture("A language."));
+        when(messageService.saveMessage(any(Message.class))).thenAnswer(invocation -> invocation.getArgument(0));
+
+        String id = aiService.streamAIQuestion("What is Java?", "alice", "lounge", false);
+
+        verify(chatWebSocketHandler).publishMessage(argThat(message ->
+                id.equals(message.getId()) && "lounge".equals(message.getRoomId())
+                        && "A language.".equals(message.getContent())));
+    }
+
+    @Test
+    void publishesWhatWasSaved() throws Exception {
+        Message saved = new Message();
+        when(geminiClient.generateContent(anyString())).thenReturn(CompletableFuture.completedFuture("A language."));
+        when(messageService.saveMessage(any(Message.class))).thenReturn(saved);
+
+        assertSame(saved, aiService.processAIQuestion("What is Java?", "alice", "Alice", true).get(1, TimeUnit.SECONDS));
+        verify(chatWebSocketHandler).publishMessage(saved);
+    }
+}
@@ -0,0 +1,177 @@
+package com.example.connectbackend.service;
+
+import com.example.connectbackend.model.Message;
+import com.example.connectbackend.model.MessageBucket;
+import com.example.connectbackend.model.MessageCursor;
+import org.bson.Document;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.WebApplicationType;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * The bucketed layout against a mocked MongoTemplate: how a batch is split into bucket upserts,
+ * including rolling over to a new bucket when the open one is full, and history pages that span
+ * several buckets and windows.
+ */
+class BucketedMessageStoreTest {
+    private static final LocalDateTime TEN = LocalDateTime.of(2024, 1, 1, 10, 0);
+    private static final long HOUR_WINDOW = TEN.toInstant(ZoneOffset.UTC).toEpochMilli() / 3_600_000;
+
+    private final MongoTemplate mongoTemplate = mock(MongoTemplate.class);
+    private final BulkOperations bulk = mock(BulkOperations.class);
+    private final List<Query> bucketFilters = new ArrayList<>();
+    private final List<Update> appends = new ArrayList<>();
+    private ConfigurableApplicationContext context;
+    private BucketedMessageStore store;
+
+    @BeforeEach
+    void start() {
+        when(mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, MessageBucket.class)).thenReturn(bulk);
+        when(bulk.upsert(any(Query.class), any(Update.class))).thenAnswer(invocation -> {
+            bucketFilters.add(invocation.getArgument(0));
+            appends.add(invocation.getArgument(1));
+            return bulk;
+        });
+        context = new SpringApplicationBuilder(BucketedMessageStore.class)
+                .web(WebApplicationType.NONE)
+                .initializers(context -> context.getBeanFactory().registerSingleton("mongoTemplate", mongoTemplate))
+                .properties("spring.main.banner-mode=off",
+                        "chat.messages.storage-layout=BUCKETED",
+                        "chat.messages.buckets.window-minutes=60",
+                        "chat.messages.buckets.max-messages=3")
+                .run();
+        store = context.getBean(BucketedMessageStore.class);
+    }
+
+    @AfterEach
+    void close() {
+        context.close();
+    }
+
+    @Test
+    void splitsABatchIntoOneUpsertPerChannelWindowAndFullBucket() {
+        List<Message> batch = new ArrayList<>();
+        for (int i = 1; i <= 5; i++) {
+            batch.add(roomMessage("l" + i, TEN.plusMinutes(i)));
+        }
+        batch.add(roomMessage("l6", TEN.plusHours(1)));
+        Message direct = roomMessage("d1", TEN);
+        direct.setRoomId(null);
+        direct.setConversationId("alice:bob");
+        batch.add(direct);
+
+        assertEquals(batch, store.insert(batch));
+
+        // Five messages of one window: a full bucket of three, then two more in a bucket with room for two
+        assertEquals(4, bucketFilters.size());
+        assertBucket(0, "room:lounge", HOUR_WINDOW, 0, List.of("l1", "l2", "l3"));
+        assertBucket(1, "room:lounge", HOUR_WINDOW, 1, List.of("l4", "l5"));
+        assertBucket(2, "room:lounge", HOUR_WINDOW + 1, 2, List.of("l6"));
+        assertBucket(3, "conversation:alice:bob", HOUR_WINDOW, 2, List.of("d1"));
+        assertEquals("lounge", appends.get(0).getUpdateObject().get("$setOnInsert", Document.class).get("roomId"));
+        assertEquals("alice:bob",
+                appends.get(3).getUpdateObject().get("$setOnInsert", Document.class).get("conversationId"));
+    }
+
+    @Test
+    void pagesAcrossBucketsAndWindows() {
+        // Window 10:00 holds two buckets whose messages interleave, as concurrent appends leave them
+        List<MessageBucket> ascending = List.of(
+                bucket(HOUR_WINDOW - 2, entry("a1", TEN.minusMinutes(110)), entry("a2", TEN.minusMinutes(100))),
+                bucket(HOUR_WINDOW - 1, entry("b1", TEN.minusMinutes(50)), entry("b2", TEN.minusMinutes(40))),
+                bucket(HOUR_WINDOW, entry("c1", TEN.plusMinutes(1)), entry("c2", TEN.plusMinutes(2)),
+                        entry("c4", TEN.plusMinutes(4))),
+                bucket(HOUR_WINDOW, entry("c3", TEN.plusMinutes(3)), entry("c5", TEN.plusMinutes(5))));
+        List<Query> scans = new ArrayList<>();
+        when(mongoTemplate.stream(any(Query.class), eq(MessageBucket.class))).thenAnswer(invocation -> {
+            Query query = invocation.getArgument(0);
+            scans.add(query);
+            List<MessageBucket> buckets = new ArrayList<>(ascending);
+            if (query.getSortObject().getInteger("window") < 0) {
+                buckets = buckets.reversed();
+            }
+            return buckets.stream();
+        });
+
+        MessageStore.KeysetQueries lounge = store.room("lounge");
+        List<Message> latest = lounge.latest(4);
+        assertEquals(List.of("c5", "c4", "c3", "c2"), ids(latest));
+
+        List<Message> older = lounge.before(MessageCursor.of(latest.get(3)), 4);
+        assertEquals(List.of("c1", "b2", "b1", "a2"), ids(older));
+
+        List<Message> newer = lounge.after(MessageCursor.of(older.get(3)), 3);
+        assertEquals(List.of("b1", "b2", "c1"), ids(newer));
+
+        assertEquals("room:lounge", scans.get(0).getQueryObject().getString("channel"));
+        assertEquals("lounge", latest.get(0).getRoomId());
+    }
+
+    private void assertBucket(int upsert, String channel, long window, int maxCountBefore, List<String> ids) {
+        Document filter = bucketFilters.get(upsert).getQueryObject();
+        assertEquals(channel, filter.getString("channel"));
+        assertEquals(window, filter.getLong("window"));
+        // Only a bucket with room for the whole chunk matches; otherwise the upsert opens a new one
+        assertEquals(new Document("$lte", maxCountBefore), filter.get("count"));
+
+        Document update = appends.get(upsert).getUpdateObject();
+        assertEquals(ids.size(), update.get("$inc", Document.class).get("count"));
+        Update.Modifiers push = (Update.Modifiers) update.get("$push", Document.class).get("messages");
+        Object[] pushed = (Object[]) push.getModifiers().stream()
+                .filter(modifier -> modifier.getKey().equals("$each"))
+                .findFirst().orElseThrow().getValue();
+        assertEquals(ids, Arrays.stream(pushed).map(entry -> ((MessageBucket.Entry) entry).getMessageId()).toList());
+    }
+
+    private static Message roomMessage(String id, LocalDateTime timestamp) {
+        Message message = new Message();
+        message.setId(id);
+        message.setSenderId("alice");
+        message.setRoomId("lounge");
+        message.setContent("message " + id);
+        message.setTimestamp(timestamp);
+        return message;
+    }
+
+    private static MessageBucket bucket(long window, MessageBucket.Entry... entries) {
+        MessageBucket bucket = new MessageBucket();
+        bucket.setChannel("room:lounge");
+        bucket.setRoomId("lounge");
+        bucket.setWindow(window);
+        bucket.setCount(entries.length);
+        bucket.setMessages(List.of(entries));
+        return bucket;
+    }
+
+    private static MessageBucket.Entry entry(String id, LocalDateTime timestamp) {
+        MessageBucket.Entry entry = new MessageBucket.Entry();
+        entry.setMessageId(id);
+        entry.setSenderId("alice");
+        entry.setContent("message " + id);
+        entry.setTimestamp(timestamp);
+        return entry;
+    }
+
+    private static List<String> ids(List<Message> messages) {
+        return messages.stream().map(Message::getId).toList();
+    }
+}
@@ -0,0 +1,102 @@
+package com.example.connectbackend.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Local stand-in for the Gemini API: generateContent answers with the chunks joined, and
+ * streamGenerateContent sends one server-sent event per chunk, chunkDelayMillis apart.
+ */
+class FakeGeminiServer implements AutoCloseable {
+    private static final ObjectMapper objectMapper = new ObjectMapper();
+
+    final AtomicReference<String> lastUri = new AtomicReference<>();
+    final AtomicReference<String> lastApiKey = new AtomicReference<>();
+    final AtomicInteger requests = new AtomicInteger();
+    volatile int status = 200;
+    volatile List<String> chunks = List.of("Hello", " from", " the stub");
+    volatile long chunkDelayMillis;
+
+    private final HttpServer server;
+    private final ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+
+    FakeGeminiServer() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.setExecutor(executor);
+        server.createContext("/", this::handle);
+        server.start();
+    }
+
+    String baseUrl() {
+        return "http://127.0.0.1:" + server.getAddress().getPort();
+    }
+
+    GeminiClient client() {
+        return new GeminiClient("test-key", baseUrl(), "gemini-pro", 1000, 5000, 10000);
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        requests.incrementAndGet();
+        lastUri.set(exchange.getRequestURI().toString());
+        lastApiKey.set(exchange.getRequestHeaders().getFirst("x-goog-api-key"));
+        exchange.getRequestBody().readAllBytes();
+        try (OutputStream out = exchange.getResponseBody()) {
+            if (status != 200) {
+                byte[] error = "{\"error\":{\"message\":\"stub error\"}}".getBytes(StandardCharsets.UTF_8);
+                exchange.sendResponseHeaders(status, error.length);
+                out.write(error);
+                return;
+            }
+            boolean streaming = exchange.getRequestURI().getPath().endsWith(":streamGenerateContent");
+            if (!streaming) {
+                pause();
+                byte[] body = response(String.join("", chunks)).getBytes(StandardCharsets.UTF_8);
+                exchange.sendResponseHeaders(200, body.length);
+                out.write(body);
+                return;
+            }
+            exchange.getResponseHeaders().set("Content-Type", "text/event-stream");
+            exchange.sendResponseHeaders(200, 0);
+            for (String chunk : chunks) {
+                pause();
+                out.write(("data: " + response(chunk) + "\r\n\r\n").getBytes(StandardCharsets.UTF_8));
+                out.flush();
+            }
+        }
+    }
+
+    private void pause() {
+        if (chunkDelayMillis > 0) {
+            try {
+                Thread.sleep(chunkDelayMillis);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private static String response(String text) throws IOException {
+        ObjectNode response = objectMapper.createObjectNode();
+        response.putArray("candidates").addObject().putObject("content")
+                .putArray("parts").addObject().put("text", text);
+        return objectMapper.writeValueAsString(response);
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+}
@@ -0,0 +1,83 @@
+package com.example.connectbackend.service;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * GeminiClient against a local fake of the generateContent and streamGenerateContent endpoints.
+ */
+class GeminiClientTest {
+    private FakeGeminiServer gemini;
+
+    @BeforeEach
+    void startStub() throws IOException {
+        gemini = new FakeGeminiServer();
+    }
+
+    @AfterEach
+    void stopStub() {
+        gemini.close();
+    }
+
+    @Test
+    void returnsTheFirstCandidateAndKeepsTheKeyOutOfTheUrl() throws Exception {
+        String answer = gemini.client().generateContent("Hi?").get(5, TimeUnit.SECONDS);
+
+        assertEquals("Hello from the stub", answer);
+        assertEquals("/v1/models/gemini-pro:generateContent", gemini.lastUri.get());
+        assertEquals("test-key", gemini.lastApiKey.get());
+        assertFalse(gemini.lastUri.get().contains("test-key"));
+    }
+
+    @Test
+    void failsOnErrorStatus() {
+        gemini.status = 429;
+
+        ExecutionException failure = assertThrows(ExecutionException.class,
+                () -> gemini.client().generateContent("Hi?").get(5, TimeUnit.SECONDS));
+        assertInstanceOf(GeminiClient.GeminiException.class, failure.getCause());
+    }
+
+    @Test
+    void streamsEachPieceBeforeTheAnswerIsComplete() throws Exception {
+        gemini.chunkDelayMillis = 300;
+        List<String> deltas = new CopyOnWriteArrayList<>();
+        CompletableFuture<String> firstDelta = new CompletableFuture<>();
+
+        CompletableFuture<String> answer = gemini.client().streamContent("Hi?", delta -> {
+            deltas.add(delta);
+            firstDelta.complete(delta);
+        });
+
+        assertEquals("Hello", firstDelta.get(5, TimeUnit.SECONDS));
+        assertFalse(answer.isDone());
+        assertEquals("Hello from the stub", answer.get(5, TimeUnit.SECONDS));
+        assertEquals(List.of("Hello", " from", " the stub"), deltas);
+        assertTrue(gemini.lastUri.get().endsWith(":streamGenerateContent?alt=sse"));
+    }
+
+    @Test
+    void streamFailsOnErrorStatus() {
+        gemini.status = 500;
+        List<String> deltas = new CopyOnWriteArrayList<>();
+
+        ExecutionException failure = assertThrows(ExecutionException.class,
+                () -> gemini.client().streamContent("Hi?", deltas::add).get(5, TimeUnit.SECONDS));
+        assertInstanceOf(GeminiClient.GeminiException.class, failure.getCause());
+        assertTrue(deltas.isEmpty());
+    }
+}
@@ -0,0 +1,111 @@
+package com.example.connectbackend.service;
+
+import com.example.connectbackend.model.InboxEntry;
+import com.example.connectbackend.model.Message;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.WebApplicationType;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * The in-memory inbox of the message-log profile: rows rebuilt from the log's private messages
+ * on start, then kept current by new messages and markRead.
+ */
+class LogInboxServiceTest {
+    private static final LocalDateTime START = LocalDateTime.of(2024, 1, 1, 12, 0);
+
+    private final MessageStore messageStore = mock(MessageStore.class);
+    private ConfigurableApplicationContext context;
+
+    @AfterEach
+    void close() {
+        if (context != null) {
+            context.close();
+        }
+    }
+
+    @Test
+    void rebuildsTheRowsFromTheLog() {
+        when(messageStore.stream(null, null, null, null)).thenReturn(Stream.of(
+                message("a1", "alice", "bob", START),
+                message("a2", "alice", "bob", START.plusSeconds(1)),
+                message("b1", "bob", "alice", START.plusSeconds(2)),
+                message("r1", "carol", null, START.plusSeconds(3)),
+                message("c1", "carol", "bob", START.plusSeconds(4))));
+
+        InboxService inbox = start();
+
+        List<InboxEntry> bob = inbox.getInbox("bob", null);
+        assertEquals(List.of("bob:carol", "alice:bob"), bob.stream().map(InboxEntry::getConversationId).toList());
+        assertEquals(1, bob.get(0).getUnreadCount());
+        assertEquals("Carol", bob.get(0).getOtherUserName());
+        // Bob wrote after alice's messages, so they count as read
+        assertEquals(0, bob.get(1).getUnreadCount());
+        assertEquals("b1", bob.get(1).getLastMessageId());
+
+        InboxEntry alice = inbox.getInbox("alice", null).get(0);
+        assertEquals("bob", alice.getOtherUserId());
+        assertEquals(1, alice.getUnreadCount());
+        assertTrue(inbox.getInbox("dave", null).isEmpty());
+    }
+
+    @Test
+    void countsNewMessagesUntilMarkedRead() {
+        when(messageStore.stream(null, null, null, null)).thenReturn(Stream.empty());
+        InboxService inbox = start();
+
+        inbox.recordMessages(List.of(
+                message("a1", "alice", "bob", START),
+                message("a2", "alice", "bob", START.plusSeconds(1))));
+        assertEquals(2, inbox.getInbox("bob", null).get(0).getUnreadCount());
+
+        assertTrue(inbox.markRead("bob", "alice"));
+        InboxEntry row = inbox.getInbox("bob", null).get(0);
+        assertEquals(0, row.getUnreadCount());
+        assertEquals("a2", row.getLastReadMessageId());
+        assertFalse(inbox.markRead("bob", "carol"));
+
+        // An older message arriving late is counted but does not replace the last one
+        inbox.recordMessages(List.of(message("a0", "alice", "bob", START.minusSeconds(1))));
+        row = inbox.getInbox("bob", null).get(0);
+        assertEquals(1, row.getUnreadCount());
+        assertEquals("a2", row.getLastMessageId());
+    }
+
+    private InboxService start() {
+        context = new SpringApplicationBuilder(LogInboxService.class)
+                .web(WebApplicationType.NONE)
+                .profiles(LogMessageStore.PROFILE)
+                .initializers(context -> context.getBeanFactory().registerSingleton("messageStore", messageStore))
+                .properties("spring.main.banner-mode=off")
+                .run();
+        return context.getBean(InboxService.class);
+    }
+
+    private static Message message(String id, String senderId, String receiverId, LocalDateTime timestamp) {
+        Message message = new Message();
+        message.setId(id);
+        message.setSenderId(senderId);
+        message.setUserName(Character.toUpperCase(senderId.charAt(0)) + senderId.substring(1));
+        message.setReceiverId(receiverId);
+        message.setContent("message " + id);
+        message.setTimestamp(timestamp);
+        if (receiverId != null) {
+            message.setConversationId(Message.conversationIdOf(senderId, receiverId));
+        } else {
+            message.setRoomId("lounge");
+        }
+        return message;
+    }
+}
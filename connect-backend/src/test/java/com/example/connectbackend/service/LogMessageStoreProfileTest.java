@@ -0,0 +1,81 @@
+package com.example.connectbackend.service;
+
+import com.example.connectbackend.model.InboxEntry;
+import com.example.connectbackend.model.Message;
+import com.example.connectbackend.model.MessagePage;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+
+/**
+ * The whole application under the message-log profile with no MongoDB server to talk to: it
+ * starts, room and private history are written to and read from the embedded log, and the inbox
+ * is kept without MongoDB. Users and auth still live in MongoDB and are not exercised here.
+ */
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT, properties = {
+        // Nothing listens on port 1; fail fast instead of waiting 30 s per attempt
+        "spring.data.mongodb.uri=mongodb://127.0.0.1:1/chatapp?serverSelectionTimeoutMS=200",
+        "gemini.api.key=unused",
+        "chat.messages.durability=SYNC",
+        "chat.messages.log.force-on-write=false"
+})
+@ActiveProfiles(LogMessageStore.PROFILE)
+class LogMessageStoreProfileTest {
+    @TempDir
+    static Path logDirectory;
+
+    @DynamicPropertySource
+    static void logDirectory(DynamicPropertyRegistry registry) {
+        registry.add("chat.messages.log.dir", () -> logDirectory.toString());
+    }
+
+    @Autowired
+    private MessageStore messageStore;
+
+    @Autowired
+    private MessageService messageService;
+
+    @Autowired
+    private InboxService inboxService;
+
+    @Test
+    void keepsHistoryInTheLogWithoutMongo() {
+        assertInstanceOf(LogMessageStore.class, messageStore);
+
+        messageService.saveMessage(message("alice", null, Message.GLOBAL_ROOM, "hello room"));
+        messageService.saveMessage(message("alice", "bob", null, "hello bob"));
+
+        MessagePage conversation = messageService.getPrivateMessages("bob", "alice", null, null, 10);
+        assertEquals(List.of("hello bob"), conversation.messages().stream().map(Message::getContent).toList());
+        assertEquals(List.of("hello room"),
+                messageStore.room(Message.GLOBAL_ROOM).latest(10).stream().map(Message::getContent).toList());
+
+        assertInstanceOf(LogInboxService.class, inboxService);
+        List<InboxEntry> inbox = inboxService.getInbox("bob", null);
+        assertEquals(List.of("hello bob"), inbox.stream().map(InboxEntry::getLastContent).toList());
+        assertEquals(1, inbox.get(0).getUnreadCount());
+    }
+
+    private static Message message(String senderId, String receiverId, String roomId, String content) {
+        Message message = new Message();
+        message.setSenderId(senderId);
+        message.setUserName(senderId);
+        message.setReceiverId(receiverId);
+        message.setRoomId(roomId);
+        message.setGlobal(Message.GLOBAL_ROOM.equals(roomId));
+        message.setContent(content);
+        message.setTimestamp(LocalDateTime.now());
+        return message;
+    }
+}
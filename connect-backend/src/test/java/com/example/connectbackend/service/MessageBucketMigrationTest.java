@@ -0,0 +1,130 @@
+package com.example.connectbackend.service;
+
+import com.example.connectbackend.model.Message;
+import com.example.connectbackend.model.MessageBucket;
+import com.mongodb.client.result.UpdateResult;
+import org.bson.Document;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.data.mongodb.core.FindAndReplaceOptions;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.aggregation.Aggregation;
+import org.springframework.data.mongodb.core.aggregation.AggregationUpdate;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.UpdateDefinition;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Resuming the bucket migration from its progress document: the interrupted batch is removed
+ * from the buckets with their counts recomputed, copying continues after the last copied message,
+ * and a batch the store did not fully write is left pending for the next start.
+ */
+class MessageBucketMigrationTest {
+    private static final LocalDateTime START = LocalDateTime.of(2024, 1, 1, 12, 0);
+
+    private final MongoTemplate mongoTemplate = mock(MongoTemplate.class);
+    private final MessageStore target = mock(MessageStore.class);
+    private final List<List<Message>> inserts = new ArrayList<>();
+    // What the progress document holds after each write
+    private final List<Document> progress = new ArrayList<>();
+
+    @BeforeEach
+    void interruptedRun() {
+        // The previous run copied up to m2 and stopped while writing m3..m4
+        progress.add(new Document("_id", "message-buckets").append("migrated", 2L)
+                .append("lastId", "m2").append("pendingFromId", "m3").append("pendingToId", "m4"));
+        when(mongoTemplate.findById("message-buckets", Document.class, "migrations"))
+                .thenAnswer(invocation -> progress.get(progress.size() - 1));
+        when(mongoTemplate.findAndReplace(any(Query.class), any(Document.class), any(FindAndReplaceOptions.class),
+                eq(Document.class), eq("migrations"))).thenAnswer(invocation -> {
+                    progress.add(invocation.getArgument(1));
+                    return null;
+                });
+        when(mongoTemplate.updateMulti(any(Query.class), any(UpdateDefinition.class), eq(MessageBucket.class)))
+                .thenReturn(UpdateResult.acknowledged(1, 1L, null));
+        when(mongoTemplate.stream(any(Query.class), eq(Message.class)))
+                .thenAnswer(invocation -> Stream.of(message("m3"), message("m4"), message("m5")));
+    }
+
+    @Test
+    void removesTheInterruptedBatchAndContinuesAfterTheLastCopiedMessage() {
+        when(target.insert(any())).thenAnswer(invocation -> {
+            inserts.add(List.copyOf(invocation.<List<Message>>getArgument(0)));
+            return invocation.getArgument(0);
+        });
+
+        new MessageBucketMigration(mongoTemplate, target, 2).run();
+
+        ArgumentCaptor<Query> removed = ArgumentCaptor.forClass(Query.class);
+        ArgumentCaptor<UpdateDefinition> removal = ArgumentCaptor.forClass(UpdateDefinition.class);
+        verify(mongoTemplate).updateMulti(removed.capture(), removal.capture(), eq(MessageBucket.class));
+        assertEquals(new Document("messages.i", new Document("$gte", "m3").append("$lte", "m4")),
+                removed.getValue().getQueryObject());
+        List<Document> stages = ((AggregationUpdate) removal.getValue()).toPipeline(Aggregation.DEFAULT_CONTEXT);
+        assertEquals(2, stages.size());
+        Document filter = stages.get(0).get("$set", Document.class).get("messages", Document.class)
+                .get("$filter", Document.class);
+        assertEquals("$messages", filter.get("input"));
+        assertEquals(new Document("$or", List.of(
+                new Document("$lt", List.of("$$m.i", "m3")),
+                new Document("$gt", List.of("$$m.i", "m4")))), filter.get("cond"));
+        // Counted after the filter, so appends see the room the removal freed
+        assertEquals(new Document("$size", "$messages"), stages.get(1).get("$set", Document.class).get("count"));
+
+        ArgumentCaptor<Query> copied = ArgumentCaptor.forClass(Query.class);
+        verify(mongoTemplate).stream(copied.capture(), eq(Message.class));
+        assertEquals(new Document("id", new Document("$gt", "m2")), copied.getValue().getQueryObject());
+
+        assertEquals(List.of(List.of("m3", "m4"), List.of("m5")),
+                inserts.stream().map(MessageBucketMigrationTest::ids).toList());
+        Document done = progress.get(progress.size() - 1);
+        assertEquals("m5", done.getString("lastId"));
+        assertEquals(5L, done.get("migrated", Number.class).longValue());
+        assertFalse(done.containsKey("pendingFromId"));
+    }
+
+    @Test
+    void leavesABatchTheStoreDidNotWritePending() {
+        when(target.insert(any())).thenAnswer(invocation -> {
+            List<Message> batch = invocation.getArgument(0);
+            inserts.add(List.copyOf(batch));
+            return batch.subList(0, 1);
+        });
+
+        new MessageBucketMigration(mongoTemplate, target, 2).run();
+
+        assertEquals(1, inserts.size());
+        Document stopped = progress.get(progress.size() - 1);
+        assertEquals("m2", stopped.getString("lastId"));
+        assertEquals("m3", stopped.getString("pendingFromId"));
+        assertEquals("m4", stopped.getString("pendingToId"));
+        assertEquals(2L, stopped.get("migrated", Number.class).longValue());
+    }
+
+    private static Message message(String id) {
+        Message message = new Message();
+        message.setId(id);
+        message.setSenderId("alice");
+        message.setGlobal(true);
+        message.setContent("message " + id);
+        message.setTimestamp(START);
+        return message;
+    }
+
+    private static List<String> ids(List<Message> messages) {
+        return messages.stream().map(Message::getId).toList();
+    }
+}
@@ -0,0 +1,218 @@
+package com.example.connectbackend.service;
+
+import com.example.connectbackend.model.Message;
+import com.example.connectbackend.model.MessageCursor;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.WebApplicationType;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.mock;
+
+/**
+ * Write-behind persistence against a store that records each insert: full batches go out without
+ * waiting for the interval, a full queue falls back to a write on the caller, and whatever is
+ * still queued is written when the service shuts down. A message written on the caller that the
+ * store dropped fails the save and stays out of the recent history.
+ */
+class MessageServiceWriteBehindTest {
+    // Long enough that the interval never fires during a test
+    private static final String NO_INTERVAL = "chat.messages.write-behind.flush-interval-ms=600000";
+
+    private final RecordingStore store = new RecordingStore();
+    private ConfigurableApplicationContext context;
+
+    @AfterEach
+    void close() {
+        if (context != null) {
+            context.close();
+        }
+    }
+
+    @Test
+    void flushesAFullBatchWithoutWaitingForTheInterval() throws Exception {
+        MessageService service = start("chat.messages.write-behind.batch-size=3", NO_INTERVAL);
+
+        // Below the batch size nothing is written until the interval or shutdown
+        List<Message> sent = new ArrayList<>(save(service, 2));
+        assertNull(store.inserts.poll(300, TimeUnit.MILLISECONDS));
+
+        sent.addAll(save(service, 1));
+        assertEquals(ids(sent), ids(store.nextInsert()));
+    }
+
+    @Test
+    void writesOnTheCallerWhenTheQueueIsFull() throws Exception {
+        MessageService service = start("chat.messages.write-behind.max-pending=2",
+                "chat.messages.write-behind.batch-size=100", NO_INTERVAL);
+
+        List<Message> queued = save(service, 2);
+        List<Message> overflow = save(service, 1);
+
+        Insert insert = store.nextInsert();
+        assertEquals(ids(overflow), ids(insert));
+        assertEquals(Thread.currentThread().getName(), insert.thread());
+
+        context.close();
+        assertEquals(ids(queued), ids(store.nextInsert()));
+    }
+
+    @Test
+    void drainsTheQueueOnShutdown() throws Exception {
+        MessageService service = start("chat.messages.write-behind.batch-size=4", NO_INTERVAL);
+        save(service, 4);
+        store.nextInsert();
+
+        List<Message> queued = save(service, 7);
+        context.close();
+
+        // In order, in batches of at most batch-size
+        List<String> written = new ArrayList<>();
+        for (Insert insert; (insert = store.inserts.poll()) != null; ) {
+            assertTrue(insert.messages().size() <= 4, "batch of " + insert.messages().size());
+            written.addAll(ids(insert));
+        }
+        assertEquals(ids(queued), written);
+    }
+
+    @Test
+    void writesBeforeReturningInSyncMode() throws Exception {
+        MessageService service = start("chat.messages.durability=SYNC");
+
+        List<Message> sent = save(service, 1);
+        Insert insert = store.inserts.poll();
+        assertEquals(ids(sent), ids(insert));
+        assertEquals(Thread.currentThread().getName(), insert.thread());
+    }
+
+    @Test
+    void failsASyncSaveTheStoreDropped() {
+        MessageService service = start("chat.messages.durability=SYNC");
+        store.dropping = true;
+
+        assertThrows(MessageService.MessageNotSavedException.class,
+                () -> service.saveMessage(message(Message.GLOBAL_ROOM, 0)));
+        assertNull(service.getLatestCursor(Message.GLOBAL_ROOM));
+    }
+
+    @Test
+    void failsAnOverflowSaveTheStoreDropped() throws Exception {
+        MessageService service = start("chat.messages.write-behind.max-pending=1",
+                "chat.messages.write-behind.batch-size=100", NO_INTERVAL);
+        Message queued = service.saveMessage(message(Message.GLOBAL_ROOM, 0));
+        store.dropping = true;
+
+        assertThrows(MessageService.MessageNotSavedException.class,
+                () -> service.saveMessage(message(Message.GLOBAL_ROOM, 1)));
+        assertEquals(Thread.currentThread().getName(), store.nextInsert().thread());
+        // The queued message is history already; the dropped one never was
+        assertEquals(MessageCursor.of(queued), service.getLatestCursor(Message.GLOBAL_ROOM));
+    }
+
+    private MessageService start(String... properties) {
+        InboxService inboxService = mock(InboxService.class);
+        context = new SpringApplicationBuilder(MessageService.class)
+                .web(WebApplicationType.NONE)
+                .initializers(context -> {
+                    context.getBeanFactory().registerSingleton("messageStore", store);
+                    context.getBeanFactory().registerSingleton("inboxService", inboxService);
+                })
+                .properties("spring.main.banner-mode=off")
+                .properties(properties)
+                .run();
+        return context.getBean(MessageService.class);
+    }
+
+    private static List<Message> save(MessageService service, int count) {
+        List<Message> sent = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            sent.add(service.saveMessage(message("lounge", i)));
+        }
+        return sent;
+    }
+
+    private static Message message(String roomId, int number) {
+        Message message = new Message();
+        message.setSenderId("alice");
+        message.setRoomId(roomId);
+        message.setContent("message " + number);
+        message.setTimestamp(LocalDateTime.now());
+        return message;
+    }
+
+    private static List<String> ids(List<Message> messages) {
+        return messages.stream().map(Message::getId).toList();
+    }
+
+    private static List<String> ids(Insert insert) {
+        return ids(insert.messages());
+    }
+
+    record Insert(List<Message> messages, String thread) {
+    }
+
+    // Writes nothing; hands every insert to the test, and reports none written while dropping
+    static class RecordingStore implements MessageStore {
+        final BlockingQueue<Insert> inserts = new LinkedBlockingQueue<>();
+        volatile boolean dropping;
+
+        Insert nextInsert() throws InterruptedException {
+            Insert insert = inserts.poll(5, TimeUnit.SECONDS);
+            if (insert == null) {
+                throw new AssertionError("No insert within 5 s");
+            }
+            return insert;
+        }
+
+        @Override
+        public List<Message> insert(List<Message> messages) {
+            inserts.add(new Insert(List.copyOf(messages), Thread.currentThread().getName()));
+            return dropping ? List.of() : messages;
+        }
+
+        @Override
+        public KeysetQueries room(String roomId) {
+            return EMPTY;
+        }
+
+        @Override
+        public KeysetQueries conversation(String conversationId) {
+            return EMPTY;
+        }
+
+        @Override
+        public Stream<Message> stream(String roomId, String conversationId, LocalDateTime from, LocalDateTime to) {
+            return Stream.empty();
+        }
+
+        private static final KeysetQueries EMPTY = new KeysetQueries() {
+            @Override
+            public List<Message> latest(int limit) {
+                return List.of();
+            }
+
+            @Override
+            public List<Message> before(MessageCursor cursor, int limit) {
+                return List.of();
+            }
+
+            @Override
+            public List<Message> after(MessageCursor cursor, int limit) {
+                return List.of();
+            }
+        };
+    }
+}
@@ -0,0 +1,139 @@
+package com.example.connectbackend.service;
+
+import com.example.connectbackend.model.Message;
+import com.example.connectbackend.repository.MessageRepository;
+import com.example.connectbackend.websocket.Measurement;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.WebApplicationType;
+import org.springframework.boot.autoconfigure.EnableAutoConfiguration;
+import org.springframework.boot.autoconfigure.security.servlet.SecurityAutoConfiguration;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Import;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.repository.config.EnableMongoRepositories;
+
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Write and read cost of the embedded log against the document store, called the way
+ * MessageService calls them: one message per insert (SYNC durability), write-behind batches, and
+ * the latest page of a room. The log runs in a temporary directory with and without forcing each
+ * write to disk. The document store needs a MongoDB server and is only measured when one is given
+ * with -Dchat.benchmark.mongodb-uri; a scratch database is created and dropped. Messages per
+ * second are logged for comparison within one run, not asserted.
+ */
+class MessageStoreThroughputTest {
+    private static final Logger logger = LoggerFactory.getLogger(MessageStoreThroughputTest.class);
+
+    private static final String MONGODB_URI = System.getProperty("chat.benchmark.mongodb-uri");
+    private static final int BATCH_SIZE = 200;
+    private static final int PAGE_SIZE = 50;
+
+    // Not a @SpringBootConfiguration: @SpringBootTest classes in this package would pick it up
+    @Configuration(proxyBeanMethods = false)
+    @EnableAutoConfiguration(exclude = SecurityAutoConfiguration.class)
+    @EnableMongoRepositories(basePackageClasses = MessageRepository.class)
+    @Import(DocumentMessageStore.class)
+    static class DocumentNode {
+    }
+
+    @TempDir
+    Path logDirectory;
+
+    @Test
+    void comparesTheLogWithTheDocumentStore() throws Exception {
+        List<String> results = new ArrayList<>();
+        try (ConfigurableApplicationContext node = startLog("forced", true)) {
+            results.addAll(measure("log, forced", node.getBean(MessageStore.class), 500));
+        }
+        try (ConfigurableApplicationContext node = startLog("unforced", false)) {
+            results.addAll(measure("log", node.getBean(MessageStore.class), 2_000));
+        }
+        if (MONGODB_URI == null) {
+            results.add("document store skipped: pass -Dchat.benchmark.mongodb-uri=mongodb://host:port to measure it");
+        } else {
+            try (ConfigurableApplicationContext node = startDocument()) {
+                try {
+                    results.addAll(measure("document", node.getBean(MessageStore.class), 2_000));
+                } finally {
+                    node.getBean(MongoTemplate.class).getDb().drop();
+                }
+            }
+        }
+        results.forEach(result -> logger.info("{}", result));
+    }
+
+    // Each store gets the same number of messages in each shape, then reads a page of its room
+    private static List<String> measure(String store, MessageStore messageStore, int singles) throws Exception {
+        List<String> results = new ArrayList<>();
+        Measurement.Result single = Measurement.measure(store + " insert 1", singles,
+                () -> messageStore.insert(List.of(message())));
+        results.add(single + perSecond(single, 1));
+        Measurement.Result batch = Measurement.measure(store + " insert " + BATCH_SIZE, singles / BATCH_SIZE + 1,
+                () -> messageStore.insert(batch()));
+        results.add(batch + perSecond(batch, BATCH_SIZE));
+        Measurement.Result page = Measurement.measure(store + " latest " + PAGE_SIZE, singles,
+                () -> messageStore.room("bench").latest(PAGE_SIZE));
+        results.add(page + perSecond(page, PAGE_SIZE));
+
+        List<Message> latest = messageStore.room("bench").latest(PAGE_SIZE);
+        // The measured reads returned a real page, newest first
+        assertEquals(PAGE_SIZE, latest.size(), store);
+        assertTrue(RecentMessageBuffer.HISTORY_ORDER.compare(latest.get(0), latest.get(PAGE_SIZE - 1)) > 0, store);
+        return results;
+    }
+
+    private static String perSecond(Measurement.Result result, int messagesPerOp) {
+        return String.format(" %10d msg/s", Math.round(messagesPerOp * 1e9 / result.nanosPerOp()));
+    }
+
+    private ConfigurableApplicationContext startLog(String name, boolean forceOnWrite) {
+        return new SpringApplicationBuilder(LogMessageStore.class)
+                .web(WebApplicationType.NONE)
+                .profiles(LogMessageStore.PROFILE)
+                .properties("spring.main.banner-mode=off",
+                        "chat.messages.log.dir=" + logDirectory.resolve(name),
+                        "chat.messages.log.force-on-write=" + forceOnWrite)
+                .run();
+    }
+
+    private static ConfigurableApplicationContext startDocument() {
+        return new SpringApplicationBuilder(DocumentNode.class)
+                .web(WebApplicationType.NONE)
+                .properties("spring.main.banner-mode=off",
+                        "spring.data.mongodb.uri=" + MONGODB_URI,
+                        "spring.data.mongodb.database=chat-benchmark-" + System.nanoTime(),
+                        "spring.data.mongodb.auto-index-creation=true")
+                .run();
+    }
+
+    private static List<Message> batch() {
+        List<Message> batch = new ArrayList<>(BATCH_SIZE);
+        for (int i = 0; i < BATCH_SIZE; i++) {
+            batch.add(message());
+        }
+        return batch;
+    }
+
+    private static Message message() {
+        Message message = new Message();
+        message.setSenderId("alice");
+        message.setUserName("Alice");
+        message.setRoomId("bench");
+        message.setContent("a message of about the length people type in a chat room");
+        message.setTimestamp(LocalDateTime.now());
+        MessageService.normalize(message);
+        return message;
+    }
+}
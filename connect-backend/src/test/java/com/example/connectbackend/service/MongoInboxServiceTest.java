@@ -0,0 +1,185 @@
+package com.example.connectbackend.service;
+
+import com.example.connectbackend.model.InboxEntry;
+import com.example.connectbackend.model.Message;
+import com.mongodb.MongoBulkWriteException;
+import com.mongodb.ServerAddress;
+import com.mongodb.bulk.BulkWriteError;
+import com.mongodb.bulk.BulkWriteResult;
+import com.mongodb.client.result.UpdateResult;
+import org.bson.BsonDocument;
+import org.bson.Document;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.data.mongodb.BulkOperationException;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.aggregation.Aggregation;
+import org.springframework.data.mongodb.core.aggregation.AggregationUpdate;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.data.mongodb.core.query.UpdateDefinition;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.lenient;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * The inbox upserts against a mocked MongoTemplate: the update each row gets for a batch, the
+ * counter-only retry when a concurrent first insert wins the unique index, and markRead.
+ */
+@ExtendWith(MockitoExtension.class)
+class MongoInboxServiceTest {
+    private static final LocalDateTime START = LocalDateTime.of(2024, 1, 1, 12, 0);
+
+    @Mock
+    private MongoTemplate mongoTemplate;
+
+    @Mock
+    private BulkOperations bulk;
+
+    @InjectMocks
+    private MongoInboxService inboxService;
+
+    // The update of each user's row, and the rows in the order they were upserted
+    private final Map<String, Update> upserts = new HashMap<>();
+    private final List<String> rows = new ArrayList<>();
+
+    @BeforeEach
+    void recordUpserts() {
+        lenient().when(mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, InboxEntry.class)).thenReturn(bulk);
+        lenient().when(bulk.upsert(any(Query.class), any(Update.class))).thenAnswer(invocation -> {
+            String userId = invocation.<Query>getArgument(0).getQueryObject().getString("userId");
+            rows.add(userId);
+            upserts.put(userId, invocation.getArgument(1));
+            return bulk;
+        });
+    }
+
+    @Test
+    void countsUnreadMessagesForTheReceiverOnly() {
+        inboxService.recordMessages(List.of(
+                message("m1", "alice", "bob", START),
+                message("m2", "alice", "bob", START.plusSeconds(1)),
+                message("r1", "global-room-message", null, START.plusSeconds(2))));
+
+        assertEquals(List.of("alice", "bob"), rows);
+        Document received = upserts.get("bob").getUpdateObject();
+        assertEquals(2, received.get("$inc", Document.class).get("unreadCount"));
+        assertEquals("m2", received.get("$set", Document.class).get("lastMessageId"));
+        assertEquals("alice", received.get("$set", Document.class).get("otherUserId"));
+        assertEquals("Alice", received.get("$set", Document.class).get("otherUserName"));
+
+        // Writing in a conversation reads everything before it
+        Document sent = upserts.get("alice").getUpdateObject();
+        assertEquals(0, sent.get("$set", Document.class).get("unreadCount"));
+        assertFalse(sent.containsKey("$inc"));
+    }
+
+    @Test
+    void aReplyResetsTheRepliersCounter() {
+        inboxService.recordMessages(List.of(
+                message("m1", "alice", "bob", START),
+                message("m2", "bob", "alice", START.plusSeconds(1)),
+                message("m3", "alice", "bob", START.plusSeconds(2))));
+
+        Document bob = upserts.get("bob").getUpdateObject();
+        // Bob replied after m1, so the counter is set to m3 alone rather than incremented
+        assertEquals(1, bob.get("$set", Document.class).get("unreadCount"));
+        assertFalse(bob.containsKey("$inc"));
+        Document alice = upserts.get("alice").getUpdateObject();
+        assertEquals(0, alice.get("$set", Document.class).get("unreadCount"));
+        assertEquals("m3", alice.get("$set", Document.class).get("lastMessageId"));
+    }
+
+    @Test
+    void appliesOnlyTheCounterWhenAConcurrentInsertWonTheRow() {
+        // Bob's upsert (second in the batch) hit the unique index: another writer created the row first
+        when(bulk.execute()).thenThrow(new BulkOperationException("duplicate key", new MongoBulkWriteException(
+                BulkWriteResult.acknowledged(1, 0, 0, 0, List.of(), List.of()),
+                List.of(new BulkWriteError(11000, "E11000 duplicate key", new BsonDocument(), 1)),
+                null, new ServerAddress(), Set.of())));
+
+        inboxService.recordMessages(List.of(message("m1", "alice", "bob", START)));
+
+        ArgumentCaptor<Query> query = ArgumentCaptor.forClass(Query.class);
+        ArgumentCaptor<UpdateDefinition> update = ArgumentCaptor.forClass(UpdateDefinition.class);
+        verify(mongoTemplate).updateFirst(query.capture(), update.capture(), eq(InboxEntry.class));
+        assertEquals("bob", query.getValue().getQueryObject().getString("userId"));
+        assertEquals(Message.conversationIdOf("alice", "bob"), query.getValue().getQueryObject().getString("conversationId"));
+        // The counter only: the stored last message may be newer than this one
+        assertEquals(new Document("$inc", new Document("unreadCount", 1)), update.getValue().getUpdateObject());
+    }
+
+    @Test
+    void ignoresOtherBulkErrors() {
+        when(bulk.execute()).thenThrow(new BulkOperationException("failed", new MongoBulkWriteException(
+                BulkWriteResult.acknowledged(1, 0, 0, 0, List.of(), List.of()),
+                List.of(new BulkWriteError(121, "Document failed validation", new BsonDocument(), 0)),
+                null, new ServerAddress(), Set.of())));
+
+        inboxService.recordMessages(List.of(message("m1", "alice", "bob", START)));
+
+        verify(mongoTemplate, never()).updateFirst(any(Query.class), any(UpdateDefinition.class), eq(InboxEntry.class));
+    }
+
+    @Test
+    void markReadResetsTheCounterAndMovesTheReadCursor() {
+        when(mongoTemplate.updateFirst(any(Query.class), any(UpdateDefinition.class), eq(InboxEntry.class)))
+                .thenReturn(UpdateResult.acknowledged(1, 1L, null));
+
+        assertTrue(inboxService.markRead("bob", "alice"));
+
+        ArgumentCaptor<Query> query = ArgumentCaptor.forClass(Query.class);
+        ArgumentCaptor<UpdateDefinition> update = ArgumentCaptor.forClass(UpdateDefinition.class);
+        verify(mongoTemplate).updateFirst(query.capture(), update.capture(), eq(InboxEntry.class));
+        assertEquals(new Document("userId", "bob").append("conversationId", "alice:bob"), query.getValue().getQueryObject());
+        // One pipeline update, so the read cursor is the last message at the moment the counter is cleared
+        Document set = new Document();
+        ((AggregationUpdate) update.getValue()).toPipeline(Aggregation.DEFAULT_CONTEXT)
+                .forEach(stage -> set.putAll(stage.get("$set", Document.class)));
+        assertEquals(new Document("unreadCount", 0).append("lastReadMessageId", "$lastMessageId"), set);
+    }
+
+    @Test
+    void markReadReportsAMissingConversation() {
+        when(mongoTemplate.updateFirst(any(Query.class), any(UpdateDefinition.class), eq(InboxEntry.class)))
+                .thenReturn(UpdateResult.acknowledged(0, 0L, null));
+
+        assertFalse(inboxService.markRead("bob", "carol"));
+    }
+
+    private static Message message(String id, String senderId, String receiverId, LocalDateTime timestamp) {
+        Message message = new Message();
+        message.setId(id);
+        message.setSenderId(senderId);
+        message.setUserName(Character.toUpperCase(senderId.charAt(0)) + senderId.substring(1));
+        message.setReceiverId(receiverId);
+        message.setContent("message " + id);
+        message.setTimestamp(timestamp);
+        if (receiverId != null) {
+            message.setConversationId(Message.conversationIdOf(senderId, receiverId));
+        } else {
+            message.setRoomId(Message.GLOBAL_ROOM);
+        }
+        return message;
+    }
+}
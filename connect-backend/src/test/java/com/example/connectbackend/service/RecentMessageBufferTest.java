@@ -0,0 +1,126 @@
+package com.example.connectbackend.service;
+
+import com.example.connectbackend.model.Message;
+import org.junit.jupiter.api.Test;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+class RecentMessageBufferTest {
+    private static final LocalDateTime BASE = LocalDateTime.of(2024, 1, 1, 0, 0);
+
+    @Test
+    void stopsAtAClaimedSlotThatIsNotPublishedYet() {
+        RecentMessageBuffer buffer = new RecentMessageBuffer(8);
+        long slow = buffer.claim();
+        long fast = buffer.claim();
+        buffer.publish(fast, message(fast));
+
+        assertEquals(List.of(), buffer.snapshot());
+        assertNull(buffer.latest());
+
+        buffer.publish(slow, message(slow));
+        assertEquals(List.of("0", "1"), buffer.snapshot().stream().map(Message::getId).toList());
+        assertEquals("1", buffer.latest().getId());
+    }
+
+    @Test
+    void keepsOnlyTheNewestLap() {
+        RecentMessageBuffer buffer = new RecentMessageBuffer(3);
+        for (int i = 0; i < 5; i++) {
+            buffer.add(message(i));
+        }
+        assertEquals(List.of("2", "3", "4"), buffer.snapshot().stream().map(Message::getId).toList());
+    }
+
+    @Test
+    void aWriterThatStalledForALapDoesNotOverwriteTheNewerMessage() {
+        RecentMessageBuffer buffer = new RecentMessageBuffer(2);
+        long stalled = buffer.claim();
+        for (int i = 0; i < 2; i++) {
+            long sequence = buffer.claim();
+            buffer.publish(sequence, message(sequence));
+        }
+        buffer.publish(stalled, message(stalled));
+
+        assertEquals(List.of("1", "2"), buffer.snapshot().stream().map(Message::getId).toList());
+        buffer.add(message(3));
+        assertEquals(List.of("2", "3"), buffer.snapshot().stream().map(Message::getId).toList());
+    }
+
+    // Messages are timestamped in claim order, and the ring holds all of them, so every snapshot
+    // has to be a gap-free run of sequences, so every snapshot has to be a gap-free run of sequences
+    @Test
+    void snapshotsNeverSkipAMessageUnderConcurrentWriters() throws Exception {
+        int writers = 8;
+        int perWriter = 5_000;
+        RecentMessageBuffer buffer = new RecentMessageBuffer(writers * perWriter);
+        CountDownLatch start = new CountDownLatch(1);
+        AtomicBoolean writing = new AtomicBoolean(true);
+        AtomicReference<String> gap = new AtomicReference<>();
+
+        List<Thread> threads = new ArrayList<>();
+        for (int w = 0; w < writers; w++) {
+            threads.add(Thread.ofPlatform().start(() -> {
+                awaitQuietly(start);
+                for (int i = 0; i < perWriter; i++) {
+                    long sequence = buffer.claim();
+                    if (sequence % 7 == 0) {
+                        Thread.yield();
+                    }
+                    buffer.publish(sequence, message(sequence));
+                }
+            }));
+        }
+        Thread reader = Thread.ofPlatform().start(() -> {
+            awaitQuietly(start);
+            while (writing.get() && gap.get() == null) {
+                List<Message> snapshot = buffer.snapshot();
+                for (int i = 1; i < snapshot.size(); i++) {
+                    long previous = Long.parseLong(snapshot.get(i - 1).getId());
+                    long current = Long.parseLong(snapshot.get(i).getId());
+                    if (current != previous + 1) {
+                        gap.set(previous + " -> " + current);
+                        break;
+                    }
+                }
+            }
+        });
+
+        start.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        writing.set(false);
+        reader.join();
+
+        assertNull(gap.get(), "snapshot skipped a message: " + gap.get());
+        List<Message> last = buffer.snapshot();
+        assertEquals(writers * perWriter, last.size());
+        assertEquals(Long.toString((long) writers * perWriter - 1), last.get(last.size() - 1).getId());
+        assertSame(last.get(last.size() - 1), buffer.latest());
+    }
+
+    private static Message message(long sequence) {
+        Message message = new Message();
+        message.setId(Long.toString(sequence));
+        message.setTimestamp(BASE.plusNanos(sequence * 1_000_000));
+        return message;
+    }
+
+    private static void awaitQuietly(CountDownLatch latch) {
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
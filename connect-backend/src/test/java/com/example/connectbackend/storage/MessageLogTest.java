@@ -0,0 +1,144 @@
+package com.example.connectbackend.storage;
+
+import com.example.connectbackend.model.Message;
+import com.example.connectbackend.model.MessageCursor;
+import org.bson.types.ObjectId;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * The embedded message log on a temporary directory: channel paging in both directions,
+ * recovery of a torn tail, segment rolling and retention.
+ */
+class MessageLogTest {
+    private static final LocalDateTime START = LocalDateTime.of(2024, 1, 1, 12, 0);
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void pagesOneChannelInBothDirections() throws Exception {
+        try (MessageLog log = MessageLog.open(directory, settings(1 << 20, null))) {
+            List<Message> messages = new ArrayList<>();
+            for (int i = 0; i < 100; i++) {
+                messages.add(message(i % 2 == 0 ? "global" : "other-room", START.plusSeconds(i)));
+            }
+            log.append(messages);
+
+            List<Message> latest = log.before("room:global", null, 10);
+            assertEquals(10, latest.size());
+            assertEquals(messages.get(98).getId(), latest.get(0).getId());
+            assertEquals(messages.get(80).getId(), latest.get(9).getId());
+
+            List<Message> older = log.before("room:global", MessageCursor.of(latest.get(9)), 5);
+            assertEquals(messages.get(78).getId(), older.get(0).getId());
+
+            List<Message> newer = log.after("room:global", MessageCursor.of(messages.get(0)), 3);
+            assertEquals(List.of(messages.get(2).getId(), messages.get(4).getId(), messages.get(6).getId()),
+                    newer.stream().map(Message::getId).toList());
+            assertEquals("global", newer.get(0).getRoomId());
+            assertEquals(messages.get(2).getContent(), newer.get(0).getContent());
+        }
+    }
+
+    @Test
+    void recoversUpToTheLastIntactRecord() throws Exception {
+        List<Message> messages = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            messages.add(message("global", START.plusSeconds(i)));
+        }
+        int tornAt;
+        try (MessageLog log = MessageLog.open(directory, settings(1 << 20, null))) {
+            log.append(messages.subList(0, 19));
+            tornAt = log.activeSegmentEnd();
+            log.append(messages.subList(19, 20));
+        }
+        // A crash halfway through the last record leaves a checksum that no longer matches
+        try (RandomAccessFile file = new RandomAccessFile(directory.resolve(LogSegment.fileName(0, ".log")).toFile(),
+                "rw")) {
+            file.seek(tornAt + 20);
+            file.write(new byte[]{1, 2, 3, 4});
+        }
+
+        try (MessageLog log = MessageLog.open(directory, settings(1 << 20, null))) {
+            assertEquals(19, log.nextSequence());
+            assertEquals(messages.get(18).getId(), log.before("room:global", null, 1).get(0).getId());
+
+            log.append(List.of(messages.get(19)));
+            assertEquals(20, log.nextSequence());
+            assertEquals(messages.get(19).getId(), log.before("room:global", null, 1).get(0).getId());
+        }
+    }
+
+    @Test
+    void rollsSegmentsAndReadsAcrossThemAfterReopening() throws Exception {
+        List<Message> messages = new ArrayList<>();
+        for (int i = 0; i < 500; i++) {
+            messages.add(message("global", START.plusSeconds(i)));
+        }
+        try (MessageLog log = MessageLog.open(directory, settings(16 * 1024, null))) {
+            log.append(messages);
+            assertTrue(log.segmentCount() > 3);
+        }
+
+        try (MessageLog log = MessageLog.open(directory, settings(16 * 1024, null))) {
+            assertEquals(500, log.nextSequence());
+            List<Message> page = log.after("room:global", MessageCursor.of(messages.get(99)), 300);
+            assertEquals(messages.subList(100, 400).stream().map(Message::getId).toList(),
+                    page.stream().map(Message::getId).toList());
+            try (Stream<Message> all = log.stream(null, START.plusSeconds(10), START.plusSeconds(20))) {
+                assertEquals(10, all.count());
+            }
+        }
+    }
+
+    @Test
+    void deletesSealedSegmentsPastRetention() throws Exception {
+        List<Message> messages = new ArrayList<>();
+        for (int i = 0; i < 300; i++) {
+            messages.add(message("global", START.plusMinutes(i)));
+        }
+        Clock clock = Clock.fixed(START.plusMinutes(300).toInstant(ZoneOffset.UTC), ZoneOffset.UTC);
+        try (MessageLog log = MessageLog.open(directory, settings(16 * 1024, Duration.ofHours(1)), clock)) {
+            log.append(messages);
+
+            List<Message> remaining = log.after("room:global", MessageCursor.of(messages.get(0)), 300);
+            assertTrue(remaining.size() < 299);
+            assertTrue(remaining.size() >= 60);
+            assertEquals(messages.get(299).getId(), remaining.get(remaining.size() - 1).getId());
+        }
+        try (Stream<Path> files = Files.list(directory)) {
+            assertTrue(files.noneMatch(path -> path.getFileName().toString().equals(LogSegment.fileName(0, ".log"))));
+        }
+    }
+
+    private static MessageLog.Settings settings(int segmentBytes, Duration retention) {
+        return new MessageLog.Settings(segmentBytes, 512, retention, false);
+    }
+
+    private static Message message(String roomId, LocalDateTime timestamp) {
+        Message message = new Message();
+        message.setId(ObjectId.get().toHexString());
+        message.setSenderId("user-" + timestamp.getSecond());
+        message.setUserName("User " + timestamp.getSecond());
+        message.setContent("message at " + timestamp);
+        message.setRoomId(roomId);
+        message.setGlobal("global".equals(roomId));
+        message.setTimestamp(timestamp);
+        return message;
+    }
+}
@@ -0,0 +1,117 @@
+package com.example.connectbackend.websocket;
+
+import com.example.connectbackend.model.Message;
+import org.junit.jupiter.api.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class BinaryFrameCodecTest {
+    private static final Logger logger = LoggerFactory.getLogger(BinaryFrameCodecTest.class);
+
+    @Test
+    void roundTripsASequencedDirectMessage() {
+        Message message = message();
+        message.setReceiverId("bob");
+        message.setConversationId(Message.conversationIdOf("alice", "bob"));
+
+        BinaryFrameCodec.Decoded decoded = decode(BinaryFrameCodec.encodeChat(message, "direct", 300, "lx2k9"));
+        assertEquals(BinaryFrameCodec.CHAT, decoded.type());
+        assertEquals("direct", decoded.channel());
+        assertEquals(300, decoded.seq());
+        assertEquals("lx2k9", decoded.epoch());
+
+        Message read = decoded.message();
+        assertEquals("alice", read.getSenderId());
+        assertEquals("Alice", read.getUserName());
+        assertEquals("bob", read.getReceiverId());
+        assertEquals(message.getConversationId(), read.getConversationId());
+        assertNull(read.getRoomId());
+        assertEquals(message.getContent(), read.getContent());
+        assertFalse(read.isGlobal());
+        // Both are carried on the wire but only the server assigns them
+        assertNull(read.getId());
+        assertNotEquals(message.getTimestamp(), read.getTimestamp());
+    }
+
+    @Test
+    void roundTripsAnUnsequencedRoomMessage() {
+        Message message = message();
+        message.setRoomId(Message.GLOBAL_ROOM);
+        message.setGlobal(true);
+
+        BinaryFrameCodec.Decoded decoded = decode(BinaryFrameCodec.encodeChat(message, null, 0, null));
+        assertNull(decoded.channel());
+        assertEquals(Message.GLOBAL_ROOM, decoded.message().getRoomId());
+        assertNull(decoded.message().getConversationId());
+        assertTrue(decoded.message().isGlobal());
+    }
+
+    @Test
+    void roundTripsControlFrames() {
+        String json = "{\"type\":\"JOIN\",\"roomId\":\"lounge\"}";
+        BinaryFrameCodec.Decoded decoded = decode(BinaryFrameCodec.encodeControl(json));
+        assertEquals(BinaryFrameCodec.CONTROL, decoded.type());
+        assertEquals(json, decoded.json());
+    }
+
+    @Test
+    void rejectsTruncatedAndUnknownFrames() {
+        byte[] frame = BinaryFrameCodec.encodeChat(message(), "room", 7, "lx2k9");
+        for (int length : new int[] {1, 5, frame.length - 1}) {
+            byte[] truncated = Arrays.copyOf(frame, length);
+            assertThrows(IllegalArgumentException.class, () -> decode(truncated));
+        }
+        assertThrows(IllegalArgumentException.class, () -> decode(new byte[] {9}));
+    }
+
+    // The size and speed comparison with JSON frames the format was introduced for
+    @Test
+    void isSmallerOnTheWireThanJson() throws Exception {
+        MessageJsonCodec json = new MessageJsonCodec(MessageJsonCodec.TimestampFormat.ISO);
+        Message message = message();
+        message.setRoomId(Message.GLOBAL_ROOM);
+        message.setGlobal(true);
+        byte[] jsonFrame = json.encode(message, "room", 123_456, "lx2k9");
+        byte[] binaryFrame = BinaryFrameCodec.encodeChat(message, "room", 123_456, "lx2k9");
+        String jsonPayload = new String(jsonFrame, StandardCharsets.UTF_8);
+
+        logger.info("Frame size: JSON {} B, binary {} B", jsonFrame.length, binaryFrame.length);
+        logger.info("{}", Measurement.measure("JSON encode", 200_000,
+                () -> json.encode(message, "room", 123_456, "lx2k9")));
+        logger.info("{}", Measurement.measure("binary encode", 200_000,
+                () -> BinaryFrameCodec.encodeChat(message, "room", 123_456, "lx2k9")));
+        logger.info("{}", Measurement.measure("JSON decode", 200_000, () -> json.decode(jsonPayload)));
+        logger.info("{}", Measurement.measure("binary decode", 200_000,
+                () -> BinaryFrameCodec.decode(ByteBuffer.wrap(binaryFrame))));
+
+        // Field names, quoting and the ISO timestamp are what the binary format leaves out
+        assertTrue(binaryFrame.length < jsonFrame.length * 3 / 4,
+                "binary " + binaryFrame.length + " B vs JSON " + jsonFrame.length + " B");
+    }
+
+    private static Message message() {
+        Message message = new Message();
+        message.setId("65f1a2b3c4d5e6f708192a3b");
+        message.setSenderId("alice");
+        message.setUserName("Alice");
+        message.setContent("See you at 10 — bring the slides ✓");
+        message.setTimestamp(LocalDateTime.of(2024, 3, 9, 17, 4, 5, 123_000_000));
+        return message;
+    }
+
+    private static BinaryFrameCodec.Decoded decode(byte[] frame) {
+        return BinaryFrameCodec.decode(ByteBuffer.wrap(frame));
+    }
+}
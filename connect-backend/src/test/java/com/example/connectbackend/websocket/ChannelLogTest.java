@@ -0,0 +1,87 @@
+package com.example.connectbackend.websocket;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ChannelLogTest {
+    private final ChannelLog log = new ChannelLog(5);
+
+    @Test
+    void numbersFramesInOrderAndDeliversEachOnce() {
+        List<String> delivered = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            log.publish(this::frame, frame -> delivered.add(text(frame)));
+        }
+        assertEquals(List.of("frame 1", "frame 2", "frame 3"), delivered);
+        assertEquals(3, log.getLastSequence());
+    }
+
+    @Test
+    void replaysTheRetainedGap() {
+        publish(4);
+        List<String> replayed = new ArrayList<>();
+
+        int bytes = log.replayAfter(2, ChannelLogTest::size, Integer.MAX_VALUE, frame -> replayed.add(text(frame)));
+        assertEquals(List.of("frame 3", "frame 4"), replayed);
+        assertEquals(14, bytes);
+
+        replayed.clear();
+        assertEquals(0, log.replayAfter(4, ChannelLogTest::size, Integer.MAX_VALUE, frame -> replayed.add(text(frame))));
+        assertTrue(replayed.isEmpty());
+    }
+
+    @Test
+    void refusesGapsItCannotReplayWhole() {
+        publish(8);
+        List<OutboundFrame> replayed = new ArrayList<>();
+
+        // Frames 1-3 are no longer retained
+        assertEquals(-1, log.replayAfter(2, ChannelLogTest::size, Integer.MAX_VALUE, replayed::add));
+        // From a sequence this log never issued, e.g. before a restart
+        assertEquals(-1, log.replayAfter(9, ChannelLogTest::size, Integer.MAX_VALUE, replayed::add));
+        // Retained, but more bytes than the caller can take
+        assertEquals(-1, log.replayAfter(3, ChannelLogTest::size, 20, replayed::add));
+        assertTrue(replayed.isEmpty());
+
+        assertEquals(21, log.replayAfter(5, ChannelLogTest::size, 21, replayed::add));
+        assertEquals(3, replayed.size());
+    }
+
+    @Test
+    void aLogReplacingADroppedOneRefusesItsPositions() {
+        // The dropped log had handed out sequences up to 7
+        ChannelLog replacement = new ChannelLog(5, 8);
+        List<OutboundFrame> replayed = new ArrayList<>();
+
+        assertEquals(-1, replacement.replayAfter(7, ChannelLogTest::size, Integer.MAX_VALUE, replayed::add));
+        assertEquals(-1, replacement.replayAfter(3, ChannelLogTest::size, Integer.MAX_VALUE, replayed::add));
+        replacement.publish(this::frame, replayed::add);
+        assertEquals(9, replacement.getLastSequence());
+    }
+
+    private void publish(int count) {
+        for (int i = 0; i < count; i++) {
+            log.publish(this::frame, frame -> {
+            });
+        }
+    }
+
+    private OutboundFrame frame(long sequence) {
+        byte[] json = ("frame " + sequence).getBytes(StandardCharsets.UTF_8);
+        return new OutboundFrame(() -> json, () -> json, 0);
+    }
+
+    private static String text(OutboundFrame frame) {
+        return (String) frame.select(WireFormat.JSON, false).getPayload();
+    }
+
+    private static int size(OutboundFrame frame) {
+        return frame.select(WireFormat.JSON, false).getPayloadLength();
+    }
+}
@@ -0,0 +1,109 @@
+package com.example.connectbackend.websocket;
+
+import org.junit.jupiter.api.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.server.ServletServerHttpRequest;
+import org.springframework.http.server.ServletServerHttpResponse;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.web.socket.WebSocketSession;
+import org.springframework.web.socket.adapter.standard.StandardWebSocketSession;
+
+import java.net.URI;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ChatHandshakeInterceptorTest {
+    private static final Logger logger = LoggerFactory.getLogger(ChatHandshakeInterceptorTest.class);
+
+    private final ChatHandshakeInterceptor interceptor = new ChatHandshakeInterceptor();
+
+    @Test
+    void acceptsAUserAndDecodesTheQuery() {
+        Map<String, Object> attributes = new HashMap<>();
+        MockHttpServletResponse response = new MockHttpServletResponse();
+
+        assertTrue(handshake("userId=alice&userName=Alice%20Smith&globalSeq=42", response, attributes));
+        assertEquals(new ChatPrincipal("alice", "Alice Smith"), attributes.get(ChatHandshakeInterceptor.PRINCIPAL_ATTRIBUTE));
+        assertEquals(42L, ((ResumePosition) attributes.get(ChatHandshakeInterceptor.RESUME_ATTRIBUTE)).globalSeq());
+    }
+
+    @Test
+    void rejectsTheServerOwnSenderIds() {
+        for (String userId : new String[]{"AI_ASSISTANT", "SYSTEM", "ai_assistant", "%20SYSTEM"}) {
+            Map<String, Object> attributes = new HashMap<>();
+            MockHttpServletResponse response = new MockHttpServletResponse();
+
+            assertFalse(handshake("userId=" + userId + "&userName=Helper", response, attributes), userId);
+            assertEquals(HttpStatus.FORBIDDEN.value(), response.getStatus());
+            assertFalse(attributes.containsKey(ChatHandshakeInterceptor.PRINCIPAL_ATTRIBUTE));
+        }
+    }
+
+    // "a:b" talking to "c" and "a" talking to "b:c" would share the conversation "a:b:c"
+    @Test
+    void rejectsAUserIdThatCouldCollideInAConversationId() {
+        Map<String, Object> attributes = new HashMap<>();
+        MockHttpServletResponse response = new MockHttpServletResponse();
+
+        assertFalse(handshake("userId=a%3Ab&userName=Alice", response, attributes));
+        assertEquals(HttpStatus.BAD_REQUEST.value(), response.getStatus());
+        assertFalse(attributes.containsKey(ChatHandshakeInterceptor.PRINCIPAL_ATTRIBUTE));
+    }
+
+    @Test
+    void rejectsAMissingUserName() {
+        MockHttpServletResponse response = new MockHttpServletResponse();
+
+        assertFalse(handshake("userId=alice", response, new HashMap<>()));
+        assertEquals(HttpStatus.BAD_REQUEST.value(), response.getStatus());
+    }
+
+    // What each inbound frame paid for the sender's identity before and after resolving it at handshake
+    @Test
+    void readingTheHandshakePrincipalAllocatesNothingPerFrame() throws Exception {
+        URI uri = URI.create("ws://localhost:8080/chat?userId=alice&userName=Alice%20Smith"
+                + "&epoch=lx2k9&globalSeq=1234&directSeq=56");
+        WebSocketSession session = new StandardWebSocketSession(null, new HashMap<>(), null, null,
+                new ChatPrincipal("alice", "Alice Smith"));
+
+        Measurement.Result perFrameQuery = Measurement.measure("query split per frame", 200_000, () -> {
+            String query = uri.getQuery();
+            return new String[] {extractQueryParameter(query, "userId"), extractQueryParameter(query, "userName")};
+        });
+        Measurement.Result principal = Measurement.measure("handshake principal", 200_000,
+                () -> session.getPrincipal() instanceof ChatPrincipal chatPrincipal ? chatPrincipal : null);
+        logger.info("{}", perFrameQuery);
+        logger.info("{}", principal);
+
+        assertTrue(perFrameQuery.bytesPerOp() > 200, perFrameQuery.toString());
+        assertTrue(principal.bytesPerOp() < 1, principal.toString());
+    }
+
+    // The per-frame lookup the handler used before the handshake interceptor
+    private static String extractQueryParameter(String query, String paramName) {
+        if (query != null) {
+            String[] pairs = query.split("&");
+            for (String pair : pairs) {
+                String[] keyValue = pair.split("=");
+                if (keyValue.length == 2 && keyValue[0].equals(paramName)) {
+                    return keyValue[1];
+                }
+            }
+        }
+        return null;
+    }
+
+    private boolean handshake(String query, MockHttpServletResponse servletResponse, Map<String, Object> attributes) {
+        MockHttpServletRequest servletRequest = new MockHttpServletRequest("GET", "/chat");
+        servletRequest.setQueryString(query);
+        return interceptor.beforeHandshake(new ServletServerHttpRequest(servletRequest),
+                new ServletServerHttpResponse(servletResponse), null, attributes);
+    }
+}
@@ -0,0 +1,223 @@
+package com.example.connectbackend.websocket;
+
+import com.example.connectbackend.config.ClusterConfig;
+import com.example.connectbackend.config.WebSocketConfig;
+import com.example.connectbackend.model.Message;
+import com.example.connectbackend.service.MessageService;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.SpringBootConfiguration;
+import org.springframework.boot.autoconfigure.EnableAutoConfiguration;
+import org.springframework.boot.autoconfigure.data.mongo.MongoDataAutoConfiguration;
+import org.springframework.boot.autoconfigure.data.mongo.MongoRepositoriesAutoConfiguration;
+import org.springframework.boot.autoconfigure.mongo.MongoAutoConfiguration;
+import org.springframework.boot.autoconfigure.security.servlet.SecurityAutoConfiguration;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.boot.web.servlet.context.ServletWebServerApplicationContext;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.context.annotation.Import;
+import org.springframework.web.socket.CloseStatus;
+import org.springframework.web.socket.TextMessage;
+import org.springframework.web.socket.WebSocketSession;
+import org.springframework.web.socket.client.standard.StandardWebSocketClient;
+import org.springframework.web.socket.handler.TextWebSocketHandler;
+
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Predicate;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Reconnects against one chat node: a gap in the same epoch is replayed, anything else (another
+ * epoch, or a gap too large for the outbound buffer) is answered with a resync, and the session
+ * stays connected either way. Room logs nobody subscribes to any more are dropped, after which an
+ * old position in the room resyncs too.
+ */
+class ChatResumeIntegrationTest {
+    // Room for a few of the 1 kB messages below, not for all of them
+    private static final int SEND_BUFFER_BYTES = 16 * 1024;
+
+    @SpringBootConfiguration
+    @EnableAutoConfiguration(exclude = {MongoAutoConfiguration.class, MongoDataAutoConfiguration.class,
+            MongoRepositoriesAutoConfiguration.class, SecurityAutoConfiguration.class})
+    @Import({WebSocketConfig.class, ClusterConfig.class})
+    static class Node {
+    }
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private ConfigurableApplicationContext node;
+
+    @BeforeEach
+    void startNode() {
+        MessageService messageService = mock(MessageService.class);
+        when(messageService.saveMessage(any(Message.class))).thenAnswer(invocation -> invocation.getArgument(0));
+        node = new SpringApplicationBuilder(Node.class)
+                .initializers(context -> context.getBeanFactory().registerSingleton("messageService", messageService))
+                .properties("server.port=0",
+                        "spring.main.banner-mode=off",
+                        "spring.devtools.restart.enabled=false",
+                        "chat.cluster.name=resume-" + System.nanoTime(),
+                        "chat.websocket.send-buffer-size-limit=" + SEND_BUFFER_BYTES,
+                        "chat.websocket.replay.idle-ttl-ms=500",
+                        "chat.websocket.max-rooms-per-session=3")
+                .run();
+    }
+
+    @AfterEach
+    void stopNode() {
+        node.close();
+    }
+
+    @Test
+    void replaysASmallGapInTheSameEpoch() throws Exception {
+        Client alice = connect("alice", "");
+        JsonNode sync = alice.await(frame -> "SYNC".equals(frame.path("type").asText()));
+        String epoch = sync.path("epoch").asText();
+        long seen = sync.path("channels").path("global").asLong();
+        post(alice, 3, "short");
+
+        Client resumed = connect("bob", "&epoch=" + epoch + "&globalSeq=" + seen);
+        for (long seq = seen + 1; seq <= seen + 3; seq++) {
+            long expected = seq;
+            resumed.await(frame -> frame.path("seq").asLong() == expected && "room".equals(frame.path("channel").asText()));
+        }
+        JsonNode resumedSync = resumed.await(frame -> "SYNC".equals(frame.path("type").asText()));
+        assertTrue(resumedSync.path("resync").isEmpty());
+    }
+
+    @Test
+    void resyncsAcrossEpochs() throws Exception {
+        Client alice = connect("alice", "");
+        alice.await(frame -> "SYNC".equals(frame.path("type").asText()));
+        post(alice, 1, "short");
+
+        Client resumed = connect("bob", "&epoch=another-node-run&globalSeq=0");
+        JsonNode sync = resumed.await(frame -> "SYNC".equals(frame.path("type").asText()));
+        assertEquals("global", sync.path("resync").get(0).asText());
+    }
+
+    @Test
+    void resyncsAGapLargerThanTheBufferInsteadOfEvicting() throws Exception {
+        Client alice = connect("alice", "");
+        JsonNode sync = alice.await(frame -> "SYNC".equals(frame.path("type").asText()));
+        String epoch = sync.path("epoch").asText();
+        long seen = sync.path("channels").path("global").asLong();
+        post(alice, 40, "x".repeat(1000));
+
+        Client resumed = connect("bob", "&epoch=" + epoch + "&globalSeq=" + seen);
+        JsonNode resumedSync = resumed.await(frame -> "SYNC".equals(frame.path("type").asText()));
+        assertEquals("global", resumedSync.path("resync").get(0).asText());
+        Thread.sleep(200);
+        assertTrue(resumed.session.isOpen());
+        assertNull(resumed.closeStatus);
+    }
+
+    @Test
+    void dropsTheLogOfARoomNobodyIsInAndResyncsItsOldPositions() throws Exception {
+        Client alice = connect("alice", "");
+        JsonNode sync = alice.await(frame -> "SYNC".equals(frame.path("type").asText()));
+        String epoch = sync.path("epoch").asText();
+        alice.send(control("JOIN", "lounge").toString());
+        alice.await(frame -> "JOINED".equals(frame.path("type").asText()));
+        post(alice, "lounge", 2, "short");
+        alice.send(control("LEAVE", "lounge").toString());
+        alice.await(frame -> "LEFT".equals(frame.path("type").asText()));
+
+        // Idle for 500 ms, noticed by one sweep and dropped by the next, a second later
+        Thread.sleep(2500);
+        alice.send(control("JOIN", "lounge").put("epoch", epoch).put("lastSeq", 2).toString());
+        JsonNode joined = alice.await(frame -> "JOINED".equals(frame.path("type").asText()));
+        assertTrue(joined.path("resync").asBoolean());
+        assertTrue(joined.path("seq").asLong() > 2);
+    }
+
+    @Test
+    void limitsTheRoomsOneSessionCanJoin() throws Exception {
+        Client alice = connect("alice", "");
+        alice.await(frame -> "SYNC".equals(frame.path("type").asText()));
+        for (String room : new String[] {"one", "two"}) {
+            alice.send(control("JOIN", room).toString());
+            alice.await(frame -> room.equals(frame.path("roomId").asText()) && "JOINED".equals(frame.path("type").asText()));
+        }
+
+        alice.send(control("JOIN", "three").toString());
+        alice.await(frame -> "Too many rooms joined".equals(frame.path("content").asText()));
+    }
+
+    private ObjectNode control(String type, String roomId) {
+        return objectMapper.createObjectNode().put("type", type).put("roomId", roomId);
+    }
+
+    private void post(Client client, int count, String content) throws Exception {
+        post(client, Message.GLOBAL_ROOM, count, content);
+    }
+
+    // Posts count messages one at a time, each once the previous one has come back
+    private void post(Client client, String roomId, int count, String content) throws Exception {
+        for (int i = 0; i < count; i++) {
+            String text = content + " " + i;
+            client.send(objectMapper.createObjectNode()
+                    .put("roomId", roomId)
+                    .put("content", text).toString());
+            client.await(frame -> text.equals(frame.path("content").asText()));
+        }
+    }
+
+    private Client connect(String userId, String resume) throws Exception {
+        int port = ((ServletWebServerApplicationContext) node).getWebServer().getPort();
+        Client client = new Client();
+        new StandardWebSocketClient()
+                .execute(client, "ws://localhost:" + port + "/chat?userId=" + userId + "&userName=" + userId + resume)
+                .get(5, TimeUnit.SECONDS);
+        return client;
+    }
+
+    private class Client extends TextWebSocketHandler {
+        private final BlockingQueue<JsonNode> frames = new LinkedBlockingQueue<>();
+        private volatile WebSocketSession session;
+        private volatile CloseStatus closeStatus;
+
+        @Override
+        public void afterConnectionEstablished(WebSocketSession session) {
+            this.session = session;
+        }
+
+        @Override
+        protected void handleTextMessage(WebSocketSession session, TextMessage message) throws Exception {
+            frames.add(objectMapper.readTree(message.getPayload()));
+        }
+
+        @Override
+        public void afterConnectionClosed(WebSocketSession session, CloseStatus status) {
+            closeStatus = status;
+        }
+
+        void send(String json) throws Exception {
+            session.sendMessage(new TextMessage(json));
+        }
+
+        JsonNode await(Predicate<JsonNode> match) throws InterruptedException {
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+            while (System.nanoTime() < deadline) {
+                JsonNode frame = frames.poll(100, TimeUnit.MILLISECONDS);
+                if (frame != null && match.test(frame)) {
+                    return frame;
+                }
+            }
+            assertNotNull(null, "No matching frame within 5 s");
+            return null;
+        }
+    }
+}
@@ -0,0 +1,162 @@
+package com.example.connectbackend.websocket;
+
+import com.example.connectbackend.config.ClusterConfig;
+import com.example.connectbackend.config.WebSocketConfig;
+import com.example.connectbackend.model.Message;
+import com.example.connectbackend.service.MessageService;
+import jakarta.websocket.ContainerProvider;
+import jakarta.websocket.WebSocketContainer;
+import org.junit.jupiter.api.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.SpringBootConfiguration;
+import org.springframework.boot.autoconfigure.EnableAutoConfiguration;
+import org.springframework.boot.autoconfigure.data.mongo.MongoDataAutoConfiguration;
+import org.springframework.boot.autoconfigure.data.mongo.MongoRepositoriesAutoConfiguration;
+import org.springframework.boot.autoconfigure.mongo.MongoAutoConfiguration;
+import org.springframework.boot.autoconfigure.security.servlet.SecurityAutoConfiguration;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.boot.web.servlet.context.ServletWebServerApplicationContext;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.context.annotation.Import;
+import org.springframework.web.socket.TextMessage;
+import org.springframework.web.socket.WebSocketSession;
+import org.springframework.web.socket.client.standard.StandardWebSocketClient;
+import org.springframework.web.socket.handler.TextWebSocketHandler;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Both inbound modes with 1000 concurrent senders whose messages each spend a few milliseconds
+ * in a blocking store write, as with SYNC durability: every message is delivered, and each
+ * sender's messages arrive in the order they were sent. The throughput of each mode is logged
+ * for comparison (INLINE holds a container thread for every write, VIRTUAL parks a virtual
+ * thread instead) but not asserted, since wall-clock numbers depend on the machine.
+ */
+class InboundModeThroughputTest {
+    private static final Logger logger = LoggerFactory.getLogger(InboundModeThroughputTest.class);
+
+    private static final int SENDERS = 1000;
+    private static final int MESSAGES_PER_SENDER = 5;
+    private static final long STORE_WRITE_MILLIS = 10;
+    private static final Pattern CONTENT = Pattern.compile("\"content\":\"message (\\d+)\"");
+
+    @SpringBootConfiguration
+    @EnableAutoConfiguration(exclude = {MongoAutoConfiguration.class, MongoDataAutoConfiguration.class,
+            MongoRepositoriesAutoConfiguration.class, SecurityAutoConfiguration.class})
+    @Import({WebSocketConfig.class, ClusterConfig.class})
+    static class Node {
+    }
+
+    @Test
+    void deliversEverySendersMessagesInOrderInBothModes() throws Exception {
+        double inline = messagesPerSecond(InboundMode.INLINE);
+        double virtual = messagesPerSecond(InboundMode.VIRTUAL);
+        logger.info("{} senders x {} messages, {} ms store write: INLINE {} msg/s, VIRTUAL {} msg/s",
+                SENDERS, MESSAGES_PER_SENDER, STORE_WRITE_MILLIS, Math.round(inline), Math.round(virtual));
+    }
+
+    @Test
+    void createsTheInboundExecutorOnlyForVirtualMode() {
+        try (ConfigurableApplicationContext node = start("INLINE")) {
+            assertFalse(node.getBeanFactory().containsSingleton("chatInboundExecutor"));
+        }
+        try (ConfigurableApplicationContext node = start("VIRTUAL")) {
+            assertTrue(node.getBeanFactory().containsSingleton("chatInboundExecutor"));
+        }
+    }
+
+    @Test
+    void refusesToStartWithAnUnknownMode() {
+        assertThrows(Exception.class, () -> start("INLNE").close());
+    }
+
+    private double messagesPerSecond(InboundMode mode) throws Exception {
+        try (ConfigurableApplicationContext node = start(mode.name())) {
+            int port = ((ServletWebServerApplicationContext) node).getWebServer().getPort();
+            CountDownLatch delivered = new CountDownLatch(SENDERS * MESSAGES_PER_SENDER);
+            // Number of the next message expected from each sender
+            AtomicIntegerArray next = new AtomicIntegerArray(SENDERS);
+            Queue<String> outOfOrder = new ConcurrentLinkedQueue<>();
+            List<CompletableFuture<WebSocketSession>> connecting = new ArrayList<>();
+            // Presence snapshots for 1000 users are larger than the client's default 8 kB text buffer
+            WebSocketContainer container = ContainerProvider.getWebSocketContainer();
+            container.setDefaultMaxTextMessageBufferSize(64 * 1024);
+            StandardWebSocketClient client = new StandardWebSocketClient(container);
+            for (int i = 0; i < SENDERS; i++) {
+                String userId = "sender-" + i;
+                int sender = i;
+                connecting.add(client.execute(new TextWebSocketHandler() {
+                    @Override
+                    protected void handleTextMessage(WebSocketSession session, TextMessage message) {
+                        Matcher content = CONTENT.matcher(message.getPayload());
+                        if (content.find()) {
+                            int number = Integer.parseInt(content.group(1));
+                            if (!next.compareAndSet(sender, number, number + 1)) {
+                                outOfOrder.add(userId + " got message " + number + ", expected " + next.get(sender));
+                            }
+                            delivered.countDown();
+                        }
+                    }
+                }, "ws://localhost:" + port + "/chat?userId=" + userId + "&userName=" + userId));
+            }
+            List<WebSocketSession> sessions = new ArrayList<>();
+            for (CompletableFuture<WebSocketSession> session : connecting) {
+                sessions.add(session.get(30, TimeUnit.SECONDS));
+            }
+
+            long start = System.nanoTime();
+            // Each sender writes to itself, so delivery is one frame per message and no fan-out
+            for (int m = 0; m < MESSAGES_PER_SENDER; m++) {
+                for (int i = 0; i < SENDERS; i++) {
+                    WebSocketSession session = sessions.get(i);
+                    synchronized (session) {
+                        session.sendMessage(new TextMessage("{\"receiverId\":\"sender-" + i
+                                + "\",\"content\":\"message " + m + "\"}"));
+                    }
+                }
+            }
+            assertTrue(delivered.await(120, TimeUnit.SECONDS),
+                    mode + ": " + delivered.getCount() + " messages not delivered");
+            double seconds = (System.nanoTime() - start) / 1e9;
+            assertTrue(outOfOrder.isEmpty(), mode + ": " + outOfOrder);
+            for (WebSocketSession session : sessions) {
+                session.close();
+            }
+            return SENDERS * MESSAGES_PER_SENDER / seconds;
+        }
+    }
+
+    private static ConfigurableApplicationContext start(String inboundMode) {
+        MessageService messageService = mock(MessageService.class);
+        when(messageService.saveMessage(any(Message.class))).thenAnswer(invocation -> {
+            Thread.sleep(STORE_WRITE_MILLIS);
+            return invocation.getArgument(0);
+        });
+        return new SpringApplicationBuilder(Node.class)
+                .initializers(context -> context.getBeanFactory().registerSingleton("messageService", messageService))
+                .properties("server.port=0",
+                        "spring.main.banner-mode=off",
+                        "spring.devtools.restart.enabled=false",
+                        "logging.level.com.example.connectbackend.websocket.ChatWebSocketHandler=WARN",
+                        "chat.cluster.name=inbound-" + System.nanoTime(),
+                        "chat.websocket.inbound-mode=" + inboundMode)
+                .run();
+    }
+}
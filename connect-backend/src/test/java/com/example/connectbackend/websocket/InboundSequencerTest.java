@@ -0,0 +1,90 @@
+package com.example.connectbackend.websocket;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Per-key lanes: submission order within a key, and a bounded depth that refuses tasks while
+ * a key's lane is full and accepts them again once it has drained.
+ */
+class InboundSequencerTest {
+    private final ExecutorService executor =
+            Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("test-inbound-", 0).factory());
+
+    @AfterEach
+    void stop() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    void runsTheTasksOfOneKeyInOrder() throws Exception {
+        InboundSequencer sequencer = new InboundSequencer(executor, 10_000);
+        List<Integer> ran = new CopyOnWriteArrayList<>();
+        CountDownLatch done = new CountDownLatch(5_000);
+        for (int i = 0; i < 5_000; i++) {
+            int task = i;
+            assertTrue(sequencer.submit("alice", () -> {
+                ran.add(task);
+                done.countDown();
+            }));
+        }
+
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+        List<Integer> expected = new ArrayList<>();
+        for (int i = 0; i < 5_000; i++) {
+            expected.add(i);
+        }
+        assertEquals(expected, ran);
+    }
+
+    @Test
+    void refusesTasksWhileAKeysLaneIsFull() throws Exception {
+        InboundSequencer sequencer = new InboundSequencer(executor, 3);
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        CountDownLatch done = new CountDownLatch(4);
+
+        // The first task is taken by the drain and blocks, three more fill the lane
+        assertTrue(sequencer.submit("alice", () -> {
+            started.countDown();
+            await(release);
+            done.countDown();
+        }));
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+        for (int i = 0; i < 3; i++) {
+            assertTrue(sequencer.submit("alice", done::countDown));
+        }
+        assertFalse(sequencer.submit("alice", done::countDown));
+
+        // Other keys have lanes of their own
+        CountDownLatch bob = new CountDownLatch(1);
+        assertTrue(sequencer.submit("bob", bob::countDown));
+        assertTrue(bob.await(5, TimeUnit.SECONDS));
+
+        release.countDown();
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        CountDownLatch again = new CountDownLatch(1);
+        assertTrue(sequencer.submit("alice", again::countDown));
+        assertTrue(again.await(5, TimeUnit.SECONDS));
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,42 @@
+package com.example.connectbackend.websocket;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.Callable;
+
+/**
+ * Rough in-test measurements: wall time and bytes allocated per operation on the calling thread,
+ * after a warm-up pass of the same size. Not a JMH harness; the numbers are for comparing two
+ * approaches within one run, not absolute figures.
+ */
+public final class Measurement {
+    // Keeps results reachable so the JIT cannot drop the measured work
+    private static volatile Object sink;
+
+    public record Result(String name, double nanosPerOp, double bytesPerOp) {
+        @Override
+        public String toString() {
+            return String.format("%-32s %10.1f ns/op %10.1f B/op", name, nanosPerOp, bytesPerOp);
+        }
+    }
+
+    private Measurement() {
+    }
+
+    public static Result measure(String name, int operations, Callable<?> operation) throws Exception {
+        com.sun.management.ThreadMXBean threads =
+                (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long threadId = Thread.currentThread().threadId();
+        for (int i = 0; i < operations; i++) {
+            sink = operation.call();
+        }
+
+        long allocatedBefore = threads.getThreadAllocatedBytes(threadId);
+        long start = System.nanoTime();
+        for (int i = 0; i < operations; i++) {
+            sink = operation.call();
+        }
+        long elapsed = System.nanoTime() - start;
+        long allocated = threads.getThreadAllocatedBytes(threadId) - allocatedBefore;
+        return new Result(name, (double) elapsed / operations, (double) allocated / operations);
+    }
+}
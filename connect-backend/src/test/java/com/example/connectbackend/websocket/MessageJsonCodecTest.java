@@ -0,0 +1,107 @@
+package com.example.connectbackend.websocket;
+
+import com.example.connectbackend.model.Message;
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import org.junit.jupiter.api.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class MessageJsonCodecTest {
+    private static final Logger logger = LoggerFactory.getLogger(MessageJsonCodecTest.class);
+
+    private final MessageJsonCodec codec = new MessageJsonCodec(MessageJsonCodec.TimestampFormat.ISO);
+    // Configured like the handler's, which wrote chat frames before the codec
+    private final ObjectMapper objectMapper = new ObjectMapper()
+            .findAndRegisterModules()
+            .disable(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS)
+            .setSerializationInclusion(JsonInclude.Include.NON_NULL);
+
+    @Test
+    void writesWhatTheObjectMapperWrote() throws IOException {
+        Message message = message();
+        assertEquals(objectMapper.readTree(objectMapper.writeValueAsBytes(message)),
+                objectMapper.readTree(codec.encode(message)));
+    }
+
+    @Test
+    void addsSequenceFieldsAndEpochMillis() throws IOException {
+        MessageJsonCodec millis = new MessageJsonCodec(MessageJsonCodec.TimestampFormat.EPOCH_MILLIS);
+        Message message = message();
+
+        var frame = objectMapper.readTree(millis.encode(message, "room", 42, "lx2k9"));
+        assertEquals("room", frame.path("channel").asText());
+        assertEquals(42, frame.path("seq").asLong());
+        assertEquals("lx2k9", frame.path("epoch").asText());
+        assertEquals(message.getTimestamp().atZone(ZoneId.systemDefault()).toInstant().toEpochMilli(),
+                frame.path("timestamp").asLong());
+    }
+
+    @Test
+    void roundTripsTheFieldsAClientMaySet() throws IOException {
+        Message message = message();
+        Message read = codec.decode(new String(codec.encode(message, "room", 7, "lx2k9"), StandardCharsets.UTF_8));
+
+        assertEquals(message.getSenderId(), read.getSenderId());
+        assertEquals(message.getUserName(), read.getUserName());
+        assertEquals(message.getRoomId(), read.getRoomId());
+        assertEquals(message.getContent(), read.getContent());
+        assertTrue(read.isGlobal());
+        // Server-assigned fields are not taken from the client
+        assertNull(read.getId());
+        assertNotEquals(message.getTimestamp(), read.getTimestamp());
+    }
+
+    @Test
+    void leavesControlFramesAndRejectsMalformedJson() throws IOException {
+        assertNull(codec.decode("{\"type\":\"JOIN\",\"roomId\":\"lounge\"}"));
+        assertEquals("hi", codec.decode("{\"type\":null,\"content\":\"hi\",\"extra\":{\"a\":[1,2]}}").getContent());
+        assertThrows(IOException.class, () -> codec.decode("[1,2]"));
+        assertThrows(IOException.class, () -> codec.decode("{\"content\":{\"nested\":true}}"));
+        assertThrows(IOException.class, () -> codec.decode("{\"content\":"));
+    }
+
+    // Throughput and allocation against the ObjectMapper data binding the codec replaced
+    @Test
+    void allocatesLessThanTheObjectMapper() throws Exception {
+        Message message = message();
+        String payload = new String(codec.encode(message), StandardCharsets.UTF_8);
+
+        Measurement.Result codecEncode = Measurement.measure("codec encode", 200_000, () -> codec.encode(message));
+        Measurement.Result mapperEncode = Measurement.measure("ObjectMapper encode", 200_000,
+                () -> objectMapper.writeValueAsBytes(message));
+        Measurement.Result codecDecode = Measurement.measure("codec decode", 200_000, () -> codec.decode(payload));
+        Measurement.Result mapperDecode = Measurement.measure("ObjectMapper decode", 200_000,
+                () -> objectMapper.readValue(payload, Message.class));
+        for (Measurement.Result result : new Measurement.Result[] {codecEncode, mapperEncode, codecDecode, mapperDecode}) {
+            logger.info("{}", result);
+        }
+
+        assertTrue(codecEncode.bytesPerOp() < mapperEncode.bytesPerOp(), codecEncode + " vs " + mapperEncode);
+        assertTrue(codecDecode.bytesPerOp() < mapperDecode.bytesPerOp(), codecDecode + " vs " + mapperDecode);
+    }
+
+    private static Message message() {
+        Message message = new Message();
+        message.setId("65f1a2b3c4d5e6f708192a3b");
+        message.setSenderId("alice");
+        message.setUserName("Alice");
+        message.setRoomId(Message.GLOBAL_ROOM);
+        message.setGlobal(true);
+        message.setContent("See you at 10 — bring the \"slides\" ✓");
+        message.setTimestamp(LocalDateTime.of(2024, 3, 9, 17, 4, 5, 123_000_000));
+        return message;
+    }
+}
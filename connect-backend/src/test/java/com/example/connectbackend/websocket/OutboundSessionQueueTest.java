@@ -0,0 +1,149 @@
+package com.example.connectbackend.websocket;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.web.socket.CloseStatus;
+import org.springframework.web.socket.TextMessage;
+import org.springframework.web.socket.WebSocketMessage;
+import org.springframework.web.socket.WebSocketSession;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Per-session outbound queues on the virtual-thread drain executor: ordering, both overflow
+ * policies, and the send time limit on a drain that is stuck in a blocking send.
+ */
+class OutboundSessionQueueTest {
+    private final ExecutorService drainExecutor =
+            Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("test-send-", 0).factory());
+    private final CountDownLatch release = new CountDownLatch(1);
+
+    @AfterEach
+    void stop() {
+        release.countDown();
+        drainExecutor.shutdownNow();
+    }
+
+    @Test
+    void sendsInOrder() throws Exception {
+        List<String> sent = new CopyOnWriteArrayList<>();
+        CountDownLatch done = new CountDownLatch(100);
+        WebSocketSession session = session("s1");
+        doAnswer(invocation -> {
+            sent.add(((TextMessage) invocation.getArgument(0)).getPayload());
+            done.countDown();
+            return null;
+        }).when(session).sendMessage(any());
+        OutboundSessionQueue queue = queue(session, 1 << 20, 10_000, SlowConsumerPolicy.CLOSE);
+
+        List<String> expected = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            expected.add("frame " + i);
+            assertTrue(queue.enqueue(new TextMessage("frame " + i)));
+        }
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        assertEquals(expected, sent);
+    }
+
+    @Test
+    void closesTheSessionWhenTheBufferOverflowsUnderClose() throws Exception {
+        WebSocketSession session = stalledSession("s1");
+        OutboundSessionQueue queue = queue(session, 100, 60_000, SlowConsumerPolicy.CLOSE);
+        assertTrue(queue.enqueue(new TextMessage("x".repeat(10))));
+        verify(session, timeout(1000)).sendMessage(any());
+
+        for (int i = 0; i < 5; i++) {
+            assertTrue(queue.enqueue(new TextMessage("y".repeat(20))));
+        }
+        assertFalse(queue.enqueue(new TextMessage("z")));
+        assertFalse(queue.isOpen());
+        assertEquals(0, queue.getBufferSize());
+        verify(session, timeout(1000)).close(CloseStatus.SESSION_NOT_RELIABLE);
+    }
+
+    @Test
+    void dropsTheOldestFramesUnderDrop() throws Exception {
+        WebSocketSession session = stalledSession("s1");
+        OutboundSessionQueue queue = queue(session, 100, 60_000, SlowConsumerPolicy.DROP);
+        assertTrue(queue.enqueue(new TextMessage("x")));
+        verify(session, timeout(1000)).sendMessage(any());
+
+        for (int i = 0; i < 10; i++) {
+            assertTrue(queue.enqueue(new TextMessage("y".repeat(20))));
+        }
+        assertTrue(queue.isOpen());
+        assertEquals(100, queue.getBufferSize());
+        verify(session, never()).close(any());
+    }
+
+    @Test
+    void evictsADrainStuckInASendWithoutFurtherEnqueues() throws Exception {
+        WebSocketSession session = stalledSession("s1");
+        OutboundSessionQueue queue = queue(session, 1 << 20, 100, SlowConsumerPolicy.CLOSE);
+        assertTrue(queue.enqueue(new TextMessage("hello")));
+        verify(session, timeout(1000)).sendMessage(any());
+
+        assertTrue(queue.enforceSendTimeLimit());
+        Thread.sleep(150);
+        assertFalse(queue.enforceSendTimeLimit());
+        verify(session, timeout(1000)).close(CloseStatus.SESSION_NOT_RELIABLE);
+    }
+
+    @Test
+    void stalledPeersDoNotHoldUpOtherSessions() throws Exception {
+        // Far more stalled peers than the old fixed pool of 8 send threads
+        for (int i = 0; i < 50; i++) {
+            WebSocketSession stalled = stalledSession("stalled-" + i);
+            queue(stalled, 1 << 20, 60_000, SlowConsumerPolicy.CLOSE).enqueue(new TextMessage("stuck"));
+        }
+        CountDownLatch delivered = new CountDownLatch(1);
+        WebSocketSession healthy = session("healthy");
+        doAnswer(invocation -> {
+            delivered.countDown();
+            return null;
+        }).when(healthy).sendMessage(any());
+
+        queue(healthy, 1 << 20, 60_000, SlowConsumerPolicy.CLOSE).enqueue(new TextMessage("hello"));
+        assertTrue(delivered.await(2, TimeUnit.SECONDS));
+    }
+
+    private OutboundSessionQueue queue(WebSocketSession session, int bufferSizeLimit, long sendTimeLimitMillis,
+                                       SlowConsumerPolicy policy) {
+        return new OutboundSessionQueue(session, drainExecutor, bufferSizeLimit, sendTimeLimitMillis, policy,
+                WireFormat.JSON, false);
+    }
+
+    private static WebSocketSession session(String id) {
+        WebSocketSession session = mock(WebSocketSession.class);
+        when(session.getId()).thenReturn(id);
+        when(session.isOpen()).thenReturn(true);
+        return session;
+    }
+
+    // A peer that stopped reading: every send blocks until the test ends
+    private WebSocketSession stalledSession(String id) throws Exception {
+        WebSocketSession session = session(id);
+        doAnswer(invocation -> {
+            release.await();
+            return null;
+        }).when(session).sendMessage(any(WebSocketMessage.class));
+        return session;
+    }
+}
@@ -0,0 +1,112 @@
+package com.example.connectbackend.websocket;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Test;
+import org.springframework.web.socket.TextMessage;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+
+/**
+ * Presence windows, flushed by hand instead of by the scheduler: flaps inside a window produce
+ * no frame, real changes one diff per window, and the snapshot matches what the diffs describe.
+ */
+class PresenceServiceTest {
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final List<JsonNode> broadcast = new ArrayList<>();
+    private final ScheduledExecutorService scheduler = mock(ScheduledExecutorService.class);
+    private final PresenceService presence = new PresenceService(objectMapper,
+            frame -> broadcast.add(read(frame)), scheduler, 250);
+
+    @Test
+    void flushesOnTheWindow() {
+        verify(scheduler).scheduleAtFixedRate(any(Runnable.class), eq(250L), eq(250L), eq(TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    void sendsNothingForAQuickReconnect() {
+        presence.userOnline("alice", "Alice");
+        presence.flush();
+        broadcast.clear();
+
+        presence.userOffline("alice");
+        presence.userOnline("alice", "Alice");
+        presence.flush();
+
+        assertTrue(broadcast.isEmpty(), broadcast.toString());
+    }
+
+    @Test
+    void sendsNothingForAUserWhoCameAndWentInOneWindow() {
+        presence.userOnline("bob", "Bob");
+        presence.userOffline("bob");
+        presence.flush();
+
+        assertTrue(broadcast.isEmpty(), broadcast.toString());
+    }
+
+    @Test
+    void sendsOneDiffPerWindow() {
+        presence.userOnline("alice", "Alice");
+        presence.userOnline("bob", "Bob");
+        presence.flush();
+        presence.userOffline("alice");
+        presence.userOnline("carol", "Carol");
+        presence.flush();
+
+        assertEquals(2, broadcast.size());
+        JsonNode first = broadcast.get(0);
+        assertEquals("PRESENCE", first.path("type").asText());
+        assertEquals(Map.of("alice", "Alice", "bob", "Bob"), users(first.path("joined")));
+        assertTrue(first.path("left").isEmpty());
+
+        JsonNode second = broadcast.get(1);
+        assertEquals(Map.of("carol", "Carol"), users(second.path("joined")));
+        assertEquals("alice", second.path("left").get(0).asText());
+        assertEquals(1, second.path("left").size());
+    }
+
+    @Test
+    void snapshotListsWhoIsOnlineAfterTheWindow() throws Exception {
+        presence.userOnline("alice", "Alice");
+        presence.userOnline("bob", "Bob");
+        presence.userOffline("bob");
+        presence.userOnline("carol", "Carol");
+        presence.userOffline("alice");
+        presence.userOnline("alice", "Alice (phone)");
+        presence.flush();
+
+        JsonNode snapshot = read(presence.snapshot());
+        assertEquals("PRESENCE_SNAPSHOT", snapshot.path("type").asText());
+        Map<String, String> online = users(snapshot.path("online"));
+        assertEquals(Map.of("alice", "Alice (phone)", "carol", "Carol"), online);
+        // A client that started from an empty list and applied the diff sees the same users
+        assertEquals(online, users(broadcast.get(0).path("joined")));
+    }
+
+    private static Map<String, String> users(JsonNode array) {
+        Map<String, String> users = new HashMap<>();
+        array.forEach(user -> users.put(user.path("userId").asText(), user.path("userName").asText()));
+        return users;
+    }
+
+    private JsonNode read(TextMessage frame) {
+        try {
+            return objectMapper.readTree(frame.getPayload());
+        } catch (Exception e) {
+            throw new AssertionError(e);
+        }
+    }
+}
@@ -0,0 +1,151 @@
+package com.example.connectbackend.websocket;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.web.socket.WebSocketSession;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Both directions of the membership index stay consistent under concurrent joins and leaves,
+ * and a closed session leaves every room it was in.
+ */
+class RoomSubscriptionsTest {
+    private final RoomSubscriptions subscriptions = new RoomSubscriptions();
+
+    @Test
+    void joinsAndLeavesOnce() {
+        OutboundSessionQueue queue = queue("s1");
+
+        assertTrue(subscriptions.join("lounge", queue));
+        assertFalse(subscriptions.join("lounge", queue));
+        assertTrue(subscriptions.isMember("lounge", queue));
+        assertEquals(Set.of(queue), Set.copyOf(subscriptions.membersOf("lounge")));
+
+        assertTrue(subscriptions.leave("lounge", queue));
+        assertFalse(subscriptions.leave("lounge", queue));
+        assertFalse(subscriptions.isMember("lounge", queue));
+        assertTrue(subscriptions.membersOf("lounge").isEmpty());
+    }
+
+    @Test
+    void removesEveryMembershipOfAClosedSession() {
+        OutboundSessionQueue closed = queue("s1");
+        OutboundSessionQueue other = queue("s2");
+        subscriptions.join("global", closed);
+        subscriptions.join("lounge", closed);
+        subscriptions.join("lounge", other);
+
+        assertEquals(Set.of("global", "lounge"), subscriptions.removeSession(closed));
+        assertEquals(0, subscriptions.roomCount(closed));
+        assertTrue(subscriptions.membersOf("global").isEmpty());
+        assertEquals(Set.of(other), Set.copyOf(subscriptions.membersOf("lounge")));
+        assertTrue(subscriptions.removeSession(closed).isEmpty());
+    }
+
+    // One session keeps emptying the room while others join it: no join may be lost with the room's set
+    @Test
+    void keepsConcurrentJoinsWhileTheRoomEmpties() throws Exception {
+        OutboundSessionQueue churn = queue("churn");
+        List<OutboundSessionQueue> joiners = new ArrayList<>();
+        for (int i = 0; i < 200; i++) {
+            joiners.add(queue("s" + i));
+        }
+
+        ExecutorService threads = Executors.newFixedThreadPool(4);
+        try {
+            CountDownLatch start = new CountDownLatch(1);
+            List<Future<?>> running = new ArrayList<>();
+            running.add(threads.submit(() -> {
+                start.await();
+                for (int i = 0; i < 20_000; i++) {
+                    subscriptions.join("lounge", churn);
+                    subscriptions.leave("lounge", churn);
+                }
+                return null;
+            }));
+            for (int t = 0; t < 3; t++) {
+                List<OutboundSessionQueue> share = joiners.subList(t * joiners.size() / 3, (t + 1) * joiners.size() / 3);
+                running.add(threads.submit(() -> {
+                    start.await();
+                    for (OutboundSessionQueue queue : share) {
+                        subscriptions.join("lounge", queue);
+                        Thread.yield();
+                    }
+                    return null;
+                }));
+            }
+            start.countDown();
+            for (Future<?> future : running) {
+                future.get();
+            }
+        } finally {
+            threads.shutdownNow();
+        }
+
+        assertEquals(Set.copyOf(joiners), Set.copyOf(subscriptions.membersOf("lounge")));
+        for (OutboundSessionQueue queue : joiners) {
+            assertTrue(subscriptions.isMember("lounge", queue));
+        }
+        assertFalse(subscriptions.isMember("lounge", churn));
+    }
+
+    // Many sessions joining and leaving many rooms at once end with the same view from both sides
+    @Test
+    void staysConsistentUnderConcurrentJoinsAndLeaves() throws Exception {
+        List<OutboundSessionQueue> queues = new ArrayList<>();
+        for (int i = 0; i < 64; i++) {
+            queues.add(queue("s" + i));
+        }
+
+        ExecutorService threads = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<?>> running = new ArrayList<>();
+            for (int t = 0; t < 8; t++) {
+                int seed = t;
+                running.add(threads.submit(() -> {
+                    for (int i = 0; i < 5_000; i++) {
+                        OutboundSessionQueue queue = queues.get((seed * 31 + i * 7) % queues.size());
+                        String room = "room-" + (i + seed) % 5;
+                        if ((i + seed) % 3 == 0) {
+                            subscriptions.leave(room, queue);
+                        } else {
+                            subscriptions.join(room, queue);
+                        }
+                    }
+                }));
+            }
+            for (Future<?> future : running) {
+                future.get();
+            }
+        } finally {
+            threads.shutdownNow();
+        }
+
+        for (int r = 0; r < 5; r++) {
+            String room = "room-" + r;
+            for (OutboundSessionQueue queue : queues) {
+                assertEquals(subscriptions.isMember(room, queue), subscriptions.membersOf(room).contains(queue),
+                        room + " / " + queue.getSession().getId());
+            }
+        }
+    }
+
+    private static OutboundSessionQueue queue(String sessionId) {
+        WebSocketSession session = mock(WebSocketSession.class);
+        when(session.getId()).thenReturn(sessionId);
+        return new OutboundSessionQueue(session, Runnable::run, 1 << 20, 10_000, SlowConsumerPolicy.CLOSE,
+                WireFormat.JSON, false);
+    }
+}
@@ -0,0 +1,102 @@
+package com.example.connectbackend.websocket;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.web.socket.WebSocketSession;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Devices of one user: the first open and the last close are reported exactly once, including
+ * when devices connect and disconnect concurrently, and a closed device is gone from the registry.
+ */
+class SessionRegistryTest {
+    private final SessionRegistry registry = new SessionRegistry();
+
+    @Test
+    void reportsTheFirstAndLastDevice() {
+        OutboundSessionQueue phone = queue("phone");
+        OutboundSessionQueue laptop = queue("laptop");
+
+        assertTrue(registry.add("alice", phone));
+        assertFalse(registry.add("alice", laptop));
+        assertArrayEquals(new OutboundSessionQueue[]{phone, laptop}, registry.sessionsOf("alice"));
+
+        // Closing one device keeps the user online with the other
+        assertFalse(registry.remove("alice", phone));
+        assertTrue(registry.isOnline("alice"));
+        assertArrayEquals(new OutboundSessionQueue[]{laptop}, registry.sessionsOf("alice"));
+
+        assertTrue(registry.remove("alice", laptop));
+        assertFalse(registry.isOnline("alice"));
+        assertEquals(0, registry.sessionsOf("alice").length);
+        assertEquals(0, registry.userCount());
+    }
+
+    @Test
+    void ignoresASessionThatIsNotRegistered() {
+        OutboundSessionQueue phone = queue("phone");
+        registry.add("alice", phone);
+
+        assertFalse(registry.remove("alice", queue("other")));
+        assertFalse(registry.remove("bob", phone));
+        assertArrayEquals(new OutboundSessionQueue[]{phone}, registry.sessionsOf("alice"));
+    }
+
+    // Devices reconnecting in parallel: every online period has exactly one first and one last session
+    @Test
+    void countsFirstAndLastOnceUnderConcurrentDevices() throws Exception {
+        AtomicInteger firsts = new AtomicInteger();
+        AtomicInteger lasts = new AtomicInteger();
+        ExecutorService threads = Executors.newFixedThreadPool(6);
+        try {
+            CountDownLatch start = new CountDownLatch(1);
+            List<Future<?>> devices = new ArrayList<>();
+            for (int d = 0; d < 6; d++) {
+                OutboundSessionQueue queue = queue("device-" + d);
+                devices.add(threads.submit(() -> {
+                    start.await();
+                    for (int i = 0; i < 5_000; i++) {
+                        if (registry.add("alice", queue)) {
+                            firsts.incrementAndGet();
+                        }
+                        assertTrue(registry.sessionsOf("alice").length > 0);
+                        if (registry.remove("alice", queue)) {
+                            lasts.incrementAndGet();
+                        }
+                    }
+                    return null;
+                }));
+            }
+            start.countDown();
+            for (Future<?> device : devices) {
+                device.get();
+            }
+        } finally {
+            threads.shutdownNow();
+        }
+
+        assertFalse(registry.isOnline("alice"));
+        assertEquals(firsts.get(), lasts.get());
+        assertTrue(firsts.get() > 0);
+    }
+
+    private static OutboundSessionQueue queue(String sessionId) {
+        WebSocketSession session = mock(WebSocketSession.class);
+        when(session.getId()).thenReturn(sessionId);
+        return new OutboundSessionQueue(session, Runnable::run, 1 << 20, 10_000, SlowConsumerPolicy.CLOSE,
+                WireFormat.JSON, false);
+    }
+}
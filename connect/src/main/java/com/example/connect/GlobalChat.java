@@ -1,9 +1,5 @@
 package com.example.connect;
 
-import com.fasterxml.jackson.core.JsonProcessingException;
-import com.fasterxml.jackson.databind.ObjectMapper;
-import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
-
 import javafx.application.Application;
 import javafx.application.Platform;
 import javafx.event.Event;
@@ -12,19 +8,9 @@ import javafx.scene.Scene;
 import javafx.scene.control.Alert;
 import javafx.scene.control.Button;
 import javafx.stage.Stage;
-import com.example.connect.model.Message;
-
-import java.io.BufferedReader;
-import java.io.IOException;
-import java.io.InputStreamReader;
-import java.io.OutputStream;
-import java.net.HttpURLConnection;
-import java.net.URL;
-import java.nio.charset.StandardCharsets;
-import java.time.LocalDateTime;
+
 import java.util.HashMap;
 import java.util.Map;
-import java.util.concurrent.CompletableFuture;
 
 public class GlobalChat extends Application {
     private final String userName;
@@ -76,6 +62,7 @@ public class GlobalChat extends Application {
     private void initializeMessageHandling() {
         messageHandler = new MessageHandler(userId, userName, chatView);
         messageFetcher = new MessageFetcher(chatView);
+        messageHandler.getWebSocketClient().setOnResync(messageFetcher::resync);
 
         setupMessageHandlers();
         setupAIHandler();
@@ -92,13 +79,11 @@ public class GlobalChat extends Application {
         });
     }
 
+    // The server answers "@AI" messages itself and streams the answer back over the WebSocket
     private void setupAIHandler() {
         chatView.setOnAIRequest(question -> {
             if (isValidMessage(question)) {
-                System.out.println(question);
-                question = "@AI " + question;
-                messageHandler.sendMessage(question);
-                handleAIQuestion(question);
+                messageHandler.sendMessage("@AI " + question);
                 chatView.clearMessageInput();
             }
         });
@@ -108,48 +93,6 @@ public class GlobalChat extends Application {
         return message != null && !message.trim().isEmpty();
     }
 
-    private void handleAIQuestion(String question) {
-        CompletableFuture.runAsync(() -> {
-            try {
-                AIRequest request = new AIRequest(userId, userName, question);
-
-                AIResponse response = request.send();
-
-                Platform.runLater(() -> {
-                    // Create message object for WebSocket
-                    Map<String, Object> messageData = new HashMap<>();
-                    messageData.put("senderId", "AI_ASSISTANT");
-                    messageData.put("userName", "AI_Assistant");
-                    messageData.put("content", response.getContent());
-                    messageData.put("timestamp", LocalDateTime.now().toString());
-                    messageData.put("global", true);
-
-                    System.out.println(messageData);
-
-                    // Send via WebSocket to ensure persistence and broadcasting
-                    String jsonMessage;
-                    try {
-                        jsonMessage = new ObjectMapper()
-                                .registerModule(new JavaTimeModule())
-                                .writeValueAsString(messageData);
-                        messageHandler.getWebSocketClient().send(jsonMessage);
-                    } catch (JsonProcessingException e) {
-                        // TODO Auto-generated catch block
-                        e.printStackTrace();
-                    }
-
-                    // chatView.addMessage(
-                    // "AI_ASSISTANT",
-                    // "AI Assistant",
-                    // response.getContent(),
-                    // LocalDateTime.now().toString());
-                });
-            } catch (Exception e) {
-                Platform.runLater(() -> showError("AI request failed: " + e.getMessage()));
-            }
-        });
-    }
-
     private void fetchExistingMessages() {
         messageFetcher.fetchMessages();
     }
@@ -177,66 +120,8 @@ public class GlobalChat extends Application {
         });
     }
 
-    // Inner class for AI request handling
-    private static class AIRequest {
-        private final String userId;
-        private final String userName;
-        private final String question;
-
-        public AIRequest(String userId, String userName, String question) {
-            this.userId = userId;
-            this.userName = userName;
-            this.question = question;
-        }
-
-        AIResponse send() throws IOException {
-            // AI request implementation
-            try {
-                Map<String, String> requestData = new HashMap<>();
-                requestData.put("question", question);
-                requestData.put("userId", userId);
-                requestData.put("userName", userName);
-
-                ObjectMapper mapper = new ObjectMapper()
-                        .registerModule(new JavaTimeModule());
-                String jsonPayload = mapper.writeValueAsString(requestData);
-
-                URL url = new URL("http://localhost:8080/api/ai/ask");
-                HttpURLConnection conn = (HttpURLConnection) url.openConnection();
-                conn.setRequestMethod("POST");
-                conn.setRequestProperty("Content-Type", "application/json");
-                conn.setDoOutput(true);
-
-                // Send request
-                try (OutputStream os = conn.getOutputStream()) {
-                    os.write(jsonPayload.getBytes(StandardCharsets.UTF_8));
-                }
-
-                // Handle response
-                if (conn.getResponseCode() == 200) {
-                    Message response = mapper.readValue(
-                            conn.getInputStream(),
-                            Message.class);
-                    return new AIResponse(response.getContent());
-                } else {
-                    throw new IOException("Server returned code: " + conn.getResponseCode());
-                }
-            } catch (Exception e) {
-                throw new IOException("Failed to get AI response: " + e.getMessage(), e);
-            }
-        }
-    }
-
-    private static class AIResponse {
-        private final String content;
-
-        public AIResponse(String content) {
-            this.content = content;
-        }
-
-        public String getContent() {
-            return content;
-        }
+    private record MessageBubble(javafx.scene.layout.HBox container, javafx.scene.text.Text content,
+                                 javafx.scene.text.Text timestamp) {
     }
 
     public class ChatView extends javafx.scene.layout.VBox {
@@ -248,6 +133,8 @@ public class GlobalChat extends Application {
         private final javafx.scene.control.ScrollPane scrollPane;
         private Runnable onSendMessage;
         private java.util.function.Consumer<String> onAIRequest;
+        // Answers still streaming in, by message id; only touched on the FX thread
+        private final Map<String, MessageBubble> partialBubbles = new HashMap<>();
 
         public ChatView(String userId, String userName) {
             this.userId = userId;
@@ -308,6 +195,54 @@ public class GlobalChat extends Application {
         }
 
         public void addMessage(String senderId, String senderName, String content, String timestamp) {
+            MessageBubble bubble = createBubble(senderId, senderName, content, timestamp);
+            Platform.runLater(() -> {
+                messagesContainer.getChildren().add(bubble.container());
+                scrollPane.setVvalue(2.0);
+            });
+        }
+
+        // A final message that may complete an answer which was streaming in under the same id
+        public void addMessage(String id, String senderId, String senderName, String content, String timestamp) {
+            Platform.runLater(() -> {
+                MessageBubble partial = id == null ? null : partialBubbles.remove(id);
+                if (partial == null) {
+                    messagesContainer.getChildren().add(
+                            createBubble(senderId, senderName, content, timestamp).container());
+                    scrollPane.setVvalue(2.0);
+                    return;
+                }
+                partial.content().setText(content);
+                partial.timestamp().setText(timestamp);
+            });
+        }
+
+        // Next piece of a message that is still being generated
+        public void appendPartial(String id, String senderId, String senderName, String delta) {
+            Platform.runLater(() -> {
+                MessageBubble partial = partialBubbles.get(id);
+                if (partial == null) {
+                    partial = createBubble(senderId, senderName, delta, "typing...");
+                    partialBubbles.put(id, partial);
+                    messagesContainer.getChildren().add(partial.container());
+                } else {
+                    partial.content().setText(partial.content().getText() + delta);
+                }
+                scrollPane.setVvalue(2.0);
+            });
+        }
+
+        // Generation failed; drop what was shown of the message
+        public void abortPartial(String id) {
+            Platform.runLater(() -> {
+                MessageBubble partial = partialBubbles.remove(id);
+                if (partial != null) {
+                    messagesContainer.getChildren().remove(partial.container());
+                }
+            });
+        }
+
+        private MessageBubble createBubble(String senderId, String senderName, String content, String timestamp) {
             javafx.scene.layout.VBox messageBox = new javafx.scene.layout.VBox(5);
             System.out.println("useId = " + userId + "senderId = " + senderId);
             boolean isSentByCurrentUser = senderId.equals(userId);
@@ -348,10 +283,7 @@ public class GlobalChat extends Application {
                 messageBox.setAlignment(Pos.CENTER_LEFT);
             }
 
-            Platform.runLater(() -> {
-                messagesContainer.getChildren().add(container);
-                scrollPane.setVvalue(2.0);
-            });
+            return new MessageBubble(container, contentText, timestampText);
         }
 
         public void setOnSendMessage(Runnable handler) {
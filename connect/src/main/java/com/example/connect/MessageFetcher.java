@@ -4,8 +4,12 @@ import com.fasterxml.jackson.core.type.TypeReference;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import javafx.application.Platform;
 
+import java.io.IOException;
 import java.net.HttpURLConnection;
 import java.net.URL;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
 import java.time.LocalDateTime;
@@ -17,53 +21,112 @@ public class MessageFetcher {
     private LocalDateTime lastFetchTime;
     private static final DateTimeFormatter formatter = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
 
+    private static final String SYNC_URL = "http://localhost:8080/api/messages/sync";
+    // A delta this large means we were away too long; reload the latest page instead
+    private static final int SYNC_LIMIT = 100;
+    private static final int MAX_CACHED_MESSAGES = 500;
+
+    // Global history already downloaded in this run of the app, so reopening the chat
+    // only asks the server for what is newer than syncCursor. Guarded by cacheLock.
+    private static final Object cacheLock = new Object();
+    private static final List<Map<String, Object>> cachedMessages = new ArrayList<>();
+    private static String syncCursor;
+    private static String syncEtag;
+
     public MessageFetcher(GlobalChat.ChatView chatView) {
         this.chatView = chatView;
         this.objectMapper = new ObjectMapper();
         this.lastFetchTime = LocalDateTime.now();
     }
 
-    // Fetches all global messages from the server
+    // Shows the global history: the cached messages plus whatever the server has after them
     public void fetchMessages() {
         new Thread(() -> {
             try {
-                URL url = new URL("http://localhost:8080/api/messages/global");
-                HttpURLConnection conn = (HttpURLConnection) url.openConnection();
-                conn.setRequestMethod("GET");
-    
-                if (conn.getResponseCode() == 200) {
-                    List<Map<String, Object>> messages = objectMapper.readValue(
-                        conn.getInputStream(),
-                        new TypeReference<List<Map<String, Object>>>() {}
-                    );
-    
-                    Platform.runLater(() -> {
-                        chatView.clearMessages();
-                        // Only add messages that were sent before the connection
-                        for (Map<String, Object> message : messages) {
-                            // System.out.println("Message data: " + message);
-
-                            String timestamp = (String) message.get("timestamp");
-                            LocalDateTime messageTime = LocalDateTime.parse(timestamp);
-                            
-                            // Only show messages from before the connection
-                            if (messageTime.isBefore(lastFetchTime)) {
-
-                                // System.out.println(message);
-                                String senderId = (String) message.get("senderId");
-                                String userName = (String) message.get("userName");
-                                String content = (String) message.get("content");
-                                chatView.addMessage(senderId, userName, content, formatTimestamp(timestamp));
-                            }
+                List<Map<String, Object>> messages = syncGlobalMessages();
+
+                Platform.runLater(() -> {
+                    chatView.clearMessages();
+                    // Only add messages that were sent before the connection
+                    for (Map<String, Object> message : messages) {
+                        // System.out.println("Message data: " + message);
+
+                        String timestamp = (String) message.get("timestamp");
+                        LocalDateTime messageTime = LocalDateTime.parse(timestamp);
+
+                        // Only show messages from before the connection
+                        if (messageTime.isBefore(lastFetchTime)) {
+
+                            // System.out.println(message);
+                            String senderId = (String) message.get("senderId");
+                            String userName = (String) message.get("userName");
+                            String content = (String) message.get("content");
+                            chatView.addMessage(senderId, userName, content, formatTimestamp(timestamp));
                         }
-                    });
-                }
+                    }
+                });
             } catch (Exception e) {
                 Platform.runLater(() -> showError("Error fetching messages: " + e.getMessage()));
             }
         }).start();
     }
 
+    // Brings the cache up to date with one conditional request; 304 means nothing new
+    private List<Map<String, Object>> syncGlobalMessages() throws IOException {
+        synchronized (cacheLock) {
+            String query = "?limit=" + SYNC_LIMIT;
+            if (syncCursor != null) {
+                query += "&since=" + URLEncoder.encode(syncCursor, StandardCharsets.UTF_8);
+            }
+            HttpURLConnection conn = (HttpURLConnection) new URL(SYNC_URL + query).openConnection();
+            conn.setRequestMethod("GET");
+            if (syncCursor != null && syncEtag != null) {
+                conn.setRequestProperty("If-None-Match", syncEtag);
+            }
+
+            int status = conn.getResponseCode();
+            if (status == HttpURLConnection.HTTP_NOT_MODIFIED) {
+                return new ArrayList<>(cachedMessages);
+            }
+            if (status != HttpURLConnection.HTTP_OK) {
+                throw new IOException("Server returned " + status);
+            }
+
+            Map<String, Object> page = objectMapper.readValue(
+                conn.getInputStream(),
+                new TypeReference<Map<String, Object>>() {}
+            );
+            @SuppressWarnings("unchecked")
+            List<Map<String, Object>> messages = (List<Map<String, Object>>) page.get("messages");
+
+            if (syncCursor != null && messages.size() >= SYNC_LIMIT) {
+                // Too far behind to catch up by deltas
+                cachedMessages.clear();
+                syncCursor = null;
+                syncEtag = null;
+                return syncGlobalMessages();
+            }
+            if (syncCursor == null) {
+                cachedMessages.clear();
+            }
+            cachedMessages.addAll(messages);
+            if (cachedMessages.size() > MAX_CACHED_MESSAGES) {
+                cachedMessages.subList(0, cachedMessages.size() - MAX_CACHED_MESSAGES).clear();
+            }
+            if (page.get("nextCursor") != null) {
+                syncCursor = (String) page.get("nextCursor");
+                syncEtag = conn.getHeaderField("ETag");
+            }
+            return new ArrayList<>(cachedMessages);
+        }
+    }
+
+    // Catches up after the server could not replay what a reconnect missed; the delta sync fetches the gap
+    public void resync() {
+        this.lastFetchTime = LocalDateTime.now();
+        fetchMessages();
+    }
+
     // Helper method to format timestamps
     private String formatTimestamp(String timestamp) {
         try {
@@ -6,7 +6,13 @@ import org.java_websocket.client.WebSocketClient;
 import org.java_websocket.handshake.ServerHandshake;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
+import java.io.ByteArrayOutputStream;
 import java.net.URI;
+import java.net.URLEncoder;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
 import java.util.List;
 import java.util.Map;
 
@@ -16,11 +22,18 @@ public class ChatWebSocketClient extends WebSocketClient {
     private final ObjectMapper objectMapper;
     private final String userId;
     private final String userName;
-    private boolean isOpen;
+    private volatile boolean isOpen;
+    private volatile boolean closedByUser;
+
+    // Resume position: the server epoch and the last sequence seen on each channel
+    private volatile String epoch;
+    private volatile long lastGlobalSeq = -1;
+    private volatile long lastDirectSeq = -1;
+    private Runnable onResync = () -> { };
 
     public ChatWebSocketClient(String userId, String userName, GlobalChat.ChatView chatView) {
         // Connect to your WebSocket endpoint
-        super(URI.create("ws://localhost:8080/chat?userId=" + userId + "&userName=" + userName));
+        super(URI.create(baseUri(userId, userName).toString()));
         this.chatView = chatView;
         this.userId = userId;
         this.userName = userName;
@@ -30,6 +43,32 @@ public class ChatWebSocketClient extends WebSocketClient {
         this.objectMapper.findAndRegisterModules();
     }
 
+    // Called when the server can no longer replay what we missed and history must be reloaded
+    public void setOnResync(Runnable onResync) {
+        this.onResync = onResync;
+    }
+
+    // Names with spaces, '&' or non-ASCII characters must not break the query
+    private static StringBuilder baseUri(String userId, String userName) {
+        return new StringBuilder("ws://localhost:8080/chat?compression=deflate&userId=")
+                .append(URLEncoder.encode(userId, StandardCharsets.UTF_8))
+                .append("&userName=").append(URLEncoder.encode(userName, StandardCharsets.UTF_8));
+    }
+
+    private URI resumeUri() {
+        StringBuilder uri = baseUri(userId, userName);
+        if (epoch != null) {
+            uri.append("&epoch=").append(epoch);
+            if (lastGlobalSeq >= 0) {
+                uri.append("&globalSeq=").append(lastGlobalSeq);
+            }
+            if (lastDirectSeq >= 0) {
+                uri.append("&directSeq=").append(lastDirectSeq);
+            }
+        }
+        return URI.create(uri.toString());
+    }
+
     @Override
     public void onOpen(ServerHandshake handshake) {
         System.out.println("WebSocket Connection Established");
@@ -45,6 +84,28 @@ public class ChatWebSocketClient extends WebSocketClient {
             Map<String, Object> messageData = objectMapper.readValue(message, Map.class);
             // System.out.println("Received message: " + messageData); // Debug print
 
+            if ("SYNC".equals(messageData.get("type"))) {
+                handleSync(messageData);
+                return;
+            }
+            // An answer being generated: pieces first, then the final message with the same id
+            if ("PARTIAL".equals(messageData.get("type"))) {
+                chatView.appendPartial((String) messageData.get("id"), (String) messageData.get("senderId"),
+                        (String) messageData.get("userName"), (String) messageData.get("delta"));
+                return;
+            }
+            if ("PARTIAL_ABORTED".equals(messageData.get("type"))) {
+                chatView.abortPartial((String) messageData.get("id"));
+                return;
+            }
+            // Other control frames (presence, rooms) are not shown in the chat
+            if (messageData.get("type") != null) {
+                return;
+            }
+            if (isDuplicate(messageData)) {
+                return;
+            }
+
             // Convert timestamp array to string format
             Object timestamp = messageData.get("timestamp");
             if (timestamp instanceof List) {
@@ -67,7 +128,71 @@ public class ChatWebSocketClient extends WebSocketClient {
         }
     }
 
+    // Large frames arrive as raw-deflate binary frames because we connect with compression=deflate
+    @Override
+    public void onMessage(ByteBuffer bytes) {
+        try {
+            onMessage(inflate(bytes));
+        } catch (DataFormatException e) {
+            System.err.println("Error inflating message: " + e.getMessage());
+        }
+    }
+
+    private static String inflate(ByteBuffer bytes) throws DataFormatException {
+        Inflater inflater = new Inflater(true);
+        try {
+            inflater.setInput(bytes);
+            ByteArrayOutputStream output = new ByteArrayOutputStream();
+            byte[] buffer = new byte[4096];
+            while (!inflater.finished()) {
+                int count = inflater.inflate(buffer);
+                if (count == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    break;
+                }
+                output.write(buffer, 0, count);
+            }
+            return output.toString(StandardCharsets.UTF_8);
+        } finally {
+            inflater.end();
+        }
+    }
+
+    private void handleSync(Map<String, Object> sync) {
+        epoch = (String) sync.get("epoch");
+        Map<?, ?> channels = (Map<?, ?>) sync.get("channels");
+        lastGlobalSeq = ((Number) channels.get("global")).longValue();
+        lastDirectSeq = ((Number) channels.get("direct")).longValue();
+        List<?> resync = (List<?>) sync.get("resync");
+        if (resync != null && !resync.isEmpty()) {
+            onResync.run();
+        }
+    }
+
+    // Tracks sequenced frames; anything at or below the last seen sequence was already shown
+    private boolean isDuplicate(Map<String, Object> messageData) {
+        Object seq = messageData.get("seq");
+        Object channel = messageData.get("channel");
+        if (!(seq instanceof Number) || channel == null) {
+            return false;
+        }
+        long sequence = ((Number) seq).longValue();
+        // This client only follows the global room
+        if ("room".equals(channel) && "global".equals(messageData.get("roomId"))) {
+            if (sequence <= lastGlobalSeq) {
+                return true;
+            }
+            lastGlobalSeq = sequence;
+        } else if ("direct".equals(channel)) {
+            if (sequence <= lastDirectSeq) {
+                return true;
+            }
+            lastDirectSeq = sequence;
+        }
+        return false;
+    }
+
     private void handleSingleMessage(Map<String, Object> messageData) {
+        String id = (String) messageData.get("id");
         String senderId = (String) messageData.get("senderId");
         String senderName = (String) messageData.get("userName");
         String content = (String) messageData.get("content");
@@ -79,7 +204,7 @@ public class ChatWebSocketClient extends WebSocketClient {
             // if (!senderId.equals(userId)
 
             // ) {
-                chatView.addMessage(senderId, senderName, content, timestamp);
+                chatView.addMessage(id, senderId, senderName, content, timestamp);
             // }
         });
     }
@@ -87,13 +212,18 @@ public class ChatWebSocketClient extends WebSocketClient {
     @Override
     public void onClose(int code, String reason, boolean remote) {
         System.out.println("WebSocket Connection Closed: " + reason);
+        this.isOpen = false;
+        if (closedByUser) {
+            return;
+        }
 
-        // Attempt to reconnect after a delay
+        // Attempt to reconnect after a delay, resuming from the last sequences we saw
         new Thread(() -> {
             try {
                 Thread.sleep(5000);
-                if (!isOpen) {
-                    // reconnect();
+                if (!isOpen && !closedByUser) {
+                    uri = resumeUri();
+                    reconnect();
                 }
             } catch (InterruptedException e) {
                 e.printStackTrace();
@@ -101,6 +231,12 @@ public class ChatWebSocketClient extends WebSocketClient {
         }).start();
     }
 
+    @Override
+    public void close() {
+        closedByUser = true;
+        super.close();
+    }
+
     public void send(String text) {
         if (!isOpen) {
             System.out.println("Waiting for connection...");